@@ -2,6 +2,7 @@ package com.dmarcotte.handlebars;
 
 import com.dmarcotte.handlebars.parsing.HbLexer;
 import com.dmarcotte.handlebars.parsing.HbTokenTypes;
+import com.dmarcotte.handlebars.parsing.HbUnclosedCommentCache;
 import com.intellij.lang.annotation.HighlightSeverity;
 import com.intellij.lexer.Lexer;
 import com.intellij.openapi.editor.SyntaxHighlighterColors;
@@ -11,6 +12,7 @@ import com.intellij.openapi.fileTypes.SyntaxHighlighterBase;
 import com.intellij.openapi.util.Pair;
 import com.intellij.psi.tree.IElementType;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.awt.Color;
 import java.util.HashMap;
@@ -24,9 +26,22 @@ public class HbHighlighter extends SyntaxHighlighterBase {
     private static final Map<IElementType, TextAttributesKey> keys1;
     private static final Map<IElementType, TextAttributesKey> keys2;
 
+    private final HbUnclosedCommentCache myUnclosedCommentCache;
+
+    public HbHighlighter() {
+        this(null);
+    }
+
+    /**
+     * @param unclosedCommentCache see {@link HbLexer#HbLexer(HbUnclosedCommentCache)}
+     */
+    HbHighlighter(@Nullable HbUnclosedCommentCache unclosedCommentCache) {
+        myUnclosedCommentCache = unclosedCommentCache;
+    }
+
     @NotNull
     public Lexer getHighlightingLexer() {
-        return new HbLexer();
+        return new HbLexer(myUnclosedCommentCache);
     }
 
     private static final TextAttributesKey MUSTACHES = TextAttributesKey.createTextAttributesKey(
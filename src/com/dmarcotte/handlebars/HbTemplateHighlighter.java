@@ -1,8 +1,10 @@
 package com.dmarcotte.handlebars;
 
 import com.dmarcotte.handlebars.parsing.HbTokenTypes;
+import com.dmarcotte.handlebars.parsing.HbUnclosedCommentCache;
 import com.intellij.lang.Language;
 import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.event.DocumentEvent;
 import com.intellij.openapi.editor.ex.util.LayerDescriptor;
 import com.intellij.openapi.editor.ex.util.LayeredLexerEditorHighlighter;
 import com.intellij.openapi.fileTypes.FileType;
@@ -15,9 +17,30 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public class HbTemplateHighlighter extends LayeredLexerEditorHighlighter {
+    private final HbUnclosedCommentCache myUnclosedCommentCache;
+
     public HbTemplateHighlighter(@Nullable Project project, @Nullable VirtualFile virtualFile, @NotNull EditorColorsScheme colors) {
+        this(project, virtualFile, colors, new HbUnclosedCommentCache());
+    }
+
+    private HbTemplateHighlighter(@Nullable Project project,
+                                  @Nullable VirtualFile virtualFile,
+                                  @NotNull EditorColorsScheme colors,
+                                  @NotNull HbUnclosedCommentCache unclosedCommentCache) {
         // create main highlighter
-        super(new HbHighlighter(), colors);
+        this(project, virtualFile, colors, new HbHighlighter(unclosedCommentCache), unclosedCommentCache);
+    }
+
+    /**
+     * @param mainHighlighter the highlighter for our own tokens, whose lexer must share the given cache
+     */
+    HbTemplateHighlighter(@Nullable Project project,
+                          @Nullable VirtualFile virtualFile,
+                          @NotNull EditorColorsScheme colors,
+                          @NotNull HbHighlighter mainHighlighter,
+                          @NotNull HbUnclosedCommentCache unclosedCommentCache) {
+        super(mainHighlighter, colors);
+        myUnclosedCommentCache = unclosedCommentCache;
 
         // highlighter for outer lang
         FileType type = null;
@@ -33,5 +56,21 @@ public class HbTemplateHighlighter extends LayeredLexerEditorHighlighter {
 
         registerLayer(HbTokenTypes.CONTENT, new LayerDescriptor(outerHighlighter, ""));
     }
+
+    @Override
+    public void setText(@NotNull CharSequence text) {
+        myUnclosedCommentCache.clear();
+        super.setText(text);
+    }
+
+    @Override
+    public void documentChanged(DocumentEvent e) {
+        if (myUnclosedCommentCache.documentChanged(e)) {
+            // the extent of an unclosed comment may have changed, and we can't trust any of the tokens we lexed for it
+            setText(e.getDocument().getCharsSequence());
+        } else {
+            super.documentChanged(e);
+        }
+    }
 }
 
@@ -1,33 +1,50 @@
 package com.dmarcotte.handlebars.editor.actions;
 
-import com.dmarcotte.handlebars.HbLanguage;
 import com.dmarcotte.handlebars.config.HbConfig;
 import com.dmarcotte.handlebars.file.HbFileViewProvider;
 import com.dmarcotte.handlebars.parsing.HbTokenTypes;
-import com.dmarcotte.handlebars.psi.HbCloseBlockMustache;
-import com.dmarcotte.handlebars.psi.HbPsiElement;
 import com.dmarcotte.handlebars.psi.HbPsiUtil;
-import com.dmarcotte.handlebars.psi.HbSimpleInverse;
 import com.intellij.codeInsight.editorActions.TypedHandlerDelegate;
 import com.intellij.openapi.editor.CaretModel;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.ex.EditorEx;
+import com.intellij.openapi.editor.highlighter.HighlighterIterator;
 import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.Condition;
-import com.intellij.openapi.util.TextRange;
-import com.intellij.psi.FileViewProvider;
 import com.intellij.psi.PsiDocumentManager;
-import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.codeStyle.CodeStyleManager;
-import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
 import org.jetbrains.annotations.NotNull;
 
 /**
  * Handler for custom plugin actions on chars typed by the user.  See {@link HbEnterHandler} for custom actions
  * on Enter.
+ * <p>
+ * Everything here runs on every keystroke, so we work from the document and the editor's highlighter (which is
+ * kept up to date as the user types) rather than from the PSI: we only commit the document, and only this
+ * document, when we're about to reformat.
  */
 public class HbTypedHandler extends TypedHandlerDelegate {
+
+    // the tokens which open a mustache
+    private static final TokenSet MUSTACHE_OPENS = TokenSet.create(HbTokenTypes.OPEN, HbTokenTypes.OPEN_BLOCK,
+                                                                   HbTokenTypes.OPEN_PARTIAL, HbTokenTypes.OPEN_ENDBLOCK,
+                                                                   HbTokenTypes.OPEN_INVERSE, HbTokenTypes.OPEN_UNESCAPED);
+
+    // the tokens which can come between a mustache's open and its close
+    private static final TokenSet MUSTACHE_CONTENTS = TokenSet.orSet(
+            TokenSet.create(HbTokenTypes.ID, HbTokenTypes.SEP, HbTokenTypes.EQUALS, HbTokenTypes.DATA_PREFIX,
+                            HbTokenTypes.DATA, HbTokenTypes.BOOLEAN, HbTokenTypes.INTEGER, HbTokenTypes.ELSE,
+                            HbTokenTypes.PARTIAL_NAME),
+            HbTokenTypes.STRING_LITERALS,
+            HbTokenTypes.WHITESPACES);
+
+    // how far ahead we'll look for the close of a newly typed block before assuming it doesn't have one
+    static final int MAX_TOKENS_TO_SCAN = 10000;
+
     @Override
     public Result beforeCharTyped(char c, Project project, Editor editor, PsiFile file, FileType fileType) {
         int offset = editor.getCaretModel().getOffset();
@@ -36,13 +53,11 @@ public class HbTypedHandler extends TypedHandlerDelegate {
             return Result.CONTINUE;
         }
 
-        String previousChar = editor.getDocument().getText(new TextRange(offset - 1, offset));
+        char previousChar = editor.getDocument().getCharsSequence().charAt(offset - 1);
 
         if (file.getViewProvider() instanceof HbFileViewProvider) {
-            PsiDocumentManager.getInstance(project).commitAllDocuments();
-
             // we suppress the built-in "}" auto-complete when we see "{{"
-            if (c == '{' && previousChar.equals("{")) {
+            if (c == '{' && previousChar == '{') {
                 // since the "}" autocomplete is built in to IDEA, we need to hack around it a bit by
                 // intercepting it before it is inserted, doing the work of inserting for the user
                 // by inserting the '{' the user just typed...
@@ -61,49 +76,240 @@ public class HbTypedHandler extends TypedHandlerDelegate {
     @Override
     public Result charTyped(char c, Project project, Editor editor, @NotNull PsiFile file) {
         int offset = editor.getCaretModel().getOffset();
-        FileViewProvider provider = file.getViewProvider();
 
         if (offset < 2 || offset > editor.getDocument().getTextLength()) {
             return Result.CONTINUE;
         }
 
-        String previousChar = editor.getDocument().getText(new TextRange(offset - 2, offset - 1));
+        char previousChar = editor.getDocument().getCharsSequence().charAt(offset - 2);
 
         if (file.getViewProvider() instanceof HbFileViewProvider) {
             // if we're looking at a close stache, we may have some business too attend to
-            if (c == '}' && previousChar.equals("}")) {
-                autoInsertCloseTag(project, offset, editor, provider);
-                adjustMustacheFormatting(project, offset, editor, file, provider);
+            if (c == '}' && previousChar == '}') {
+                int mustacheStart = findMustacheStart(editor, offset);
+                if (mustacheStart != -1) {
+                    autoInsertCloseTag(offset, editor, mustacheStart);
+                    adjustMustacheFormatting(project, editor, file, mustacheStart);
+                }
             }
         }
 
         return Result.CONTINUE;
     }
 
+    /**
+     * @return the start of the mustache whose close stache ends at the given offset,
+     *         or -1 if there's no close stache there (or no well-formed mustache in front of it)
+     */
+    private static int findMustacheStart(Editor editor, int closeEndOffset) {
+        HighlighterIterator iterator = ((EditorEx) editor).getHighlighter().createIterator(closeEndOffset - 1);
+        if (iterator.atEnd()
+                || iterator.getTokenType() != HbTokenTypes.CLOSE
+                || iterator.getEnd() != closeEndOffset) {
+            return -1;
+        }
+
+        // walk back over the mustache's contents to the token which opened it
+        iterator.retreat();
+        while (!iterator.atEnd() && MUSTACHE_CONTENTS.contains(iterator.getTokenType())) {
+            iterator.retreat();
+        }
+
+        return !iterator.atEnd() && MUSTACHE_OPENS.contains(iterator.getTokenType()) ? iterator.getStart() : -1;
+    }
+
+    /**
+     * Positions the given iterator on the next token which isn't white space
+     */
+    private static void skipWhiteSpace(HighlighterIterator iterator) {
+        iterator.advance();
+        while (!iterator.atEnd() && HbTokenTypes.WHITESPACES.contains(iterator.getTokenType())) {
+            iterator.advance();
+        }
+    }
+
+    private static IElementType getTokenType(HighlighterIterator iterator) {
+        return iterator.atEnd() ? null : iterator.getTokenType();
+    }
+
     /**
      * When appropriate, auto-inserts Handlebars close tags.  i.e.  When "{{#tagId}}" or "{{^tagId}} is typed,
      *      {{/tagId}} is automatically inserted
      */
-    private void autoInsertCloseTag(Project project, int offset, Editor editor, FileViewProvider provider) {
+    private static void autoInsertCloseTag(int offset, Editor editor, int mustacheStart) {
         if (!HbConfig.isAutoGenerateCloseTagEnabled()) {
             return;
         }
 
-        PsiDocumentManager.getInstance(project).commitAllDocuments();
+        HighlighterIterator iterator = ((EditorEx) editor).getHighlighter().createIterator(mustacheStart);
+        IElementType openType = iterator.getTokenType();
+        if (openType != HbTokenTypes.OPEN_BLOCK && openType != HbTokenTypes.OPEN_INVERSE) {
+            return;
+        }
 
-        PsiElement elementAtCaret = provider.findElementAt(offset - 1, HbLanguage.class);
+        // we've got an open block type stache... find its ID (the first token after the open 'stache)
+        skipWhiteSpace(iterator);
+        if (getTokenType(iterator) == HbTokenTypes.ID) {
+            Document document = editor.getDocument();
+            String id = document.getCharsSequence().subSequence(iterator.getStart(), iterator.getEnd()).toString();
 
-        PsiElement openTag = HbPsiUtil.findParentOpenTagElement(elementAtCaret);
+            // insert the corresponding close tag, unless the user is retyping an open tag which has one already
+            if (!isBlockClosed(editor, mustacheStart, offset, id)) {
+                document.insertString(offset, "{{/" + id + "}}");
+            }
+        }
+    }
 
-        if (openTag != null && openTag.getChildren().length > 1) {
-            // we've got an open block type stache... find its ID
-            HbPsiElement idElem = (HbPsiElement) openTag.getChildren()[1];
+    /**
+     * Works out whether a newly typed open stache already has a close stache.  Blocks nest, so the first close after
+     * the new open which doesn't belong to a block nested in it is either its own close or the close of the
+     * innermost block it's in.  Names alone can't tell those apart when the enclosing block has the same name
+     * ("{{#if a}}{{#if b}}{{/if}}"), so we pair up the unmatched closes after the new open with the unmatched opens
+     * before it, both ways: the new block is closed if its own name and then the enclosing blocks' names line up
+     * with the closes, and isn't if the enclosing blocks' names line up with them on their own.  We stop as soon as
+     * one of those stops lining up, which is usually after the first close or two.
+     * <p>
+     * This runs as the user types, when the PSI is a step behind (so {@link HbPsiUtil}'s nesting lookups aren't
+     * available), and a block can be a whole file long, so we give up after {@link #MAX_TOKENS_TO_SCAN} tokens and
+     * treat the block as unclosed: the close tag gets inserted, as it always did before we looked for one.
+     *
+     * @param mustacheStart the start of the new open stache
+     * @param offset the end of the new open stache
+     * @param blockName the ID of the new open stache
+     * @return true if the block opened at the given offset already has a close stache
+     */
+    private static boolean isBlockClosed(Editor editor, int mustacheStart, int offset, String blockName) {
+        BlockTagScanner scanner = new BlockTagScanner(editor, mustacheStart, offset);
+        String close = scanner.nextUnmatchedClose();
+        boolean unclosedPossible = true;
+        boolean closedPossible = blockName.equals(close);
+        while (unclosedPossible && closedPossible) {
+            // if the new block is unclosed, this open pairs with the current close; if it's closed, with the next
+            String open = scanner.previousUnmatchedOpen();
+            String nextClose = scanner.nextUnmatchedClose();
+            if (scanner.gaveUp()) {
+                return false;
+            }
 
-            if (idElem != null
-                    && idElem.getNode().getElementType() == HbTokenTypes.ID) {
-                // insert the corresponding close tag
-                editor.getDocument().insertString(offset, "{{/" + idElem.getText() + "}}");
+            unclosedPossible = open == null ? close == null : open.equals(close);
+            closedPossible = open == null ? nextClose == null : open.equals(nextClose);
+            if (open == null) {
+                break;
             }
+            close = nextClose;
+        }
+        return closedPossible && !unclosedPossible;
+    }
+
+    /**
+     * Walks the highlighter's tokens out from a newly typed open stache, handing out the names of the block tags
+     * on either side of it which aren't matched on that side
+     */
+    private static class BlockTagScanner {
+        private final CharSequence myText;
+        private final HighlighterIterator myForward;
+        private final HighlighterIterator myBackward;
+        private int myForwardDepth;
+        private int myBackwardDepth;
+        private int myTokensLeft = MAX_TOKENS_TO_SCAN;
+        private boolean myGaveUp;
+
+        // the token after the one myBackward is on, not counting white space
+        private IElementType myFollowingType;
+        private int myFollowingStart;
+        private int myFollowingEnd;
+
+        BlockTagScanner(Editor editor, int mustacheStart, int offset) {
+            myText = editor.getDocument().getCharsSequence();
+            myForward = ((EditorEx) editor).getHighlighter().createIterator(offset - 1);
+            myBackward = ((EditorEx) editor).getHighlighter().createIterator(mustacheStart);
+        }
+
+        boolean gaveUp() {
+            return myGaveUp;
+        }
+
+        /**
+         * @return the name of the next close stache after the new open which isn't matched by an open after it
+         *         ("" if it has no name), or null if there are no more (or we've given up)
+         */
+        String nextUnmatchedClose() {
+            while (!myForward.atEnd() && spendToken()) {
+                myForward.advance();
+                IElementType tokenType = getTokenType(myForward);
+                if (tokenType == HbTokenTypes.OPEN_BLOCK) {
+                    myForwardDepth++;
+                } else if (tokenType == HbTokenTypes.OPEN_INVERSE) {
+                    // "{{^tagId}}" opens a block, "{{^}}" is a simple inverse in the current one
+                    skipWhiteSpace(myForward);
+                    if (getTokenType(myForward) == HbTokenTypes.ID) {
+                        myForwardDepth++;
+                    }
+                    // step back, so that we look at the token we just peeked at next time round (a malformed "{{^"
+                    // can be followed straight away by another open stache)
+                    myForward.retreat();
+                } else if (tokenType == HbTokenTypes.OPEN_ENDBLOCK) {
+                    if (myForwardDepth > 0) {
+                        myForwardDepth--;
+                    } else {
+                        skipWhiteSpace(myForward);
+                        if (getTokenType(myForward) == HbTokenTypes.ID) {
+                            return getText(myForward.getStart(), myForward.getEnd());
+                        }
+                        // a close with no name; the token we peeked at is looked at next time round
+                        myForward.retreat();
+                        return "";
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the name of the next open stache before the new open which isn't matched by a close before it
+         *         ("" if it has no name), or null if there are no more (or we've given up)
+         */
+        String previousUnmatchedOpen() {
+            while (!myBackward.atEnd() && spendToken()) {
+                myBackward.retreat();
+                IElementType tokenType = getTokenType(myBackward);
+                if (tokenType == null || HbTokenTypes.WHITESPACES.contains(tokenType)) {
+                    continue;
+                }
+
+                String name = null;
+                if (tokenType == HbTokenTypes.OPEN_ENDBLOCK) {
+                    myBackwardDepth++;
+                } else if (tokenType == HbTokenTypes.OPEN_BLOCK
+                        || (tokenType == HbTokenTypes.OPEN_INVERSE && myFollowingType == HbTokenTypes.ID)) {
+                    if (myBackwardDepth > 0) {
+                        myBackwardDepth--;
+                    } else {
+                        name = myFollowingType == HbTokenTypes.ID ? getText(myFollowingStart, myFollowingEnd) : "";
+                    }
+                }
+
+                myFollowingType = tokenType;
+                myFollowingStart = myBackward.getStart();
+                myFollowingEnd = myBackward.getEnd();
+                if (name != null) {
+                    return name;
+                }
+            }
+            return null;
+        }
+
+        private boolean spendToken() {
+            if (myTokensLeft == 0) {
+                myGaveUp = true;
+                return false;
+            }
+            myTokensLeft--;
+            return true;
+        }
+
+        private String getText(int start, int end) {
+            return myText.subSequence(start, end).toString();
         }
     }
 
@@ -111,29 +317,44 @@ public class HbTypedHandler extends TypedHandlerDelegate {
      * When appropriate, adjusts the formatting for some 'staches, particularily close 'staches
      *  and simple inverses ("{{^}}" and "{{else}}")
      */
-    private void adjustMustacheFormatting(Project project, int offset, Editor editor, PsiFile file, FileViewProvider provider) {
+    private static void adjustMustacheFormatting(Project project, Editor editor, PsiFile file, int mustacheStart) {
         if (!HbConfig.isFormattingEnabled()) {
             // formatting disabled; nothing to do
             return;
         }
 
-        PsiElement elementAtCaret = provider.findElementAt(offset - 1, HbLanguage.class);
-        PsiElement closeOrSimpleInverseParent = PsiTreeUtil.findFirstParent(elementAtCaret, true, new Condition<PsiElement>() {
-            @Override
-            public boolean value(PsiElement element) {
-                return element != null
-                        && (element instanceof HbSimpleInverse
-                        || element instanceof HbCloseBlockMustache);
-            }
-        });
-
         // run the formatter if the user just completed typing a SIMPLE_INVERSE or a CLOSE_BLOCK_STACHE
-        if (closeOrSimpleInverseParent != null) {
+        if (isCloseOrSimpleInverse(((EditorEx) editor).getHighlighter().createIterator(mustacheStart))) {
+            // the formatter works on the PSI, so this is where we have to bring it up to date
+            PsiDocumentManager.getInstance(project).commitDocument(editor.getDocument());
             // grab the current caret position (AutoIndentLinesHandler is about to mess with it)
-            PsiDocumentManager.getInstance(project).commitAllDocuments();
             CaretModel caretModel = editor.getCaretModel();
             CodeStyleManager codeStyleManager = CodeStyleManager.getInstance(project);
             codeStyleManager.adjustLineIndent(file, editor.getDocument().getLineStartOffset(caretModel.getLogicalPosition().line));
         }
     }
+
+    /**
+     * @param iterator positioned on the token which opens a mustache
+     * @return true if the mustache is a close stache ("{{/tagId}}") or a simple inverse ("{{^}}" or "{{else}}")
+     */
+    private static boolean isCloseOrSimpleInverse(HighlighterIterator iterator) {
+        IElementType openType = iterator.getTokenType();
+        if (openType == HbTokenTypes.OPEN_ENDBLOCK) {
+            return true;
+        }
+
+        if (openType == HbTokenTypes.OPEN) {
+            // "{{else" needs an ELSE straight after the open
+            iterator.advance();
+            if (getTokenType(iterator) != HbTokenTypes.ELSE) {
+                return false;
+            }
+        } else if (openType != HbTokenTypes.OPEN_INVERSE) {
+            return false;
+        }
+
+        skipWhiteSpace(iterator);
+        return getTokenType(iterator) == HbTokenTypes.CLOSE;
+    }
 }
@@ -12,6 +12,16 @@ import org.jetbrains.annotations.Nullable;
 import java.util.HashSet;
 import java.util.Set;
 
+/**
+ * Brace matching for 'staches.
+ * <p>
+ * Note that matching a brace (highlighting its pair, or "Move Caret to Matching Brace") stays linear in the
+ * distance between the braces: the platform finds the pair itself (see BraceMatchingUtil) by walking the
+ * highlighter's tokens and asking us about each brace it passes, and BraceMatcher gives us no way to answer with
+ * an offset.  What we can bound, we do: each of those questions stops at the 'stache's own open token (see
+ * {@link #getStacheType}), so the walk stays linear rather than quadratic.  Jumping to the start or end of a block
+ * doesn't walk at all; that goes through {@link HbCodeBlockProvider} and the file's block nesting map.
+ */
 public class HbBraceMatcher implements BraceMatcher {
 
     private static final Set<IElementType> LEFT_BRACES = new HashSet<IElementType>();
@@ -27,6 +37,13 @@ public class HbBraceMatcher implements BraceMatcher {
         RIGHT_BRACES.add(HbTokenTypes.CLOSE);
     }
 
+    // the tokens which can start a 'stache
+    private static final Set<IElementType> OPEN_TOKENS = new HashSet<IElementType>(LEFT_BRACES);
+
+    static {
+        OPEN_TOKENS.add(HbTokenTypes.OPEN_ENDBLOCK);
+    }
+
     @Override
     public boolean isPairBraces(IElementType tokenType1, IElementType tokenType2) {
         return LEFT_BRACES.contains(tokenType1) && RIGHT_BRACES.contains(tokenType2)
@@ -45,57 +62,78 @@ public class HbBraceMatcher implements BraceMatcher {
             return false;
         }
 
-        boolean isRBraceToken = false;
+        // the paired close brace for block openers is at the end of the corresponding block close 'stache,
+        // so the close of an open block 'stache is not a close brace
+        IElementType stacheType = getStacheType(iterator);
+        return stacheType != null && stacheType != HbTokenTypes.OPEN_BLOCK_STACHE;
+    }
+
+    /**
+     * Works out what kind of 'stache the given close brace ends.  We walk back to the open token of the 'stache and
+     * stop there: the brace matching subsystem asks about every close it passes, so walking any further makes
+     * finding a match quadratic in the number of 'staches between the braces.
+     *
+     * @param iterator positioned on a {@link HbTokenTypes#CLOSE}; left where it was found
+     * @return {@link HbTokenTypes#OPEN_BLOCK_STACHE} for the close of a block or inverse block open 'stache,
+     *         {@link HbTokenTypes#CLOSE_BLOCK_STACHE} for the close of a block close 'stache,
+     *         {@link HbTokenTypes#MUSTACHE} for anything else (including simple inverses),
+     *         or null if there's no open token before the close
+     */
+    @Nullable
+    private static IElementType getStacheType(HighlighterIterator iterator) {
+        boolean sawId = false;
         int iteratorRetreatCount = 0;
-        while (true) {
+        do {
             iterator.retreat();
             iteratorRetreatCount++;
-
-            if (iterator.atEnd()) {
-                break;
+            if (!iterator.atEnd() && iterator.getTokenType() == HbTokenTypes.ID) {
+                sawId = true;
             }
+        } while (!iterator.atEnd() && !OPEN_TOKENS.contains(iterator.getTokenType()));
 
-            if (iterator.getTokenType() == HbTokenTypes.OPEN_BLOCK) {
-                // the first open type token we encountered is a block opener,
-                // so this is not a close brace (the paired close brace for these tokens
-                // is at the end of the corresponding block close 'stache)
-                break;
-            }
+        IElementType openType = iterator.atEnd() ? null : iterator.getTokenType();
 
-            if (iterator.getTokenType() == HbTokenTypes.OPEN_INVERSE) {
-                // this might be a simple inverse, so backtrack until we either see
-                // and ID (which means we're in a situation like OPEN_BLOCK above)
-                // or a CLOSE (which means we're a simple inverse, and this is the RBrace)
-                while (iteratorRetreatCount-- > 0) {
-                    iterator.advance();
-                    if (iterator.getTokenType() == HbTokenTypes.ID) {
-                        break;
-                    }
-
-                    if (iterator.getTokenType() == HbTokenTypes.CLOSE) {
-                        isRBraceToken = true;
-                        break;
-                    }
-                }
-                break;
-            }
+        // reset the given iterator before returning
+        while (iteratorRetreatCount-- > 0) {
+            iterator.advance();
+        }
 
-            if (iterator.getTokenType() == HbTokenTypes.OPEN
-                    || iterator.getTokenType() == HbTokenTypes.OPEN_PARTIAL
-                    || iterator.getTokenType() == HbTokenTypes.OPEN_UNESCAPED
-                    || iterator.getTokenType() == HbTokenTypes.OPEN_ENDBLOCK) {
-                // the first open token we encountered was a simple opener (i.e. didn't start a block)
-                // or the close brace of a close block 'stache for some open block.  Definitely a right brace.
-                isRBraceToken = true;
-            }
+        if (openType == null) {
+            return null;
+        } else if (openType == HbTokenTypes.OPEN_BLOCK) {
+            return HbTokenTypes.OPEN_BLOCK_STACHE;
+        } else if (openType == HbTokenTypes.OPEN_INVERSE) {
+            // an ID means we're in a situation like OPEN_BLOCK above; without one, we're a simple inverse
+            return sawId ? HbTokenTypes.OPEN_BLOCK_STACHE : HbTokenTypes.MUSTACHE;
+        } else if (openType == HbTokenTypes.OPEN_ENDBLOCK) {
+            return HbTokenTypes.CLOSE_BLOCK_STACHE;
+        } else {
+            // the open token was a simple opener (i.e. didn't start a block)
+            return HbTokenTypes.MUSTACHE;
         }
+    }
 
-        // reset the given iterator before returning
-        while (iteratorRetreatCount-- > 0) {
+    /**
+     * @param iterator positioned on a {@link HbTokenTypes#OPEN_INVERSE}; left where it was found
+     * @return true if the inverse opens a block (i.e. "{{^tagId}}" rather than the simple inverse "{{^}}")
+     */
+    private static boolean isInverseBlockOpen(HighlighterIterator iterator) {
+        boolean sawId = false;
+        int iteratorAdvanceCount = 0;
+        do {
             iterator.advance();
+            iteratorAdvanceCount++;
+            if (!iterator.atEnd() && iterator.getTokenType() == HbTokenTypes.ID) {
+                sawId = true;
+            }
+        } while (!sawId && !iterator.atEnd() && !RIGHT_BRACES.contains(iterator.getTokenType())
+                && !OPEN_TOKENS.contains(iterator.getTokenType()));
+
+        while (iteratorAdvanceCount-- > 0) {
+            iterator.retreat();
         }
 
-        return isRBraceToken;
+        return sawId;
     }
 
     @Override
@@ -103,8 +141,20 @@ public class HbBraceMatcher implements BraceMatcher {
         return 1;
     }
 
+    /**
+     * The braces of block 'staches are structural: the open brace of "{{#tagId}}" (or "{{^tagId}}") and the close
+     * brace of its "{{/tagId}}" delimit a block the way "{" and "}" delimit a code block in Java.
+     */
     @Override
     public boolean isStructuralBrace(HighlighterIterator iterator, CharSequence text, FileType fileType) {
+        IElementType tokenType = iterator.getTokenType();
+        if (tokenType == HbTokenTypes.OPEN_BLOCK) {
+            return true;
+        } else if (tokenType == HbTokenTypes.OPEN_INVERSE) {
+            return isInverseBlockOpen(iterator);
+        } else if (RIGHT_BRACES.contains(tokenType)) {
+            return getStacheType(iterator) == HbTokenTypes.CLOSE_BLOCK_STACHE;
+        }
         return false;
     }
 
@@ -0,0 +1,36 @@
+package com.dmarcotte.handlebars.editor.braces;
+
+import com.dmarcotte.handlebars.HbLanguage;
+import com.dmarcotte.handlebars.psi.HbPsiFile;
+import com.dmarcotte.handlebars.psi.HbPsiUtil;
+import com.intellij.codeInsight.editorActions.CodeBlockProvider;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Gives "Move Caret to Code Block Start/End" our blocks: from anywhere in "{{#each}}...{{/each}}", they jump to
+ * the start of the "{{#each}}" or the end of the "{{/each}}".
+ * <p>
+ * Without this, the IDE would find the block by scanning the highlighter's tokens out from the caret for a
+ * structural brace (see {@link HbBraceMatcher#isStructuralBrace}), which costs the distance to the tags.  We look
+ * the block up in the file's block nesting map instead (see {@link HbPsiUtil#findBlockRange}), which costs the
+ * same however far apart the tags are.
+ */
+public class HbCodeBlockProvider implements CodeBlockProvider {
+    @Nullable
+    @Override
+    public TextRange getCodeBlockRange(Editor editor, PsiFile psiFile) {
+        // the nesting map works from the PSI, so make sure it's caught up with the user's typing
+        PsiDocumentManager.getInstance(psiFile.getProject()).commitDocument(editor.getDocument());
+
+        PsiFile hbFile = psiFile.getViewProvider().getPsi(HbLanguage.INSTANCE);
+        if (!(hbFile instanceof HbPsiFile)) {
+            return null;
+        }
+
+        return HbPsiUtil.findBlockRange((HbPsiFile) hbFile, editor.getCaretModel().getOffset());
+    }
+}
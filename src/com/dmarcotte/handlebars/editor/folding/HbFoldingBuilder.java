@@ -2,116 +2,161 @@ package com.dmarcotte.handlebars.editor.folding;
 
 import com.dmarcotte.handlebars.config.HbConfig;
 import com.dmarcotte.handlebars.parsing.HbTokenTypes;
-import com.dmarcotte.handlebars.psi.HbBlockWrapper;
-import com.dmarcotte.handlebars.psi.HbCloseBlockMustache;
-import com.dmarcotte.handlebars.psi.HbOpenBlockMustache;
 import com.intellij.lang.ASTNode;
 import com.intellij.lang.folding.FoldingBuilder;
 import com.intellij.lang.folding.FoldingDescriptor;
 import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.TextRange;
-import com.intellij.psi.PsiElement;
+import com.intellij.psi.TokenType;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Folds multi-line blocks (from the close braces of the open 'stache to the close braces of the close 'stache)
+ * and multi-line comments (everything between the "{{!" and the "}}").
+ * <p>
+ * Regions are found in one pass over the file's AST in document order, with a stack of the nodes still to visit.
+ * Only the nodes which can contain blocks and comments are descended into, so the tokens inside 'staches are never
+ * looked at, no PSI is created, and no text is copied: comments are checked in the document's chars, and line
+ * numbers are only looked up for the blocks and comments which might fold.  The regions for a file are kept until
+ * its document changes, so folding passes with nothing new to fold cost nothing.
+ */
 public class HbFoldingBuilder implements FoldingBuilder, DumbAware {
+    private static final Key<CachedFoldRegions> CACHED_FOLD_REGIONS_KEY = Key.create("HbFoldingBuilder.CachedFoldRegions");
+
+    // the elements which can contain blocks and comments
+    private static final TokenSet CONTAINERS = TokenSet.create(HbTokenTypes.FILE, HbTokenTypes.STATEMENTS,
+                                                               HbTokenTypes.BLOCK_WRAPPER, TokenType.ERROR_ELEMENT);
+    private static final TokenSet OPEN_BLOCK_STACHES = TokenSet.create(HbTokenTypes.OPEN_BLOCK_STACHE,
+                                                                       HbTokenTypes.OPEN_INVERSE_BLOCK_STACHE);
 
     @NotNull
     @Override
     public FoldingDescriptor[] buildFoldRegions(@NotNull ASTNode node, @NotNull Document document) {
-        List<FoldingDescriptor> descriptors = new ArrayList<FoldingDescriptor>();
-        appendDescriptors(node.getPsi(), descriptors, document);
-        return descriptors.toArray(new FoldingDescriptor[descriptors.size()]);
-    }
-
-    private void appendDescriptors(PsiElement psi, List<FoldingDescriptor> descriptors, Document document) {
-        if (isSingleLine(psi, document)) {
-            return;
+        // the node is the root of the file's tree, which is replaced if the file is reparsed from scratch,
+        // so regions cached on it are for this tree
+        long modificationStamp = document.getModificationStamp();
+        CachedFoldRegions cachedFoldRegions = node.getUserData(CACHED_FOLD_REGIONS_KEY);
+        if (cachedFoldRegions != null && cachedFoldRegions.modificationStamp == modificationStamp) {
+            return cachedFoldRegions.descriptors;
         }
 
-        if (HbTokenTypes.COMMENT == psi.getNode().getElementType()) {
-            ASTNode commentNode = psi.getNode();
-            String commentText = commentNode.getText();
-
-            // comment might be unclosed, so do a bit of sanity checking on its length and whether or not it's
-            // got the requisite open/close tags before we allow folding
-            if (commentText.length() > 5
-                    && commentText.substring(0,3).equals("{{!")
-                    && commentText.substring(commentText.length() - 2, commentText.length()).equals("}}")) {
-                TextRange range = new TextRange(commentNode.getTextRange().getStartOffset() + 3, commentNode.getTextRange().getEndOffset() -2);
-                descriptors.add(new FoldingDescriptor(commentNode, range));
+        FoldingDescriptor[] descriptors = computeFoldRegions(node, document);
+        node.putUserData(CACHED_FOLD_REGIONS_KEY, new CachedFoldRegions(modificationStamp, descriptors));
+        return descriptors;
+    }
+
+    /**
+     * Finds the fold regions in the given file, without looking at (or updating) the ones kept from the last pass
+     */
+    @NotNull
+    public static FoldingDescriptor[] computeFoldRegions(@NotNull ASTNode node, @NotNull Document document) {
+        List<FoldingDescriptor> descriptors = new ArrayList<FoldingDescriptor>();
+        CharSequence text = document.getCharsSequence();
+
+        List<ASTNode> nodes = new ArrayList<ASTNode>();
+        nodes.add(node);
+        while (!nodes.isEmpty()) {
+            ProgressManager.checkCanceled();
+
+            ASTNode current = nodes.remove(nodes.size() - 1);
+            IElementType type = current.getElementType();
+            if (type == HbTokenTypes.COMMENT) {
+                appendCommentDescriptor(current, text, document, descriptors);
+                continue;
             }
-        }
 
-        if (psi instanceof HbBlockWrapper) {
+            if (type == HbTokenTypes.BLOCK_WRAPPER) {
+                appendBlockDescriptor(current, document, descriptors);
+            }
 
-            PsiElement endOpenBlockStache = getOpenBlockCloseStacheElement(psi.getFirstChild());
-            PsiElement endCloseBlockStache = getCloseBlockCloseStacheElement(psi.getLastChild());
+            // push the children in reverse, so that we come to them in document order
+            for (ASTNode child = current.getLastChildNode(); child != null; child = child.getTreePrev()) {
+                IElementType childType = child.getElementType();
+                if (CONTAINERS.contains(childType) || childType == HbTokenTypes.COMMENT) {
+                    nodes.add(child);
+                }
+            }
+        }
 
-            // if we've got a well formed block with the open and close elems we need, define a region to fold
-            if (endOpenBlockStache != null && endCloseBlockStache != null) {
-                int endOfFirstOpenStacheLine
-                        = document.getLineEndOffset(document.getLineNumber(psi.getTextRange().getStartOffset()));
+        return descriptors.toArray(new FoldingDescriptor[descriptors.size()]);
+    }
 
-                // we set the start of the text we'll fold to be just before the close braces of the open stache,
-                //     or, if the open stache spans multiple lines, to the end of the first line
-                int foldingRangeStartOffset = Math.min(endOpenBlockStache.getTextRange().getStartOffset(), endOfFirstOpenStacheLine);
-                // we set the end of the text we'll fold to be just before the final close braces in this block
-                int foldingRangeEndOffset = endCloseBlockStache.getTextRange().getStartOffset();
+    private static void appendCommentDescriptor(ASTNode commentNode, CharSequence text, Document document,
+                                                List<FoldingDescriptor> descriptors) {
+        int start = commentNode.getStartOffset();
+        int end = start + commentNode.getTextLength();
+
+        // comment might be unclosed, so do a bit of sanity checking on its length and whether or not it's
+        // got the requisite open/close tags before we allow folding
+        if (end - start > 5
+                && regionMatches(text, start, "{{!")
+                && regionMatches(text, end - 2, "}}")
+                && !isSingleLine(start, end, document)) {
+            descriptors.add(new FoldingDescriptor(commentNode, new TextRange(start + 3, end - 2)));
+        }
+    }
 
-                TextRange range = new TextRange(foldingRangeStartOffset, foldingRangeEndOffset);
+    private static void appendBlockDescriptor(ASTNode blockNode, Document document, List<FoldingDescriptor> descriptors) {
+        ASTNode endOpenBlockStache = getOpenBlockCloseStacheNode(blockNode.getFirstChildNode());
+        ASTNode endCloseBlockStache = getCloseBlockCloseStacheNode(blockNode.getLastChildNode());
 
-                descriptors.add(new FoldingDescriptor(psi, range));
-            }
+        // if we've got a well formed block with the open and close elems we need, define a region to fold
+        if (endOpenBlockStache == null || endCloseBlockStache == null) {
+            return;
         }
 
-        PsiElement child = psi.getFirstChild();
-        while (child != null) {
-            appendDescriptors(child, descriptors, document);
-            child = child.getNextSibling();
+        int blockStart = blockNode.getStartOffset();
+        int blockStartLine = document.getLineNumber(blockStart);
+        if (blockStartLine == document.getLineNumber(blockStart + blockNode.getTextLength())) {
+            return;
         }
+
+        // we set the start of the text we'll fold to be just before the close braces of the open stache,
+        //     or, if the open stache spans multiple lines, to the end of the first line
+        int foldingRangeStartOffset = Math.min(endOpenBlockStache.getStartOffset(), document.getLineEndOffset(blockStartLine));
+        // we set the end of the text we'll fold to be just before the final close braces in this block
+        int foldingRangeEndOffset = endCloseBlockStache.getStartOffset();
+
+        descriptors.add(new FoldingDescriptor(blockNode, new TextRange(foldingRangeStartOffset, foldingRangeEndOffset)));
     }
 
     /**
-     * If the given element is a {@link com.dmarcotte.handlebars.psi.HbOpenBlockMustache} returns the close 'stache node ("}}")
+     * If the given node is an open block 'stache ({@link com.dmarcotte.handlebars.psi.HbOpenBlockMustache}),
+     * returns its close 'stache node ("}}")
      * <p>
      * Otherwise, returns null.
      */
-    private PsiElement getOpenBlockCloseStacheElement(PsiElement psiElement) {
-        if (psiElement == null
-                || !(psiElement instanceof HbOpenBlockMustache)) {
+    private static ASTNode getOpenBlockCloseStacheNode(ASTNode node) {
+        if (node == null || !OPEN_BLOCK_STACHES.contains(node.getElementType())) {
             return null;
         }
 
-        PsiElement endOpenStache = psiElement.getLastChild();
-
-        if (endOpenStache == null || endOpenStache.getNode().getElementType() != HbTokenTypes.CLOSE) {
-            return null;
-        }
-
-        return endOpenStache;
+        ASTNode endOpenStache = node.getLastChildNode();
+        return endOpenStache != null && endOpenStache.getElementType() == HbTokenTypes.CLOSE ? endOpenStache : null;
     }
 
     /**
-     * If the given element is a {@link com.dmarcotte.handlebars.psi.HbCloseBlockMustache}, returns the close 'stache node ("}}")
+     * If the given node is a close block 'stache ({@link com.dmarcotte.handlebars.psi.HbCloseBlockMustache}),
+     * returns its close 'stache node ("}}")
      * <p>
      * Otherwise, returns null
      */
-    private PsiElement getCloseBlockCloseStacheElement(PsiElement psiElement) {
-        if (psiElement == null || !(psiElement instanceof HbCloseBlockMustache)) {
+    private static ASTNode getCloseBlockCloseStacheNode(ASTNode node) {
+        if (node == null || node.getElementType() != HbTokenTypes.CLOSE_BLOCK_STACHE) {
             return null;
         }
 
-        PsiElement endCloseStache = psiElement.getLastChild();
-        if (endCloseStache == null || endCloseStache.getNode().getElementType() != HbTokenTypes.CLOSE) {
-            return null;
-        }
-
-        return endCloseStache;
+        ASTNode endCloseStache = node.getLastChildNode();
+        return endCloseStache != null && endCloseStache.getElementType() == HbTokenTypes.CLOSE ? endCloseStache : null;
     }
 
     @Nullable
@@ -126,10 +171,34 @@ public class HbFoldingBuilder implements FoldingBuilder, DumbAware {
     }
 
     /**
-     * Return true if this psi element does not span more than one line in the given document
+     * Return true if the given range does not span more than one line in the given document
      */
-    private static boolean isSingleLine(PsiElement element, Document document) {
-        TextRange range = element.getTextRange();
-        return document.getLineNumber(range.getStartOffset()) == document.getLineNumber(range.getEndOffset());
+    private static boolean isSingleLine(int start, int end, Document document) {
+        return document.getLineNumber(start) == document.getLineNumber(end);
+    }
+
+    private static boolean regionMatches(CharSequence text, int offset, String expected) {
+        if (offset < 0 || offset + expected.length() > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (text.charAt(offset + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The regions we found for a file, and the modification stamp of its document when we found them
+     */
+    private static class CachedFoldRegions {
+        final long modificationStamp;
+        final FoldingDescriptor[] descriptors;
+
+        CachedFoldRegions(long modificationStamp, FoldingDescriptor[] descriptors) {
+            this.modificationStamp = modificationStamp;
+            this.descriptors = descriptors;
+        }
     }
 }
@@ -15,6 +15,7 @@ import com.intellij.formatting.templateLanguages.TemplateLanguageBlock;
 import com.intellij.formatting.templateLanguages.TemplateLanguageBlockFactory;
 import com.intellij.formatting.templateLanguages.TemplateLanguageFormattingModelBuilder;
 import com.intellij.lang.ASTNode;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiErrorElement;
@@ -90,6 +91,13 @@ public class HbFormattingModelBuilder extends TemplateLanguageFormattingModelBui
             super(blockFactory, settings, node, foreignChildren);
         }
 
+        @Override
+        protected List<Block> buildChildren() {
+            // each block builds its children as the formatter walks down the tree, so this is our loop over the file
+            ProgressManager.checkCanceled();
+            return super.buildChildren();
+        }
+
         /**
          * We indented the code in the following manner, playing nice with the formatting from the language
          * we're templating:
@@ -118,7 +126,7 @@ public class HbFormattingModelBuilder extends TemplateLanguageFormattingModelBui
          *
          * This naturally maps to any "statements" expression in the grammar which is not a child of the
          * root "program" element.  See {@link com.dmarcotte.handlebars.parsing.HbParsing#parseProgram} and
-         * {@link com.dmarcotte.handlebars.parsing.HbParsing#parseStatement(com.intellij.lang.PsiBuilder)} for the
+         * {@link com.dmarcotte.handlebars.parsing.HbParsing#parseStatement(com.dmarcotte.handlebars.parsing.HbTreeBuilder)} for the
          * relevant parts of the parser.
          *
          * To understand the approach in this method, consider the following:
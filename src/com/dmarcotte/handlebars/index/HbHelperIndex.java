@@ -0,0 +1,165 @@
+package com.dmarcotte.handlebars.index;
+
+import com.dmarcotte.handlebars.parsing.HbLexer;
+import com.dmarcotte.handlebars.parsing.HbTokenTypes;
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of helper usages: maps each helper name to the offsets of its ID tokens in each template which uses it.
+ * <p>
+ * A helper usage is the ID which opens a block ("{{#each items}}", "{{^if}}"), or the ID which starts a mustache
+ * when params or hash pairs follow it ("{{link 'home'}}", "{{{raw body}}}").  Paths ("{{#foo.bar}}") are context
+ * lookups rather than helpers, so they're left out, as are plain mustaches like "{{name}}" which can't be told apart
+ * from a property lookup without knowing what helpers are registered.
+ * <p>
+ * Like {@link HbPartialIndex}, this is built from {@link HbLexer} alone.
+ */
+public class HbHelperIndex extends FileBasedIndexExtension<String, List<Integer>> {
+    public static final ID<String, List<Integer>> NAME = ID.create("com.dmarcotte.handlebars.index.HbHelperIndex");
+
+    private static final int VERSION = 1;
+
+    private static final TokenSet BLOCK_OPENS = TokenSet.create(HbTokenTypes.OPEN_BLOCK, HbTokenTypes.OPEN_INVERSE);
+    private static final TokenSet MUSTACHE_OPENS = TokenSet.create(HbTokenTypes.OPEN, HbTokenTypes.OPEN_UNESCAPED);
+    // the tokens a param or hash pair can start with
+    private static final TokenSet PARAM_STARTS = TokenSet.create(HbTokenTypes.ID, HbTokenTypes.STRING,
+                                                                 HbTokenTypes.INTEGER, HbTokenTypes.BOOLEAN,
+                                                                 HbTokenTypes.DATA_PREFIX);
+
+    private final DataIndexer<String, List<Integer>, FileContent> myIndexer = new DataIndexer<String, List<Integer>, FileContent>() {
+        @NotNull
+        @Override
+        public Map<String, List<Integer>> map(FileContent inputData) {
+            return indexHelpers(inputData.getContentAsText());
+        }
+    };
+
+    /**
+     * @return the helpers used in the given template, with the offsets of their IDs
+     */
+    static Map<String, List<Integer>> indexHelpers(CharSequence text) {
+        Map<String, List<Integer>> helperOffsets = HbIndexUtil.newNameOffsets();
+
+        Lexer lexer = new HbLexer();
+        lexer.start(text);
+        while (lexer.getTokenType() != null) {
+            IElementType openType = lexer.getTokenType();
+            if (!BLOCK_OPENS.contains(openType) && !MUSTACHE_OPENS.contains(openType)) {
+                lexer.advance();
+                continue;
+            }
+
+            advanceSignificant(lexer);
+            if (lexer.getTokenType() != HbTokenTypes.ID) {
+                // note that we don't advance here: this token may open the next mustache
+                continue;
+            }
+
+            int idStart = lexer.getTokenStart();
+            int idEnd = lexer.getTokenEnd();
+            advanceSignificant(lexer);
+            IElementType afterId = lexer.getTokenType();
+            if (afterId != HbTokenTypes.SEP
+                    && (BLOCK_OPENS.contains(openType) || PARAM_STARTS.contains(afterId))) {
+                HbIndexUtil.addOffset(helperOffsets, text.subSequence(idStart, idEnd).toString(), idStart);
+            }
+        }
+
+        return helperOffsets;
+    }
+
+    private static void advanceSignificant(Lexer lexer) {
+        do {
+            lexer.advance();
+        } while (lexer.getTokenType() == HbTokenTypes.WHITE_SPACE);
+    }
+
+    @NotNull
+    @Override
+    public ID<String, List<Integer>> getName() {
+        return NAME;
+    }
+
+    @NotNull
+    @Override
+    public DataIndexer<String, List<Integer>, FileContent> getIndexer() {
+        return myIndexer;
+    }
+
+    @Override
+    public KeyDescriptor<String> getKeyDescriptor() {
+        return new EnumeratorStringDescriptor();
+    }
+
+    @Override
+    public DataExternalizer<List<Integer>> getValueExternalizer() {
+        return HbIndexUtil.OFFSETS_EXTERNALIZER;
+    }
+
+    @Override
+    public FileBasedIndex.InputFilter getInputFilter() {
+        return HbIndexUtil.TEMPLATE_FILTER;
+    }
+
+    @Override
+    public boolean dependsOnFileContent() {
+        return true;
+    }
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    /**
+     * @return every helper name used in the given project
+     */
+    public static Collection<String> getAllHelperNames(@NotNull Project project) {
+        return FileBasedIndex.getInstance().getAllKeys(NAME, project);
+    }
+
+    /**
+     * @return how many times the given helper is used in the given scope
+     */
+    public static int getUsageCount(@NotNull String helperName, @NotNull GlobalSearchScope scope) {
+        final int[] usageCount = { 0 };
+        processHelperUsages(helperName, scope, new FileBasedIndex.ValueProcessor<List<Integer>>() {
+            @Override
+            public boolean process(VirtualFile file, List<Integer> offsets) {
+                usageCount[0] += offsets.size();
+                return true;
+            }
+        });
+        return usageCount[0];
+    }
+
+    /**
+     * Hands the given processor each template in the scope which uses the given helper,
+     * along with the offsets of the helper's name in it
+     *
+     * @return false if the processor stopped the lookup
+     */
+    public static boolean processHelperUsages(@NotNull String helperName,
+                                              @NotNull GlobalSearchScope scope,
+                                              @NotNull FileBasedIndex.ValueProcessor<List<Integer>> processor) {
+        return FileBasedIndex.getInstance().processValues(NAME, helperName, null, processor, scope);
+    }
+}
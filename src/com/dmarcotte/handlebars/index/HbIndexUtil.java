@@ -0,0 +1,65 @@
+package com.dmarcotte.handlebars.index;
+
+import com.dmarcotte.handlebars.file.HbFileType;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.io.DataExternalizer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pieces shared by our indexes, which all map names to the offsets they're used at in each template
+ */
+class HbIndexUtil {
+
+    private HbIndexUtil() {}
+
+    static final DataExternalizer<List<Integer>> OFFSETS_EXTERNALIZER = new DataExternalizer<List<Integer>>() {
+        @Override
+        public void save(DataOutput out, List<Integer> offsets) throws IOException {
+            out.writeInt(offsets.size());
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+        }
+
+        @Override
+        public List<Integer> read(DataInput in) throws IOException {
+            int size = in.readInt();
+            List<Integer> offsets = new ArrayList<Integer>(size);
+            for (int i = 0; i < size; i++) {
+                offsets.add(in.readInt());
+            }
+            return offsets;
+        }
+    };
+
+    static final FileBasedIndex.InputFilter TEMPLATE_FILTER = new FileBasedIndex.InputFilter() {
+        @Override
+        public boolean acceptInput(VirtualFile file) {
+            return file.getFileType() == HbFileType.INSTANCE;
+        }
+    };
+
+    /**
+     * Records that the given name is used at the given offset
+     */
+    static void addOffset(Map<String, List<Integer>> nameOffsets, String name, int offset) {
+        List<Integer> offsets = nameOffsets.get(name);
+        if (offsets == null) {
+            offsets = new ArrayList<Integer>(1);
+            nameOffsets.put(name, offsets);
+        }
+        offsets.add(offset);
+    }
+
+    static Map<String, List<Integer>> newNameOffsets() {
+        return new HashMap<String, List<Integer>>();
+    }
+}
@@ -0,0 +1,551 @@
+package com.dmarcotte.handlebars.index;
+
+import com.dmarcotte.handlebars.file.HbFileType;
+import com.dmarcotte.handlebars.psi.HbPsiUtil;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.DocumentAdapter;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ContentIterator;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.indexing.FileBasedIndex;
+import gnu.trove.THashMap;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The graph of partial includes between a project's templates: there's an edge from each template to each
+ * template its "{{> name}}" partials resolve to (see {@link HbPsiUtil#findPartialFiles}).
+ * <p>
+ * The graph is kept up to date with the VFS and with unsaved edits, and does as little as it can for each change:
+ * <ul>
+ *     <li>each template's partial names are read from {@link HbPartialIndex} (nothing is loaded or lexed), and are
+ *     only read again when the template changes</li>
+ *     <li>a changed template only has its own edges re-linked, and the components are only found again if
+ *     those edges actually changed (which most edits, being nowhere near a partial, don't do)</li>
+ *     <li>files being added, removed, renamed or moved mean re-listing the project's templates and re-linking
+ *     the names we already have</li>
+ * </ul>
+ * Changes are only noted as they happen (without taking the graph's lock, so typing never waits on a query),
+ * and the work waits until the next query.
+ * <p>
+ * Nodes are ints (indexes into {@link #myFiles}), and {@code myEdges[n]} holds the targets of node n's edges.
+ * Once linked, we find the graph's strongly connected components, which makes "is this template in an include
+ * cycle?" a lookup, and the set of templates a template includes (directly or not) is worked out on the
+ * components' graph the first time it's asked for, then cached until the components change.
+ * <p>
+ * All queries need a read action, and the indexes to be ready.
+ */
+public class HbPartialGraph {
+    private final Project myProject;
+
+    // changes noted by the listeners, for the next query to pick up
+    private volatile boolean myFilesChanged = true;
+    private final Set<VirtualFile> myChangedTemplates =
+            Collections.newSetFromMap(new ConcurrentHashMap<VirtualFile, Boolean>());
+
+    // the partial names of each template; survives relisting, so that only changed templates are read again
+    private final Map<VirtualFile, String[]> myPartialNames = new THashMap<VirtualFile, String[]>();
+
+    private VirtualFile[] myFiles = VirtualFile.EMPTY_ARRAY;
+    private final TObjectIntHashMap<VirtualFile> myNodes = new TObjectIntHashMap<VirtualFile>();
+    // templates by the name a partial would use for them
+    private final Map<String, TIntArrayList> myNodesBySimpleName = new THashMap<String, TIntArrayList>();
+
+    // each node's edge targets, sorted
+    private int[][] myEdges = new int[0][];
+
+    // strongly connected components: each node's component, and whether each component is a cycle
+    private int[] myComponents = ArrayUtil.EMPTY_INT_ARRAY;
+    private boolean[] myCyclicComponents = new boolean[0];
+    private int myComponentCount;
+    // the components' graph, in adjacency arrays: the targets of component c's edges are
+    // myComponentEdgeTargets[myComponentEdgeStarts[c]] up to myComponentEdgeTargets[myComponentEdgeStarts[c + 1]]
+    private int[] myComponentEdgeStarts = { 0 };
+    private int[] myComponentEdgeTargets = ArrayUtil.EMPTY_INT_ARRAY;
+    // for each component whose reachable set we've been asked for, the components it reaches (itself included)
+    private BitSet[] myComponentClosures = new BitSet[0];
+
+    public HbPartialGraph(Project project) {
+        myProject = project;
+        project.getMessageBus().connect(project).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+            @Override
+            public void before(@NotNull List<? extends VFileEvent> events) {
+            }
+
+            @Override
+            public void after(@NotNull List<? extends VFileEvent> events) {
+                filesChanged(events);
+            }
+        });
+
+        // unsaved edits change a template's includes too; the index sees them when we next query it
+        EditorFactory.getInstance().getEventMulticaster().addDocumentListener(new DocumentAdapter() {
+            @Override
+            public void documentChanged(DocumentEvent event) {
+                VirtualFile file = FileDocumentManager.getInstance().getFile(event.getDocument());
+                if (file != null) {
+                    templateChanged(file);
+                }
+            }
+        }, project);
+    }
+
+    public static HbPartialGraph getInstance(Project project) {
+        return ServiceManager.getService(project, HbPartialGraph.class);
+    }
+
+    private void filesChanged(List<? extends VFileEvent> events) {
+        for (VFileEvent event : events) {
+            if (event instanceof VFileContentChangeEvent) {
+                templateChanged(((VFileContentChangeEvent) event).getFile());
+            } else {
+                // creations, deletions, renames and moves can all change which templates there are, and which
+                // templates partial names resolve to
+                myFilesChanged = true;
+            }
+        }
+    }
+
+    private void templateChanged(VirtualFile file) {
+        if (file.getFileType() == HbFileType.INSTANCE) {
+            myChangedTemplates.add(file);
+        }
+    }
+
+    /**
+     * @return true if the given template includes itself through some chain of partials
+     */
+    public synchronized boolean isInCycle(@NotNull VirtualFile template) {
+        int node = getNode(template);
+        return node >= 0 && myCyclicComponents[myComponents[node]];
+    }
+
+    /**
+     * @return the templates in the same include cycle as the given template (itself included),
+     *         or an empty list if it isn't in one
+     */
+    @NotNull
+    public synchronized List<VirtualFile> getCycle(@NotNull VirtualFile template) {
+        List<VirtualFile> cycle = new ArrayList<VirtualFile>();
+        int node = getNode(template);
+        if (node >= 0 && myCyclicComponents[myComponents[node]]) {
+            for (int other = 0; other < myFiles.length; other++) {
+                if (myComponents[other] == myComponents[node]) {
+                    cycle.add(myFiles[other]);
+                }
+            }
+        }
+        return cycle;
+    }
+
+    /**
+     * @return every include cycle in the project, each as the list of templates in it
+     */
+    @NotNull
+    public synchronized List<List<VirtualFile>> findCycles() {
+        ensureUpToDate();
+        // the index in cycles of each cyclic component's list, once we've made it
+        int[] cycleIndexes = new int[myComponentCount];
+        Arrays.fill(cycleIndexes, -1);
+        List<List<VirtualFile>> cycles = new ArrayList<List<VirtualFile>>();
+        for (int node = 0; node < myFiles.length; node++) {
+            int component = myComponents[node];
+            if (myCyclicComponents[component]) {
+                if (cycleIndexes[component] == -1) {
+                    cycleIndexes[component] = cycles.size();
+                    cycles.add(new ArrayList<VirtualFile>());
+                }
+                cycles.get(cycleIndexes[component]).add(myFiles[node]);
+            }
+        }
+        return cycles;
+    }
+
+    /**
+     * @return true if the given template includes the given partial template, directly or through other partials
+     */
+    public synchronized boolean includes(@NotNull VirtualFile template, @NotNull VirtualFile partial) {
+        int node = getNode(template);
+        int partialNode = getNode(partial);
+        if (node < 0 || partialNode < 0) {
+            return false;
+        }
+
+        int component = myComponents[node];
+        int partialComponent = myComponents[partialNode];
+        if (component == partialComponent) {
+            return myCyclicComponents[component];
+        }
+        return getClosure(component).get(partialComponent);
+    }
+
+    /**
+     * @return every template the given template includes, directly or through other partials
+     */
+    @NotNull
+    public synchronized List<VirtualFile> getTransitiveIncludes(@NotNull VirtualFile template) {
+        List<VirtualFile> includes = new ArrayList<VirtualFile>();
+        int node = getNode(template);
+        if (node < 0) {
+            return includes;
+        }
+
+        int component = myComponents[node];
+        BitSet closure = getClosure(component);
+        for (int other = 0; other < myFiles.length; other++) {
+            int otherComponent = myComponents[other];
+            if (closure.get(otherComponent) && (otherComponent != component || myCyclicComponents[component])) {
+                includes.add(myFiles[other]);
+            }
+        }
+        return includes;
+    }
+
+    /**
+     * @return the given template's node, or -1 if it isn't one of the project's templates
+     */
+    private int getNode(VirtualFile template) {
+        ensureUpToDate();
+        return myNodes.containsKey(template) ? myNodes.get(template) : -1;
+    }
+
+    private void ensureUpToDate() {
+        boolean edgesChanged = false;
+        if (myFilesChanged) {
+            // clear the flag first, so that a change while we're relisting is picked up by the next query
+            myFilesChanged = false;
+            List<VirtualFile> unreadTemplates = listFiles();
+            unreadTemplates.addAll(takeChangedTemplates());
+            readPartialNames(unreadTemplates);
+
+            myEdges = new int[myFiles.length][];
+            for (int node = 0; node < myFiles.length; node++) {
+                myEdges[node] = linkNode(node);
+            }
+            edgesChanged = true;
+        } else {
+            List<VirtualFile> changedTemplates = takeChangedTemplates();
+            if (!changedTemplates.isEmpty()) {
+                readPartialNames(changedTemplates);
+                for (VirtualFile changedTemplate : changedTemplates) {
+                    int node = myNodes.get(changedTemplate);
+                    int[] edges = linkNode(node);
+                    if (!Arrays.equals(edges, myEdges[node])) {
+                        myEdges[node] = edges;
+                        edgesChanged = true;
+                    }
+                }
+            }
+        }
+
+        if (edgesChanged) {
+            findComponents();
+        }
+    }
+
+    /**
+     * @return the changed templates which are nodes, forgetting the changes
+     */
+    private List<VirtualFile> takeChangedTemplates() {
+        List<VirtualFile> changedTemplates = new ArrayList<VirtualFile>();
+        for (Iterator<VirtualFile> iterator = myChangedTemplates.iterator(); iterator.hasNext(); ) {
+            VirtualFile changedTemplate = iterator.next();
+            iterator.remove();
+            if (myNodes.containsKey(changedTemplate)) {
+                changedTemplates.add(changedTemplate);
+            }
+        }
+        return changedTemplates;
+    }
+
+    /**
+     * Lists the project's templates as nodes
+     *
+     * @return the templates whose partial names we don't have yet
+     */
+    private List<VirtualFile> listFiles() {
+        final List<VirtualFile> files = new ArrayList<VirtualFile>();
+        ProjectRootManager.getInstance(myProject).getFileIndex().iterateContent(new ContentIterator() {
+            @Override
+            public boolean processFile(VirtualFile file) {
+                if (!file.isDirectory() && file.getFileType() == HbFileType.INSTANCE) {
+                    files.add(file);
+                }
+                return true;
+            }
+        });
+
+        myFiles = files.toArray(new VirtualFile[files.size()]);
+        myNodes.clear();
+        myNodesBySimpleName.clear();
+        List<VirtualFile> unreadTemplates = new ArrayList<VirtualFile>();
+        for (int node = 0; node < myFiles.length; node++) {
+            myNodes.put(myFiles[node], node);
+
+            String simpleName = FileUtil.getNameWithoutExtension(myFiles[node].getName());
+            TIntArrayList nodes = myNodesBySimpleName.get(simpleName);
+            if (nodes == null) {
+                nodes = new TIntArrayList(1);
+                myNodesBySimpleName.put(simpleName, nodes);
+            }
+            nodes.add(node);
+
+            if (!myPartialNames.containsKey(myFiles[node])) {
+                unreadTemplates.add(myFiles[node]);
+            }
+        }
+
+        // forget the names of templates which are gone
+        myPartialNames.keySet().retainAll(files);
+        return unreadTemplates;
+    }
+
+    /**
+     * Reads the partial names the given templates use from {@link HbPartialIndex}.  The index is keyed by partial
+     * name, so this is one lookup per partial name in the project, however many templates we're reading.
+     */
+    private void readPartialNames(Collection<VirtualFile> templates) {
+        if (templates.isEmpty()) {
+            return;
+        }
+
+        final Map<VirtualFile, List<String>> partialNames = new THashMap<VirtualFile, List<String>>();
+        for (VirtualFile template : templates) {
+            partialNames.put(template, new ArrayList<String>());
+        }
+
+        FileBasedIndex index = FileBasedIndex.getInstance();
+        GlobalSearchScope scope = GlobalSearchScope.filesScope(myProject, templates);
+        for (final String partialName : index.getAllKeys(HbPartialIndex.NAME, myProject)) {
+            index.processValues(HbPartialIndex.NAME, partialName, null, new FileBasedIndex.ValueProcessor<List<Integer>>() {
+                @Override
+                public boolean process(VirtualFile file, List<Integer> offsets) {
+                    List<String> names = partialNames.get(file);
+                    if (names != null) {
+                        names.add(partialName);
+                    }
+                    return true;
+                }
+            }, scope);
+        }
+
+        for (Map.Entry<VirtualFile, List<String>> entry : partialNames.entrySet()) {
+            myPartialNames.put(entry.getKey(), ArrayUtil.toStringArray(entry.getValue()));
+        }
+    }
+
+    /**
+     * @return the nodes the given node's partial names resolve to, sorted
+     */
+    private int[] linkNode(int node) {
+        TIntArrayList targets = new TIntArrayList();
+        for (String partialName : myPartialNames.get(myFiles[node])) {
+            TIntArrayList candidates = myNodesBySimpleName.get(HbPsiUtil.getPartialSimpleName(partialName));
+            for (int i = 0; candidates != null && i < candidates.size(); i++) {
+                int target = candidates.get(i);
+                if (!targets.contains(target) && HbPsiUtil.isPartialFile(myFiles[target], partialName)) {
+                    targets.add(target);
+                }
+            }
+        }
+        targets.sort();
+        return targets.toNativeArray();
+    }
+
+    /**
+     * Finds the strongly connected components with Tarjan's algorithm, run with explicit stacks so that long
+     * include chains can't overflow ours.  Tarjan finishes a component only after every component it reaches,
+     * so component numbers come out in reverse topological order: edges between components always go to a
+     * lower number.
+     */
+    private void findComponents() {
+        int nodeCount = myFiles.length;
+        int[] components = new int[nodeCount];
+        int[] indexes = new int[nodeCount];
+        int[] lowLinks = new int[nodeCount];
+        boolean[] onStack = new boolean[nodeCount];
+        Arrays.fill(indexes, -1);
+
+        int[] componentStack = new int[nodeCount];
+        int componentStackSize = 0;
+        // the DFS: the nodes we're in, and how far through its edges we are for each
+        int[] callStack = new int[nodeCount];
+        int[] callEdges = new int[nodeCount];
+        int callStackSize = 0;
+
+        int nextIndex = 0;
+        int componentCount = 0;
+        TIntArrayList cyclicComponents = new TIntArrayList();
+        for (int root = 0; root < nodeCount; root++) {
+            if (indexes[root] != -1) {
+                continue;
+            }
+
+            indexes[root] = lowLinks[root] = nextIndex++;
+            componentStack[componentStackSize++] = root;
+            onStack[root] = true;
+            callStack[callStackSize] = root;
+            callEdges[callStackSize++] = 0;
+
+            while (callStackSize > 0) {
+                int node = callStack[callStackSize - 1];
+                int edge = callEdges[callStackSize - 1];
+                if (edge < myEdges[node].length) {
+                    callEdges[callStackSize - 1]++;
+                    int target = myEdges[node][edge];
+                    if (indexes[target] == -1) {
+                        indexes[target] = lowLinks[target] = nextIndex++;
+                        componentStack[componentStackSize++] = target;
+                        onStack[target] = true;
+                        callStack[callStackSize] = target;
+                        callEdges[callStackSize++] = 0;
+                    } else if (onStack[target]) {
+                        lowLinks[node] = Math.min(lowLinks[node], indexes[target]);
+                    }
+                    continue;
+                }
+
+                // done with this node's edges
+                callStackSize--;
+                if (callStackSize > 0) {
+                    int caller = callStack[callStackSize - 1];
+                    lowLinks[caller] = Math.min(lowLinks[caller], lowLinks[node]);
+                }
+
+                if (lowLinks[node] == indexes[node]) {
+                    int member;
+                    int memberCount = 0;
+                    do {
+                        member = componentStack[--componentStackSize];
+                        onStack[member] = false;
+                        components[member] = componentCount;
+                        memberCount++;
+                    } while (member != node);
+
+                    if (memberCount > 1 || Arrays.binarySearch(myEdges[node], node) >= 0) {
+                        cyclicComponents.add(componentCount);
+                    }
+                    componentCount++;
+                }
+            }
+        }
+
+        myComponents = components;
+        myComponentCount = componentCount;
+        myCyclicComponents = new boolean[componentCount];
+        for (int i = 0; i < cyclicComponents.size(); i++) {
+            myCyclicComponents[cyclicComponents.get(i)] = true;
+        }
+        linkComponents();
+        myComponentClosures = new BitSet[componentCount];
+    }
+
+    /**
+     * Lays out the edges between components in {@link #myComponentEdgeStarts} and {@link #myComponentEdgeTargets}
+     */
+    private void linkComponents() {
+        // bucket the nodes by component, so we can walk each component's edges together
+        int[] memberStarts = new int[myComponentCount + 1];
+        for (int component : myComponents) {
+            memberStarts[component + 1]++;
+        }
+        for (int component = 0; component < myComponentCount; component++) {
+            memberStarts[component + 1] += memberStarts[component];
+        }
+        int[] members = new int[myFiles.length];
+        int[] nextMember = Arrays.copyOf(memberStarts, myComponentCount);
+        for (int node = 0; node < myFiles.length; node++) {
+            members[nextMember[myComponents[node]]++] = node;
+        }
+
+        int[] edgeStarts = new int[myComponentCount + 1];
+        TIntArrayList edgeTargets = new TIntArrayList();
+        // the last component each component linked to, so each link is only added once
+        int[] lastLinkedFrom = new int[myComponentCount];
+        Arrays.fill(lastLinkedFrom, -1);
+        for (int component = 0; component < myComponentCount; component++) {
+            edgeStarts[component] = edgeTargets.size();
+            for (int i = memberStarts[component]; i < memberStarts[component + 1]; i++) {
+                int node = members[i];
+                for (int target : myEdges[node]) {
+                    int targetComponent = myComponents[target];
+                    if (targetComponent != component && lastLinkedFrom[targetComponent] != component) {
+                        lastLinkedFrom[targetComponent] = component;
+                        edgeTargets.add(targetComponent);
+                    }
+                }
+            }
+        }
+        edgeStarts[myComponentCount] = edgeTargets.size();
+
+        myComponentEdgeStarts = edgeStarts;
+        myComponentEdgeTargets = edgeTargets.toNativeArray();
+    }
+
+    /**
+     * @return the components the given component reaches (itself included).  Computed on first request and then
+     *         cached, along with those of every component it reaches, which we get for free on the way.
+     */
+    private BitSet getClosure(int component) {
+        if (myComponentClosures[component] != null) {
+            return myComponentClosures[component];
+        }
+
+        // every edge goes to a lower-numbered component, so visiting the reachable components from the highest
+        // number down means each one's successors are done before it
+        BitSet reachable = new BitSet(component + 1);
+        int[] stack = new int[myComponentCount];
+        int stackSize = 0;
+        stack[stackSize++] = component;
+        reachable.set(component);
+        while (stackSize > 0) {
+            int current = stack[--stackSize];
+            if (myComponentClosures[current] != null && current != component) {
+                continue;
+            }
+            for (int edge = myComponentEdgeStarts[current]; edge < myComponentEdgeStarts[current + 1]; edge++) {
+                int target = myComponentEdgeTargets[edge];
+                if (!reachable.get(target)) {
+                    reachable.set(target);
+                    stack[stackSize++] = target;
+                }
+            }
+        }
+
+        for (int current = reachable.nextSetBit(0); current >= 0; current = reachable.nextSetBit(current + 1)) {
+            if (myComponentClosures[current] != null) {
+                continue;
+            }
+            BitSet closure = new BitSet(current + 1);
+            closure.set(current);
+            for (int edge = myComponentEdgeStarts[current]; edge < myComponentEdgeStarts[current + 1]; edge++) {
+                closure.or(myComponentClosures[myComponentEdgeTargets[edge]]);
+            }
+            myComponentClosures[current] = closure;
+        }
+        return myComponentClosures[component];
+    }
+}
@@ -0,0 +1,88 @@
+package com.dmarcotte.handlebars.index;
+
+import com.dmarcotte.handlebars.parsing.HbLexer;
+import com.dmarcotte.handlebars.parsing.HbTokenTypes;
+import com.intellij.lexer.Lexer;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of partial references (i.e. "{{> name}}"): maps each partial name, as written (e.g. "path/to/partial"),
+ * to the offsets of its PARTIAL_NAME tokens in each template which uses it.
+ * <p>
+ * The index is built from {@link HbLexer} alone (no PSI), so it's available as soon as indexing is.  It's where
+ * {@link HbPartialGraph} gets each template's partial names from.  "Find usages" on a partial file wants the
+ * partials themselves, so it looks them up in {@link HbPartialStubIndex} instead.
+ */
+public class HbPartialIndex extends FileBasedIndexExtension<String, List<Integer>> {
+    public static final ID<String, List<Integer>> NAME = ID.create("com.dmarcotte.handlebars.index.HbPartialIndex");
+
+    private static final int VERSION = 1;
+
+    private final DataIndexer<String, List<Integer>, FileContent> myIndexer = new DataIndexer<String, List<Integer>, FileContent>() {
+        @NotNull
+        @Override
+        public Map<String, List<Integer>> map(FileContent inputData) {
+            Map<String, List<Integer>> partialOffsets = HbIndexUtil.newNameOffsets();
+            CharSequence text = inputData.getContentAsText();
+
+            Lexer lexer = new HbLexer();
+            lexer.start(text);
+            for (; lexer.getTokenType() != null; lexer.advance()) {
+                if (lexer.getTokenType() == HbTokenTypes.PARTIAL_NAME) {
+                    String partialName = text.subSequence(lexer.getTokenStart(), lexer.getTokenEnd()).toString();
+                    HbIndexUtil.addOffset(partialOffsets, partialName, lexer.getTokenStart());
+                }
+            }
+
+            return partialOffsets;
+        }
+    };
+
+    @NotNull
+    @Override
+    public ID<String, List<Integer>> getName() {
+        return NAME;
+    }
+
+    @NotNull
+    @Override
+    public DataIndexer<String, List<Integer>, FileContent> getIndexer() {
+        return myIndexer;
+    }
+
+    @Override
+    public KeyDescriptor<String> getKeyDescriptor() {
+        return new EnumeratorStringDescriptor();
+    }
+
+    @Override
+    public DataExternalizer<List<Integer>> getValueExternalizer() {
+        return HbIndexUtil.OFFSETS_EXTERNALIZER;
+    }
+
+    @Override
+    public FileBasedIndex.InputFilter getInputFilter() {
+        return HbIndexUtil.TEMPLATE_FILTER;
+    }
+
+    @Override
+    public boolean dependsOnFileContent() {
+        return true;
+    }
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+}
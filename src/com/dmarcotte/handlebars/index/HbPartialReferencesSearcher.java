@@ -0,0 +1,67 @@
+package com.dmarcotte.handlebars.index;
+
+import com.dmarcotte.handlebars.file.HbFileType;
+import com.dmarcotte.handlebars.psi.HbPartial;
+import com.dmarcotte.handlebars.psi.HbPsiUtil;
+import com.intellij.openapi.application.QueryExecutorBase;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.SearchScope;
+import com.intellij.psi.search.searches.ReferencesSearch;
+import com.intellij.util.Processor;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Finds the partials which include a template by looking up the names they could use for it (see
+ * {@link HbPsiUtil#getPartialNames}) in {@link HbPartialStubIndex}.
+ * <p>
+ * Note this runs alongside the platform's own search for references to a file rather than replacing it: that still
+ * does a text search for the file's name, and may report some of the same references.
+ */
+public class HbPartialReferencesSearcher extends QueryExecutorBase<PsiReference, ReferencesSearch.SearchParameters> {
+
+    public HbPartialReferencesSearcher() {
+        super(true);
+    }
+
+    @Override
+    public void processQuery(@NotNull ReferencesSearch.SearchParameters queryParameters,
+                             @NotNull Processor<PsiReference> consumer) {
+        PsiElement target = queryParameters.getElementToSearch();
+        SearchScope searchScope = queryParameters.getEffectiveSearchScope();
+        if (!(target instanceof PsiFile) || !(searchScope instanceof GlobalSearchScope)) {
+            return;
+        }
+
+        VirtualFile targetFile = ((PsiFile) target).getVirtualFile();
+        if (targetFile == null || targetFile.getFileType() != HbFileType.INSTANCE) {
+            return;
+        }
+
+        // look up each name which could refer to the target directly, rather than going through every partial
+        // name in the index: there are only a few of them per directory level
+        Project project = target.getProject();
+        for (String partialName : HbPsiUtil.getPartialNames(targetFile)) {
+            if (!processPartialUsages(project, partialName, (GlobalSearchScope) searchScope, consumer)) {
+                return;
+            }
+        }
+    }
+
+    private static boolean processPartialUsages(Project project,
+                                                String partialName,
+                                                GlobalSearchScope scope,
+                                                Processor<PsiReference> consumer) {
+        for (HbPartial partial : HbPartialStubIndex.getPartials(partialName, project, scope)) {
+            PsiReference reference = partial.getReference();
+            if (reference != null && !consumer.process(reference)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
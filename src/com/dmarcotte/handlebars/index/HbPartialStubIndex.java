@@ -0,0 +1,39 @@
+package com.dmarcotte.handlebars.index;
+
+import com.dmarcotte.handlebars.psi.HbPartial;
+import com.dmarcotte.handlebars.psi.stubs.HbMustacheStub;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.stubs.StringStubIndexExtension;
+import com.intellij.psi.stubs.StubIndex;
+import com.intellij.psi.stubs.StubIndexKey;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+
+/**
+ * Stub index of partials (i.e. "{{> name}}"): maps each partial name, as written (e.g. "path/to/partial"),
+ * to the partials which use it (see {@link HbMustacheStub#getName()}).
+ * <p>
+ * This is what "find usages" on a partial file looks up (see {@link HbPartialReferencesSearcher}): the partials
+ * come straight from the templates' stub trees, so only the templates which use the partial need their AST.
+ */
+public class HbPartialStubIndex extends StringStubIndexExtension<HbPartial> {
+    public static final StubIndexKey<String, HbPartial> KEY =
+            StubIndexKey.createIndexKey("com.dmarcotte.handlebars.index.HbPartialStubIndex");
+
+    @Override
+    public StubIndexKey<String, HbPartial> getKey() {
+        return KEY;
+    }
+
+    /**
+     * @return the partials in the scope which use the given partial name
+     */
+    @NotNull
+    public static Collection<HbPartial> getPartials(@NotNull String partialName,
+                                                    @NotNull Project project,
+                                                    @NotNull GlobalSearchScope scope) {
+        return StubIndex.getInstance().get(KEY, partialName, project, scope);
+    }
+}
@@ -0,0 +1,274 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.exception.ShouldNotHappenException;
+import com.intellij.psi.TokenType;
+import com.intellij.psi.tree.IElementType;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * {@link HbTreeBuilder} which runs {@link _HbLexer} straight over the text and builds an {@link HbSyntaxTree},
+ * for parsing outside the IDE.
+ * <p>
+ * Works the way PsiBuilder does: the text is lexed up front, and markers are kept in a "production" list of
+ * start and done entries, in tree order.  Dropping a marker removes its start entry, rolling back to a marker
+ * truncates the list at it, and once parsing is done, the list is read off into the tree.  What we know about
+ * each marker is kept in arrays indexed by its id (the {@link Marker} the parser holds is just that id), and the
+ * tree itself is nothing but arrays.
+ */
+class HbArrayTreeBuilder implements HbTreeBuilder {
+    private final CharSequence _text;
+
+    // the tokens, with a final entry in _tokenStarts for the end of the text
+    private IElementType[] _tokenTypes = new IElementType[64];
+    private int[] _tokenStarts = new int[65];
+    // whether each token is one the parser skips over (see isHidden); we ask a lot, so work it out once
+    private boolean[] _tokenHidden = new boolean[64];
+    private int _tokenCount;
+
+    // raw index (i.e. counting white space and comments) of the current token
+    private int _currentToken;
+
+    // per marker id: the raw token index it starts at, the raw token index it's done at, and what it's done as
+    private int[] _markerStartTokens = new int[64];
+    private int[] _markerDoneTokens = new int[64];
+    private IElementType[] _markerTypes = new IElementType[64];
+    private String[] _markerErrors = new String[64];
+    private int _markerCount;
+
+    // start entries are (id * 2), done entries are (id * 2 + 1)
+    private int[] _production = new int[128];
+    private int _productionSize;
+
+    HbArrayTreeBuilder(CharSequence text) {
+        _text = text;
+        lex();
+    }
+
+    private void lex() {
+        _HbLexer lexer = new _HbLexer((Reader) null);
+        lexer.reset(_text, 0, _text.length(), _HbLexer.YYINITIAL);
+        lexer.restoreState(_HbLexer.YYINITIAL);
+        try {
+            IElementType tokenType;
+            while ((tokenType = lexer.advance()) != null) {
+                if (_tokenCount == _tokenTypes.length) {
+                    _tokenTypes = Arrays.copyOf(_tokenTypes, _tokenCount * 2);
+                    _tokenStarts = Arrays.copyOf(_tokenStarts, _tokenCount * 2 + 1);
+                    _tokenHidden = Arrays.copyOf(_tokenHidden, _tokenCount * 2);
+                }
+                _tokenTypes[_tokenCount] = tokenType;
+                _tokenHidden[_tokenCount] = isHidden(tokenType);
+                _tokenStarts[_tokenCount] = lexer.getTokenStart();
+                _tokenCount++;
+            }
+        } catch (IOException e) {
+            // we lex from a CharSequence, there's no IO to go wrong
+            throw new ShouldNotHappenException();
+        }
+        _tokenStarts[_tokenCount] = _text.length();
+    }
+
+    /**
+     * @return the tree made from everything done so far, under a root of the given type covering all the text
+     */
+    HbSyntaxTree buildTree(IElementType rootType) {
+        HbSyntaxTree.Nodes nodes = new HbSyntaxTree.Nodes(_productionSize / 2 + 1);
+        int root = nodes.add(rootType, 0, _text.length(), -1);
+
+        int[] openNodes = new int[16];
+        int openNodeCount = 0;
+        int parent = root;
+        for (int i = 0; i < _productionSize; i++) {
+            int id = _production[i] / 2;
+            if (_production[i] % 2 == 0) {
+                int startToken = skipHiddenForward(_markerStartTokens[id]);
+                int endToken = Math.max(startToken, skipHiddenBack(_markerDoneTokens[id], startToken));
+                int node = nodes.add(_markerTypes[id], _tokenStarts[startToken], _tokenStarts[endToken], parent);
+                if (_markerErrors[id] != null) {
+                    nodes.addError(node, _markerErrors[id]);
+                }
+
+                if (openNodeCount == openNodes.length) {
+                    openNodes = Arrays.copyOf(openNodes, openNodeCount * 2);
+                }
+                openNodes[openNodeCount++] = parent;
+                parent = node;
+            } else {
+                nodes.close(parent);
+                parent = openNodes[--openNodeCount];
+            }
+        }
+        nodes.close(root);
+
+        return new HbSyntaxTree(_text, _tokenTypes, _tokenStarts, _tokenCount, nodes);
+    }
+
+    private int skipHiddenForward(int token) {
+        while (token < _tokenCount && _tokenHidden[token]) {
+            token++;
+        }
+        return token;
+    }
+
+    private int skipHiddenBack(int token, int limit) {
+        while (token > limit && _tokenHidden[token - 1]) {
+            token--;
+        }
+        return token;
+    }
+
+    /**
+     * @return true for the tokens PsiBuilder would skip over (see {@link HbParseDefinition#getWhitespaceTokens()}
+     *         and {@link HbParseDefinition#getCommentTokens()})
+     */
+    private static boolean isHidden(IElementType tokenType) {
+        return HbTokenTypes.WHITESPACES.contains(tokenType) || HbTokenTypes.COMMENTS.contains(tokenType);
+    }
+
+    private void skipHidden() {
+        _currentToken = skipHiddenForward(_currentToken);
+    }
+
+    @Override
+    public IElementType getTokenType() {
+        skipHidden();
+        return _currentToken < _tokenCount ? _tokenTypes[_currentToken] : null;
+    }
+
+    @Override
+    public String getTokenText() {
+        skipHidden();
+        return _currentToken < _tokenCount
+               ? _text.subSequence(_tokenStarts[_currentToken], _tokenStarts[_currentToken + 1]).toString()
+               : null;
+    }
+
+    @Override
+    public int getCurrentOffset() {
+        skipHidden();
+        return _tokenStarts[_currentToken];
+    }
+
+    @Override
+    public IElementType lookAhead(int steps) {
+        int token = skipHiddenForward(_currentToken);
+        for (int i = 0; i < steps && token < _tokenCount; i++) {
+            token = skipHiddenForward(token + 1);
+        }
+        return token < _tokenCount ? _tokenTypes[token] : null;
+    }
+
+    @Override
+    public void advanceLexer() {
+        skipHidden();
+        if (_currentToken < _tokenCount) {
+            _currentToken++;
+        }
+    }
+
+    @Override
+    public boolean eof() {
+        skipHidden();
+        return _currentToken == _tokenCount;
+    }
+
+    @Override
+    public Marker mark() {
+        skipHidden();
+        if (_markerCount == _markerStartTokens.length) {
+            int newLength = _markerCount * 2;
+            _markerStartTokens = Arrays.copyOf(_markerStartTokens, newLength);
+            _markerDoneTokens = Arrays.copyOf(_markerDoneTokens, newLength);
+            _markerTypes = Arrays.copyOf(_markerTypes, newLength);
+            _markerErrors = Arrays.copyOf(_markerErrors, newLength);
+        }
+
+        int id = _markerCount++;
+        _markerStartTokens[id] = _currentToken;
+        _markerTypes[id] = null;
+        _markerErrors[id] = null;
+        addToProduction(_productionSize, id * 2);
+        return new ArrayMarker(id);
+    }
+
+    @Override
+    public void checkCanceled() {
+        // nobody outside the IDE is going to cancel us
+    }
+
+    private void addToProduction(int index, int entry) {
+        if (_productionSize == _production.length) {
+            _production = Arrays.copyOf(_production, _productionSize * 2);
+        }
+        System.arraycopy(_production, index, _production, index + 1, _productionSize - index);
+        _production[index] = entry;
+        _productionSize++;
+    }
+
+    /**
+     * @return the index of the given marker's start entry in the production.  Markers are nearly always dropped
+     *         or completed soon after they're made, so we look from the end.
+     */
+    private int findStart(int id) {
+        for (int i = _productionSize - 1; i >= 0; i--) {
+            if (_production[i] == id * 2) {
+                return i;
+            }
+        }
+        throw new ShouldNotHappenException();
+    }
+
+    private class ArrayMarker implements Marker {
+        private final int _id;
+
+        ArrayMarker(int id) {
+            _id = id;
+        }
+
+        @Override
+        public void drop() {
+            int start = findStart(_id);
+            System.arraycopy(_production, start + 1, _production, start, _productionSize - start - 1);
+            _productionSize--;
+            if (_id == _markerCount - 1) {
+                // the parser drops most of its markers as soon as it's made them; reuse their slots
+                _markerCount--;
+            }
+        }
+
+        @Override
+        public void rollbackTo() {
+            _productionSize = findStart(_id);
+            _currentToken = _markerStartTokens[_id];
+            // everything made since this marker is gone
+            _markerCount = _id;
+        }
+
+        @Override
+        public void done(IElementType type) {
+            doneAt(type, _currentToken, _productionSize);
+        }
+
+        @Override
+        public void error(String message) {
+            _markerErrors[_id] = message;
+            done(TokenType.ERROR_ELEMENT);
+        }
+
+        @Override
+        public void errorBefore(String message, Marker before) {
+            int beforeId = ((ArrayMarker) before)._id;
+            _markerErrors[_id] = message;
+            doneAt(TokenType.ERROR_ELEMENT, _markerStartTokens[beforeId], findStart(beforeId));
+        }
+
+        private void doneAt(IElementType type, int doneToken, int productionIndex) {
+            _markerTypes[_id] = type;
+            _markerDoneTokens[_id] = doneToken;
+            addToProduction(productionIndex, _id * 2 + 1);
+        }
+    }
+}
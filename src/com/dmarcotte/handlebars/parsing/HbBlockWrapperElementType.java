@@ -0,0 +1,149 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.HbLanguage;
+import com.dmarcotte.handlebars.exception.ShouldNotHappenException;
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiBuilderFactory;
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.IReparseableElementType;
+import com.intellij.util.containers.Stack;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Element type for {@link HbTokenTypes#BLOCK_WRAPPER}, which lets an edit inside a block reparse just that block
+ * rather than the whole file.
+ * <p>
+ * This is only safe when the edited block parses the same way on its own as it does in the context of the file,
+ * so {@link #isParsable} only accepts text which is a single, well-formed block: it opens with a block 'stache,
+ * every nested block is closed with a matching name, it has at most one {{else}} per block, and it ends with
+ * its own close 'stache.  Anything else falls back to reparsing the enclosing block (or, ultimately, the file).
+ */
+class HbBlockWrapperElementType extends IReparseableElementType {
+
+    public HbBlockWrapperElementType(@NotNull @NonNls String debugName) {
+        super(debugName, HbLanguage.INSTANCE);
+    }
+
+    @Override
+    protected ASTNode doParseContents(@NotNull ASTNode chameleon, @NotNull PsiElement psi) {
+        PsiBuilder builder = PsiBuilderFactory.getInstance()
+                .createBuilder(psi.getProject(), chameleon, null, HbLanguage.INSTANCE, chameleon.getChars());
+
+        // parsed on its own, the block comes out as this > STATEMENTS > BLOCK_WRAPPER;
+        // we want the contents of that BLOCK_WRAPPER
+        ASTNode statements = new HbParser().parse(this, builder).getFirstChildNode();
+        ASTNode blockWrapper = statements == null ? null : statements.getFirstChildNode();
+        if (blockWrapper == null
+                || blockWrapper.getElementType() != HbTokenTypes.BLOCK_WRAPPER
+                || blockWrapper.getTreeNext() != null) {
+            // isParsable only lets through text which parses as exactly one block
+            throw new ShouldNotHappenException();
+        }
+
+        return blockWrapper.getFirstChildNode();
+    }
+
+    @Override
+    public boolean isParsable(CharSequence buffer, Project project) {
+        List<IElementType> tokenTypes = new ArrayList<IElementType>();
+        List<String> tokenTexts = new ArrayList<String>();
+
+        Lexer lexer = new HbLexer();
+        lexer.start(buffer);
+        while (lexer.getTokenType() != null) {
+            IElementType tokenType = lexer.getTokenType();
+            if (tokenType == HbTokenTypes.INVALID || tokenType == HbTokenTypes.UNCLOSED_COMMENT) {
+                return false;
+            }
+
+            if (tokenType != HbTokenTypes.WHITE_SPACE) {
+                tokenTypes.add(tokenType);
+                tokenTexts.add(tokenType == HbTokenTypes.ID ? lexer.getTokenText() : null);
+            }
+            lexer.advance();
+        }
+
+        // the lexer must be back in its initial state, otherwise the block leaves a mustache (or comment) open
+        // and would change how the text after it is lexed
+        if (lexer.getState() != 0 || tokenTypes.isEmpty()) {
+            return false;
+        }
+
+        IElementType firstTokenType = tokenTypes.get(0);
+        if (firstTokenType != HbTokenTypes.OPEN_BLOCK && firstTokenType != HbTokenTypes.OPEN_INVERSE) {
+            return false;
+        }
+
+        Stack<String> openBlockNames = new Stack<String>();
+        Stack<Boolean> hasSimpleInverse = new Stack<Boolean>();
+        for (int i = 0; i < tokenTypes.size(); i++) {
+            IElementType tokenType = tokenTypes.get(i);
+            IElementType nextTokenType = i + 1 < tokenTypes.size() ? tokenTypes.get(i + 1) : null;
+
+            if (tokenType == HbTokenTypes.OPEN_BLOCK || tokenType == HbTokenTypes.OPEN_INVERSE) {
+                if (nextTokenType == HbTokenTypes.ID) {
+                    // open block (or open inverse block)
+                    openBlockNames.push(tokenTexts.get(i + 1));
+                    hasSimpleInverse.push(false);
+                } else if (tokenType == HbTokenTypes.OPEN_INVERSE && nextTokenType == HbTokenTypes.CLOSE) {
+                    // "{{^}}"
+                    if (!recordSimpleInverse(openBlockNames, hasSimpleInverse)) {
+                        return false;
+                    }
+                } else {
+                    return false;
+                }
+            } else if (tokenType == HbTokenTypes.OPEN && nextTokenType == HbTokenTypes.ELSE) {
+                // only the "{{else}}" form of simple inverse; "{{else foo}}" open inverse blocks aren't worth the trouble
+                if (i + 2 >= tokenTypes.size() || tokenTypes.get(i + 2) != HbTokenTypes.CLOSE
+                        || !recordSimpleInverse(openBlockNames, hasSimpleInverse)) {
+                    return false;
+                }
+            } else if (tokenType == HbTokenTypes.OPEN_ENDBLOCK) {
+                if (nextTokenType != HbTokenTypes.ID
+                        || openBlockNames.empty()
+                        || !openBlockNames.pop().equals(tokenTexts.get(i + 1))) {
+                    return false;
+                }
+                hasSimpleInverse.pop();
+
+                if (openBlockNames.empty()) {
+                    // we've closed our block: the rest of the close 'stache must take us to the end of the text
+                    int closeIndex = i + 2;
+                    while (closeIndex < tokenTypes.size()
+                            && (tokenTypes.get(closeIndex) == HbTokenTypes.ID || tokenTypes.get(closeIndex) == HbTokenTypes.SEP)) {
+                        closeIndex++;
+                    }
+                    return closeIndex == tokenTypes.size() - 1 && tokenTypes.get(closeIndex) == HbTokenTypes.CLOSE;
+                }
+            }
+        }
+
+        // never closed our block
+        return false;
+    }
+
+    /**
+     * A block may contain a single simple inverse; a second one would end the block's program early,
+     * and in the context of the whole file the parser would go on to pair it up with an enclosing block
+     *
+     * @return true if the simple inverse is fine where it is
+     */
+    private static boolean recordSimpleInverse(Stack<String> openBlockNames, Stack<Boolean> hasSimpleInverse) {
+        if (openBlockNames.empty() || hasSimpleInverse.peek()) {
+            return false;
+        }
+
+        hasSimpleInverse.pop();
+        hasSimpleInverse.push(true);
+        return true;
+    }
+}
@@ -0,0 +1,23 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.HbLanguage;
+import com.dmarcotte.handlebars.psi.HbPsiFile;
+import com.intellij.psi.stubs.PsiFileStub;
+import com.intellij.psi.tree.IStubFileElementType;
+
+/**
+ * File element type which gives our files a stub tree (see {@link HbMustacheStubElementType})
+ */
+class HbFileElementType extends IStubFileElementType<PsiFileStub<HbPsiFile>> {
+    // bump this whenever the stubs change, so that they get rebuilt
+    private static final int STUB_VERSION = 2;
+
+    HbFileElementType() {
+        super("FILE", HbLanguage.INSTANCE);
+    }
+
+    @Override
+    public int getStubVersion() {
+        return STUB_VERSION;
+    }
+}
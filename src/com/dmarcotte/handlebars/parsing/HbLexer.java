@@ -1,11 +1,103 @@
 package com.dmarcotte.handlebars.parsing;
 
 import com.intellij.lexer.FlexAdapter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
 import java.io.Reader;
 
+/**
+ * Restartable adapter for {@link _HbLexer}.
+ * <p>
+ * The generated lexer keeps a stack of lexical states (see the yypushState/yypopState calls in handlebars.flex),
+ * which {@link FlexAdapter} knows nothing about.  We fold that stack into the int returned by {@link #getState()}
+ * and unpack it again in {@link #start}, so the state reported at any token boundary is enough to restart
+ * lexing from that token and get exactly the tokens a full lex would produce.
+ * <p>
+ * Note that the editor highlighter doesn't keep these states: after an edit it restarts lexing from the nearest
+ * token before the edit that was lexed in the initial state.  Every CONTENT run and every mustache open is lexed in
+ * the initial state, so for ordinary templates that restart point is never more than a mustache away.  The lines of
+ * an unclosed comment are the exception, which an {@link HbUnclosedCommentCache} takes care of.
+ */
 public class HbLexer extends FlexAdapter {
+
+    private final HbUnclosedCommentCache myUnclosedCommentCache;
+    private int myTokenStartState;
+    private boolean myTokenStartStateKnown;
+
     public HbLexer() {
+        this(null);
+    }
+
+    /**
+     * @param unclosedCommentCache for a lexer restarted over and over on the same document by the editor highlighter,
+     *                             the cache of its unclosed comment.  With one, the lines of an unclosed comment are
+     *                             reported as initial-state tokens, and restarting at them in the initial state
+     *                             carries on with the comment.
+     */
+    public HbLexer(@Nullable HbUnclosedCommentCache unclosedCommentCache) {
         super(new _HbLexer((Reader) null));
+        myUnclosedCommentCache = unclosedCommentCache;
+        getHbFlex().setUnclosedCommentCache(unclosedCommentCache);
     }
 
-}
\ No newline at end of file
+    @Override
+    public void start(@NotNull CharSequence buffer, int startOffset, int endOffset, int initialState) {
+        if (initialState == 0
+            && myUnclosedCommentCache != null
+            && myUnclosedCommentCache.isInUnclosedComment(startOffset, endOffset)) {
+            // a restart at one of the lines we reported as initial-state tokens (see locateToken)
+            initialState = _HbLexer.PACKED_UNCLOSED_COMMENT_STATE;
+        }
+
+        super.start(buffer, startOffset, endOffset, initialState);
+        // super.start only knows how to restore a bare lexical state; put the rest of the stack back too
+        getHbFlex().restoreState(initialState);
+        myTokenStartStateKnown = false;
+    }
+
+    /**
+     * @return the full (packed) lexer state in effect at the start of the current token.  Passing this value
+     *         back to {@link #start} restarts lexing at this token.
+     */
+    @Override
+    public int getState() {
+        locateToken();
+        return myTokenStartState;
+    }
+
+    @Override
+    public void advance() {
+        super.advance();
+        myTokenStartStateKnown = false;
+    }
+
+    @Override
+    protected void locateToken() {
+        if (myTokenStartStateKnown) {
+            super.locateToken();
+            return;
+        }
+
+        // capture the packed state before the generated lexer moves past the current token
+        _HbLexer flex = getHbFlex();
+        if (myUnclosedCommentCache != null && flex.yystate() == _HbLexer.unclosed_comment) {
+            myTokenStartState = 0;
+        } else {
+            myTokenStartState = flex.getPackedState();
+        }
+        myTokenStartStateKnown = true;
+        super.locateToken();
+
+        if (myUnclosedCommentCache != null
+            && getTokenType() != HbTokenTypes.UNCLOSED_COMMENT
+            && myUnclosedCommentCache.coversCommentStart(getTokenStart(), getTokenEnd())) {
+            // an edit before the comment we remembered means it no longer opens a comment
+            myUnclosedCommentCache.clear();
+        }
+    }
+
+    private _HbLexer getHbFlex() {
+        return (_HbLexer) getFlex();
+    }
+}
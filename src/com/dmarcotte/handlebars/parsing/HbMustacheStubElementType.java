@@ -0,0 +1,92 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.HbLanguage;
+import com.dmarcotte.handlebars.exception.ShouldNotHappenException;
+import com.dmarcotte.handlebars.index.HbPartialStubIndex;
+import com.dmarcotte.handlebars.psi.HbPsiElement;
+import com.dmarcotte.handlebars.psi.impl.HbOpenBlockMustacheImpl;
+import com.dmarcotte.handlebars.psi.impl.HbOpenInverseBlockMustacheImpl;
+import com.dmarcotte.handlebars.psi.impl.HbPartialImpl;
+import com.dmarcotte.handlebars.psi.impl.HbSimpleMustacheImpl;
+import com.dmarcotte.handlebars.psi.impl.HbStubBasedPsiElementImpl;
+import com.dmarcotte.handlebars.psi.stubs.HbMustacheStub;
+import com.dmarcotte.handlebars.psi.stubs.HbMustacheStubImpl;
+import com.intellij.psi.stubs.IStubElementType;
+import com.intellij.psi.stubs.IndexSink;
+import com.intellij.psi.stubs.StubElement;
+import com.intellij.psi.stubs.StubInputStream;
+import com.intellij.psi.stubs.StubOutputStream;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.StringRef;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Element type for the mustaches we keep stubs for (see {@link HbMustacheStub}):
+ * {@link HbTokenTypes#OPEN_BLOCK_STACHE}, {@link HbTokenTypes#OPEN_INVERSE_BLOCK_STACHE},
+ * {@link HbTokenTypes#MUSTACHE} and {@link HbTokenTypes#PARTIAL_STACHE}.
+ * <p>
+ * Partials are indexed by name in {@link HbPartialStubIndex}.
+ */
+class HbMustacheStubElementType extends IStubElementType<HbMustacheStub, HbPsiElement> {
+
+    HbMustacheStubElementType(@NotNull @NonNls String debugName) {
+        super(debugName, HbLanguage.INSTANCE);
+    }
+
+    @Override
+    public HbPsiElement createPsi(@NotNull HbMustacheStub stub) {
+        if (this == HbTokenTypes.OPEN_BLOCK_STACHE) {
+            return new HbOpenBlockMustacheImpl(stub, this);
+        }
+
+        if (this == HbTokenTypes.OPEN_INVERSE_BLOCK_STACHE) {
+            return new HbOpenInverseBlockMustacheImpl(stub, this);
+        }
+
+        if (this == HbTokenTypes.MUSTACHE) {
+            return new HbSimpleMustacheImpl(stub, this);
+        }
+
+        if (this == HbTokenTypes.PARTIAL_STACHE) {
+            return new HbPartialImpl(stub, this);
+        }
+
+        throw new ShouldNotHappenException();
+    }
+
+    @Override
+    public HbMustacheStub createStub(@NotNull HbPsiElement psi, StubElement parentStub) {
+        HbStubBasedPsiElementImpl mustache = (HbStubBasedPsiElementImpl) psi;
+        return new HbMustacheStubImpl(parentStub, this, mustache.getStubName(), mustache.getStubNameOffset());
+    }
+
+    @Override
+    public String getExternalId() {
+        return "handlebars." + toString();
+    }
+
+    @Override
+    public void serialize(HbMustacheStub stub, StubOutputStream dataStream) throws IOException {
+        dataStream.writeName(stub.getName());
+        DataInputOutputUtil.writeINT(dataStream, stub.getNameOffset());
+    }
+
+    @Override
+    public HbMustacheStub deserialize(StubInputStream dataStream, StubElement parentStub) throws IOException {
+        StringRef name = dataStream.readName();
+        int nameOffset = DataInputOutputUtil.readINT(dataStream);
+        return new HbMustacheStubImpl(parentStub, this, StringRef.toString(name), nameOffset);
+    }
+
+    @Override
+    public void indexStub(HbMustacheStub stub, IndexSink sink) {
+        // helpers are indexed straight from the lexer (see HbHelperIndex), which can tell them from property lookups
+        String name = stub.getName();
+        if (this == HbTokenTypes.PARTIAL_STACHE && name != null) {
+            sink.occurrence(HbPartialStubIndex.KEY, name);
+        }
+    }
+}
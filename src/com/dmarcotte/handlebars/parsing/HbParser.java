@@ -12,7 +12,7 @@ class HbParser implements PsiParser {
     public ASTNode parse(IElementType root, PsiBuilder builder) {
         final PsiBuilder.Marker rootMarker = builder.mark();
 
-        new HbParsing(builder).parse();
+        new HbParsing(new HbPsiTreeBuilder(builder)).parse();
 
         rootMarker.done(root);
 
@@ -2,7 +2,6 @@ package com.dmarcotte.handlebars.parsing;
 
 import com.dmarcotte.handlebars.HbBundle;
 import com.dmarcotte.handlebars.exception.ShouldNotHappenException;
-import com.intellij.lang.PsiBuilder;
 import com.intellij.psi.tree.IElementType;
 import com.intellij.util.containers.Stack;
 
@@ -48,9 +47,12 @@ import static com.dmarcotte.handlebars.parsing.HbTokenTypes.UNCLOSED_COMMENT;
  *
  * Places where we've gone off book to make the live syntax detection a more pleasant experience are
  * marked HB_CUSTOMIZATION.  If we find bugs, or the grammar is ever updated, these are the first candidates to check.
+ *
+ * The parser builds its tree through an {@link HbTreeBuilder}: the plugin's is backed by the IDE's PsiBuilder
+ * (see {@link HbParser}), but the same grammar also builds the standalone {@link HbSyntaxTree}.
  */
 class HbParsing {
-    private final PsiBuilder builder;
+    private final HbTreeBuilder builder;
     private final Stack<String> openTagNamesStack = new Stack<String>();
 
     // the set of tokens which, if we encounter them while in a bad state, we'll try to
@@ -67,23 +69,68 @@ class HbParsing {
         RECOVERY_SET.add(CONTENT);
     }
 
-    public HbParsing(final PsiBuilder builder) {
+    /**
+     * The number of times {@link #parse()} will recover from a problem it can't parse its way out of before giving up
+     * and marking the rest of the file as a single error.  Real templates come nowhere near this, but without a
+     * limit, something like a half-pasted minified script can have us making an error element for every token.
+     */
+    static final int DEFAULT_MAX_RECOVERIES = 1000;
+
+    private final int maxRecoveries;
+    private final boolean useBlockStack;
+
+    public HbParsing(final HbTreeBuilder builder) {
+        this(builder, DEFAULT_MAX_RECOVERIES);
+    }
+
+    /**
+     * @param maxRecoveries see {@link #DEFAULT_MAX_RECOVERIES}
+     */
+    HbParsing(final HbTreeBuilder builder, int maxRecoveries) {
+        this(builder, maxRecoveries, true);
+    }
+
+    /**
+     * @param maxRecoveries see {@link #DEFAULT_MAX_RECOVERIES}
+     * @param useBlockStack whether to keep track of nested blocks on a stack of our own (see
+     *                      {@link #parseProgramWithBlockStack}) rather than by recursing into them
+     *                      (see {@link #parseProgram}).  Both give the same tree, but only the former copes
+     *                      with arbitrarily deep nesting.
+     */
+    HbParsing(final HbTreeBuilder builder, int maxRecoveries, boolean useBlockStack) {
         this.builder = builder;
+        this.maxRecoveries = maxRecoveries;
+        this.useBlockStack = useBlockStack;
     }
 
     public void parse() {
-        parseProgram(builder);
+        parseTopLevelProgram(builder);
+
+        int recoveries = 0;
+        while (!builder.eof()) {
+            builder.checkCanceled();
 
-        if (!builder.eof()) {
             // jumped out of the parser prematurely... try and figure out what's tripping it up,
             // then jump back in
 
+            if (recoveries == maxRecoveries) {
+                // this is no template we can make sense of; don't bother trying on the rest of it
+                HbTreeBuilder.Marker restOfFileMarker = builder.mark();
+                while (!builder.eof()) {
+                    builder.checkCanceled();
+                    builder.advanceLexer();
+                }
+                restOfFileMarker.error(HbBundle.message("hb.parsing.too.many.errors"));
+                return;
+            }
+            recoveries++;
+
             // deal with some unexpected tokens
             IElementType tokenType = builder.getTokenType();
             int problemOffset = builder.getCurrentOffset();
 
             if (tokenType == OPEN_ENDBLOCK) {
-                PsiBuilder.Marker badEndBlockMarker = builder.mark();
+                HbTreeBuilder.Marker badEndBlockMarker = builder.mark();
                 parseCloseBlock(builder);
                 badEndBlockMarker.error(HbBundle.message("hb.parsing.no.open.mustache"));
             }
@@ -91,12 +138,78 @@ class HbParsing {
             if (builder.getCurrentOffset() == problemOffset) {
                 // none of our error checks advanced the lexer, do it manually before we
                 // try and resume parsing to avoid an infinite loop
-                PsiBuilder.Marker problemMark = builder.mark();
+                HbTreeBuilder.Marker problemMark = builder.mark();
                 builder.advanceLexer();
                 problemMark.error(HbBundle.message("hb.parsing.invalid"));
             }
 
-            parse();
+            parseTopLevelProgram(builder);
+        }
+    }
+
+    private void parseTopLevelProgram(HbTreeBuilder builder) {
+        if (useBlockStack) {
+            parseProgramWithBlockStack(builder);
+        } else {
+            parseProgram(builder);
+        }
+    }
+
+    /**
+     * HB_CUSTOMIZATION: parses exactly what {@link #parseProgram} does (and builds the same tree), but rather than
+     * recursing through parseStatement for each block it opens, it keeps the programs of the open blocks
+     * on a stack of its own.  That way, the depth of the Java stack doesn't grow with the nesting depth of the
+     * template, which can otherwise overflow on big generated templates.
+     *
+     * The loop below is parseProgram, parseStatements and parseStatement unrolled: keep them in sync.
+     */
+    private void parseProgramWithBlockStack(HbTreeBuilder builder) {
+        if (builder.eof()) {
+            return;
+        }
+
+        Stack<NestedProgram> programs = new Stack<NestedProgram>();
+        programs.push(new NestedProgram(null, builder.mark()));
+
+        while (!programs.empty()) {
+            builder.checkCanceled();
+            NestedProgram program = programs.peek();
+
+            HbTreeBuilder.Marker optionalStatementMarker = builder.mark();
+            if (atBlockStart(builder)) {
+                OpenBlock openBlock = parseBlockStart(builder);
+                if (openBlock != null) {
+                    // once a block has started, the statement can't fail, so we're done with its marker
+                    // (dropping it now rather than after the block's program also saves the builder a long search)
+                    optionalStatementMarker.drop();
+                    if (builder.eof()) {
+                        // nothing to go in the block's program
+                        parseBlockEnd(builder, openBlock);
+                    } else {
+                        programs.push(new NestedProgram(openBlock, builder.mark()));
+                    }
+                    continue;
+                }
+            } else if (parseNonBlockStatement(builder)) {
+                optionalStatementMarker.drop();
+                continue;
+            }
+
+            // no more statements for this program
+            optionalStatementMarker.rollbackTo();
+            program.statementsMarker.done(STATEMENTS);
+
+            if (!program.hasSimpleInverse && parseSimpleInverse(builder)) {
+                // if we have a simple inverse, must have more statements
+                program.hasSimpleInverse = true;
+                program.statementsMarker = builder.mark();
+                continue;
+            }
+
+            programs.pop();
+            if (program.openBlock != null) {
+                parseBlockEnd(builder, program.openBlock);
+            }
         }
     }
 
@@ -107,7 +220,7 @@ class HbParsing {
      * | ""
      * ;
      */
-    private void parseProgram(PsiBuilder builder) {
+    private void parseProgram(HbTreeBuilder builder) {
         if (builder.eof()) {
             return;
         }
@@ -125,12 +238,13 @@ class HbParsing {
      * | statements statement
      * ;
      */
-    private void parseStatements(PsiBuilder builder) {
-        PsiBuilder.Marker statementsMarker = builder.mark();
+    private void parseStatements(HbTreeBuilder builder) {
+        HbTreeBuilder.Marker statementsMarker = builder.mark();
 
         // parse zero or more statements (empty statements are acceptable)
         while (true) {
-            PsiBuilder.Marker optionalStatementMarker = builder.mark();
+            builder.checkCanceled();
+            HbTreeBuilder.Marker optionalStatementMarker = builder.mark();
             if (parseStatement(builder)) {
                 optionalStatementMarker.drop();
             } else {
@@ -154,46 +268,27 @@ class HbParsing {
      * | COMMENT
      * ;
      */
-    private boolean parseStatement(PsiBuilder builder) {
-        IElementType tokenType = builder.getTokenType();
-
-        if (atOpenInverseExpression(builder)) {
-            PsiBuilder.Marker inverseBlockStartMarker = builder.mark();
-            PsiBuilder.Marker lookAheadMarker = builder.mark();
-            boolean isSimpleInverse = parseSimpleInverse(builder);
-            lookAheadMarker.rollbackTo();
-
-            if (isSimpleInverse) {
-                /* HB_CUSTOMIZATION */
-                // leave this to be caught be the simpleInverseParser
-                inverseBlockStartMarker.rollbackTo();
-                return false;
-            } else {
-                inverseBlockStartMarker.drop();
-            }
-
-            PsiBuilder.Marker blockMarker = builder.mark();
-            PsiBuilder.Marker openInverseMarker = builder.mark();
-            if (parseOpenInverse(builder)) {
-                openBlockMarker(builder, openInverseMarker, blockMarker);
-            } else {
+    private boolean parseStatement(HbTreeBuilder builder) {
+        if (atBlockStart(builder)) {
+            OpenBlock openBlock = parseBlockStart(builder);
+            if (openBlock == null) {
                 return false;
             }
 
+            parseProgram(builder);
+            parseBlockEnd(builder, openBlock);
             return true;
         }
 
-        if (tokenType == OPEN_BLOCK) {
-            PsiBuilder.Marker blockMarker = builder.mark();
-            PsiBuilder.Marker openBlockMarker = builder.mark();
-            if (parseOpenBlock(builder)) {
-                openBlockMarker(builder, openBlockMarker, blockMarker);
-            } else {
-                return false;
-            }
+        return parseNonBlockStatement(builder);
+    }
 
-            return true;
-        }
+    /**
+     * The statements which don't contain a program: everything but openInverse and openBlock
+     * (see {@link #parseStatement})
+     */
+    private boolean parseNonBlockStatement(HbTreeBuilder builder) {
+        IElementType tokenType = builder.getTokenType();
 
         if (tokenType == OPEN || tokenType == OPEN_UNESCAPED) {
             parseMustache(builder);
@@ -222,8 +317,12 @@ class HbParsing {
 
         // HB_CUSTOMIZATION: we lex UNCLOSED_COMMENT sections specially so that we can coherently mark them as errors
         if (tokenType == UNCLOSED_COMMENT) {
-            PsiBuilder.Marker unclosedCommentMarker = builder.mark();
-            parseLeafToken(builder, UNCLOSED_COMMENT);
+            HbTreeBuilder.Marker unclosedCommentMarker = builder.mark();
+            // the lexer hands out unclosed comments a line at a time; gather them all up into a single error
+            while (builder.getTokenType() == UNCLOSED_COMMENT) {
+                builder.checkCanceled();
+                parseLeafToken(builder, UNCLOSED_COMMENT);
+            }
             unclosedCommentMarker.error(HbBundle.message("hb.parsing.comment.unclosed"));
             return true;
         }
@@ -231,27 +330,70 @@ class HbParsing {
         return false;
     }
 
+    private boolean atBlockStart(HbTreeBuilder builder) {
+        return atOpenInverseExpression(builder) || builder.getTokenType() == OPEN_BLOCK;
+    }
+
+    /**
+     * Parses the "open-type mustache" (openBlock or openInverse) at the start of a block.  The block's program
+     * should be parsed next, and then the block finished off with {@link #parseBlockEnd}
+     *
+     * @return the markers for the block we've started, or null if this isn't the start of a block after all
+     */
+    private OpenBlock parseBlockStart(HbTreeBuilder builder) {
+        HbTreeBuilder.Marker blockMarker;
+        HbTreeBuilder.Marker openMustacheMarker;
+
+        if (atOpenInverseExpression(builder)) {
+            HbTreeBuilder.Marker inverseBlockStartMarker = builder.mark();
+            HbTreeBuilder.Marker lookAheadMarker = builder.mark();
+            boolean isSimpleInverse = parseSimpleInverse(builder);
+            lookAheadMarker.rollbackTo();
+
+            if (isSimpleInverse) {
+                /* HB_CUSTOMIZATION */
+                // leave this to be caught be the simpleInverseParser
+                inverseBlockStartMarker.rollbackTo();
+                return null;
+            } else {
+                inverseBlockStartMarker.drop();
+            }
+
+            blockMarker = builder.mark();
+            openMustacheMarker = builder.mark();
+            if (!parseOpenInverse(builder)) {
+                return null;
+            }
+        } else {
+            blockMarker = builder.mark();
+            openMustacheMarker = builder.mark();
+            if (!parseOpenBlock(builder)) {
+                return null;
+            }
+        }
+
+        return new OpenBlock(blockMarker, openMustacheMarker, builder.mark());
+    }
+
     /**
-     * Helper method to take care of the business need after an "open-type mustache" (openBlock or openInverse),
-     * including ensuring we've got the right close tag
+     * Helper method to take care of the business need after an "open-type mustache" (openBlock or openInverse)
+     * and its program, including ensuring we've got the right close tag
      *
-     * NOTE: will resolve the given openMustacheMarker
+     * NOTE: will resolve all the markers of the given openBlock
      */
-    private void openBlockMarker(PsiBuilder builder, PsiBuilder.Marker openMustacheMarker, PsiBuilder.Marker blockMarker) {
-        PsiBuilder.Marker parseProgramMarker = builder.mark();
-        parseProgram(builder);
+    private void parseBlockEnd(HbTreeBuilder builder, OpenBlock openBlock) {
         if(parseCloseBlock(builder)) {
-            openMustacheMarker.drop();
+            openBlock.openMustacheMarker.drop();
         } else {
             if (!openTagNamesStack.empty()) {
-                openMustacheMarker.errorBefore(HbBundle.message("hb.parsing.block.not.closed", openTagNamesStack.pop()), parseProgramMarker);
+                openBlock.openMustacheMarker.errorBefore(HbBundle.message("hb.parsing.block.not.closed", openTagNamesStack.pop()), openBlock.programMarker);
             } else {
-                openMustacheMarker.drop();
+                openBlock.openMustacheMarker.drop();
             }
         }
-        parseProgramMarker.drop();
+        openBlock.programMarker.drop();
 
-        blockMarker.done(HbTokenTypes.BLOCK_WRAPPER);
+        openBlock.blockMarker.done(HbTokenTypes.BLOCK_WRAPPER);
     }
 
     /**
@@ -259,8 +401,8 @@ class HbParsing {
      * : OPEN_BLOCK inMustache CLOSE { $$ = new yy.MustacheNode($2[0], $2[1]); }
      * ;
      */
-    private boolean parseOpenBlock(PsiBuilder builder) {
-        PsiBuilder.Marker openBlockStacheMarker = builder.mark();
+    private boolean parseOpenBlock(HbTreeBuilder builder) {
+        HbTreeBuilder.Marker openBlockStacheMarker = builder.mark();
         if (!parseLeafToken(builder, OPEN_BLOCK)) {
             openBlockStacheMarker.drop();
             return false;
@@ -279,10 +421,10 @@ class HbParsing {
      * : OPEN_INVERSE inMustache CLOSE
      * ;
      */
-    private boolean parseOpenInverse(PsiBuilder builder) {
-        PsiBuilder.Marker openInverseBlockStacheMarker = builder.mark();
+    private boolean parseOpenInverse(HbTreeBuilder builder) {
+        HbTreeBuilder.Marker openInverseBlockStacheMarker = builder.mark();
 
-        PsiBuilder.Marker regularInverseMarker = builder.mark();
+        HbTreeBuilder.Marker regularInverseMarker = builder.mark();
         if (!parseLeafToken(builder, OPEN_INVERSE)) {
             // didn't find a standard open inverse token,
             // check for the "{{else" version
@@ -309,8 +451,8 @@ class HbParsing {
      * : OPEN_ENDBLOCK path CLOSE { $$ = $2; }
      * ;
      */
-    private boolean parseCloseBlock(PsiBuilder builder) {
-        PsiBuilder.Marker closeBlockMarker = builder.mark();
+    private boolean parseCloseBlock(HbTreeBuilder builder) {
+        HbTreeBuilder.Marker closeBlockMarker = builder.mark();
 
         if (!parseLeafToken(builder, OPEN_ENDBLOCK)) {
             closeBlockMarker.drop();
@@ -325,6 +467,7 @@ class HbParsing {
             if (!expectedCloseTag.equals(actualCloseTag)) {
                 // advance all the way to a recovery token or the close stache for this open block 'stache
                 while (builder.getTokenType() != CLOSE && !RECOVERY_SET.contains(builder.getTokenType()) && !builder.eof()) {
+                    builder.checkCanceled();
                     builder.advanceLexer();
                 }
 
@@ -351,8 +494,8 @@ class HbParsing {
      * | OPEN_UNESCAPED inMustache CLOSE { $$ = new yy.MustacheNode($2[0], $2[1], true); }
      * ;
      */
-    private void parseMustache(PsiBuilder builder) {
-        PsiBuilder.Marker mustacheMarker = builder.mark();
+    private void parseMustache(HbTreeBuilder builder) {
+        HbTreeBuilder.Marker mustacheMarker = builder.mark();
         if (builder.getTokenType() == OPEN) {
             parseLeafToken(builder, OPEN);
         } else if (builder.getTokenType() == OPEN_UNESCAPED) {
@@ -375,15 +518,15 @@ class HbParsing {
      * | OPEN_PARTIAL PARTIAL_NAME path CLOSE { $$ = new yy.PartialNode($2, $3); }
      * ;
      */
-    private void parsePartial(PsiBuilder builder) {
-        PsiBuilder.Marker partialMarker = builder.mark();
+    private void parsePartial(HbTreeBuilder builder) {
+        HbTreeBuilder.Marker partialMarker = builder.mark();
 
         parseLeafToken(builder, OPEN_PARTIAL);
 
         parseLeafToken(builder, PARTIAL_NAME);
 
         // parse the optional path
-        PsiBuilder.Marker optionalPathMarker = builder.mark();
+        HbTreeBuilder.Marker optionalPathMarker = builder.mark();
         if (parsePath(builder)) {
             optionalPathMarker.drop();
         } else {
@@ -400,12 +543,12 @@ class HbParsing {
      * : OPEN_INVERSE CLOSE
      * ;
      */
-    private boolean parseSimpleInverse(PsiBuilder builder) {
-        PsiBuilder.Marker simpleInverseMarker = builder.mark();
+    private boolean parseSimpleInverse(HbTreeBuilder builder) {
+        HbTreeBuilder.Marker simpleInverseMarker = builder.mark();
         boolean isSimpleInverse;
 
         // try and parse "{{^"
-        PsiBuilder.Marker regularInverseMarker = builder.mark();
+        HbTreeBuilder.Marker regularInverseMarker = builder.mark();
         if (!parseLeafToken(builder, OPEN_INVERSE)
                 || !parseLeafToken(builder, CLOSE)) {
             regularInverseMarker.rollbackTo();
@@ -416,7 +559,7 @@ class HbParsing {
         }
 
         // if we didn't find "{{^", check for "{{else"
-        PsiBuilder.Marker elseInverseMarker = builder.mark();
+        HbTreeBuilder.Marker elseInverseMarker = builder.mark();
         if (!isSimpleInverse
                 && (!parseLeafToken(builder, OPEN)
                 || !parseLeafToken(builder, ELSE)
@@ -449,8 +592,8 @@ class HbParsing {
      * @param hasOpenTag is used to tell this method that the first ID in this 'stache is the open
      *                   tag of a block (this method stores it so that we can compare to the close tag later)
      */
-    private boolean parseInMustache(PsiBuilder builder, boolean hasOpenTag) {
-        PsiBuilder.Marker inMustacheMarker = builder.mark();
+    private boolean parseInMustache(HbTreeBuilder builder, boolean hasOpenTag) {
+        HbTreeBuilder.Marker inMustacheMarker = builder.mark();
 
         // HB_CUSTOMIZATION: we store open/close IDs to detect mismatches.  Note that if the current token is not
         // an id, we do nothing: the actual parser takes care of detecting the problem
@@ -458,7 +601,7 @@ class HbParsing {
             openTagNamesStack.push(builder.getTokenText());
         }
 
-        PsiBuilder.Marker pathMarker = builder.mark();
+        HbTreeBuilder.Marker pathMarker = builder.mark();
         if (!parsePath(builder)) {
             pathMarker.rollbackTo();
             // not a path, try to parse DATA
@@ -476,15 +619,15 @@ class HbParsing {
         }
 
         // try to extend the 'path' we found to 'path hash'
-        PsiBuilder.Marker hashMarker = builder.mark();
+        HbTreeBuilder.Marker hashMarker = builder.mark();
         if (parseHash(builder)) {
             hashMarker.drop();
         } else {
             // not a hash... try for 'path params', followed by an attempt at 'path params hash'
             hashMarker.rollbackTo();
-            PsiBuilder.Marker paramsMarker = builder.mark();
+            HbTreeBuilder.Marker paramsMarker = builder.mark();
             if (parseParams(builder)) {
-                PsiBuilder.Marker paramsHashMarker = builder.mark();
+                HbTreeBuilder.Marker paramsHashMarker = builder.mark();
                 int hashStartPos = builder.getCurrentOffset();
                 if (parseHash(builder)) {
                     paramsHashMarker.drop();
@@ -514,8 +657,8 @@ class HbParsing {
      * | param
      * ;
      */
-    private boolean parseParams(PsiBuilder builder) {
-        PsiBuilder.Marker paramsMarker = builder.mark();
+    private boolean parseParams(HbTreeBuilder builder) {
+        HbTreeBuilder.Marker paramsMarker = builder.mark();
 
         if (!parseParam(builder)) {
             paramsMarker.error(HbBundle.message("hb.parsing.expected.parameter"));
@@ -524,7 +667,8 @@ class HbParsing {
 
         // parse any additional params
         while (true) {
-            PsiBuilder.Marker optionalParamMarker = builder.mark();
+            builder.checkCanceled();
+            HbTreeBuilder.Marker optionalParamMarker = builder.mark();
             if (parseParam(builder)) {
                 optionalParamMarker.drop();
             } else {
@@ -546,10 +690,10 @@ class HbParsing {
      * | DATA
      * ;
      */
-    private boolean parseParam(PsiBuilder builder) {
-        PsiBuilder.Marker paramMarker = builder.mark();
+    private boolean parseParam(HbTreeBuilder builder) {
+        HbTreeBuilder.Marker paramMarker = builder.mark();
 
-        PsiBuilder.Marker pathMarker = builder.mark();
+        HbTreeBuilder.Marker pathMarker = builder.mark();
         if (parsePath(builder)) {
             pathMarker.drop();
             paramMarker.done(PARAM);
@@ -558,7 +702,7 @@ class HbParsing {
             pathMarker.rollbackTo();
         }
 
-        PsiBuilder.Marker stringMarker = builder.mark();
+        HbTreeBuilder.Marker stringMarker = builder.mark();
         if (parseLeafToken(builder, STRING)) {
             stringMarker.drop();
             paramMarker.done(PARAM);
@@ -567,7 +711,7 @@ class HbParsing {
             stringMarker.rollbackTo();
         }
 
-        PsiBuilder.Marker integerMarker = builder.mark();
+        HbTreeBuilder.Marker integerMarker = builder.mark();
         if (parseLeafToken(builder, INTEGER)) {
             integerMarker.drop();
             paramMarker.done(PARAM);
@@ -576,7 +720,7 @@ class HbParsing {
             integerMarker.rollbackTo();
         }
 
-        PsiBuilder.Marker booleanMarker = builder.mark();
+        HbTreeBuilder.Marker booleanMarker = builder.mark();
         if (parseLeafToken(builder, BOOLEAN)) {
             booleanMarker.drop();
             paramMarker.done(PARAM);
@@ -585,7 +729,7 @@ class HbParsing {
             booleanMarker.rollbackTo();
         }
 
-        PsiBuilder.Marker dataMarker = builder.mark();
+        HbTreeBuilder.Marker dataMarker = builder.mark();
         if (parseLeafToken(builder, DATA_PREFIX) && parseLeafToken(builder, DATA)) {
             dataMarker.drop();
             paramMarker.done(PARAM);
@@ -603,7 +747,7 @@ class HbParsing {
      * : hashSegments { $$ = new yy.HashNode($1); }
      * ;
      */
-    private boolean parseHash(PsiBuilder builder) {
+    private boolean parseHash(HbTreeBuilder builder) {
         return parseHashSegments(builder);
     }
 
@@ -613,8 +757,8 @@ class HbParsing {
      * | hashSegment { $$ = [$1]; }
      * ;
      */
-    private boolean parseHashSegments(PsiBuilder builder) {
-        PsiBuilder.Marker hashSegmentsMarker = builder.mark();
+    private boolean parseHashSegments(HbTreeBuilder builder) {
+        HbTreeBuilder.Marker hashSegmentsMarker = builder.mark();
 
         if (!parseHashSegment(builder)) {
             hashSegmentsMarker.error(HbBundle.message("hb.parsing.expected.hash"));
@@ -623,7 +767,8 @@ class HbParsing {
 
         // parse any additional hash segments
         while (true) {
-            PsiBuilder.Marker optionalHashMarker = builder.mark();
+            builder.checkCanceled();
+            HbTreeBuilder.Marker optionalHashMarker = builder.mark();
             int hashStartPos = builder.getCurrentOffset();
             if (parseHashSegment(builder)) {
                 optionalHashMarker.drop();
@@ -656,7 +801,7 @@ class HbParsing {
      * hashSegment
      * : ID EQUALS param
      */
-    private boolean parseHashSegment(PsiBuilder builder) {
+    private boolean parseHashSegment(HbTreeBuilder builder) {
         return parseLeafToken(builder, ID)
                 && parseLeafToken(builder, EQUALS)
                 && parseParam(builder);
@@ -668,7 +813,7 @@ class HbParsing {
      * : pathSegments { $$ = new yy.IdNode($1); }
      * ;
      */
-    private boolean parsePath(PsiBuilder builder) {
+    private boolean parsePath(HbTreeBuilder builder) {
         return parsePathSegments(builder);
     }
 
@@ -687,8 +832,8 @@ class HbParsing {
      * : <epsilon>
      * | SEP ID pathSegments'
      */
-    private boolean parsePathSegments(PsiBuilder builder) {
-        PsiBuilder.Marker pathSegmentsMarker = builder.mark();
+    private boolean parsePathSegments(HbTreeBuilder builder) {
+        HbTreeBuilder.Marker pathSegmentsMarker = builder.mark();
 
         /* HB_CUSTOMIZATION: see ishashNextLookAhead docs for details */
         if (isHashNextLookAhead(builder)) {
@@ -708,10 +853,10 @@ class HbParsing {
     }
 
     /**
-     * See {@link #parsePathSegments(com.intellij.lang.PsiBuilder)} for more info on this method
+     * See {@link #parsePathSegments(HbTreeBuilder)} for more info on this method
      */
-    private void parsePathSegmentsPrime(PsiBuilder builder) {
-        PsiBuilder.Marker pathSegmentsPrimeMarker = builder.mark();
+    private void parsePathSegmentsPrime(HbTreeBuilder builder) {
+        HbTreeBuilder.Marker pathSegmentsPrimeMarker = builder.mark();
 
         if (!parseLeafToken(builder, SEP)) {
             // the epsilon case
@@ -739,33 +884,58 @@ class HbParsing {
      *
      *  We check this in a couple of places to determine whether something should be parsed as
      *  a param, or left alone to grabbed by the hash parser later
+     *
+     *  This is answered by looking ahead at the upcoming tokens rather than by trying to parse a hashSegment
+     *  and rolling it back: that was called for every path segment, and speculatively parsed the param after
+     *  the "=" (which does a lookahead of its own), so long mustaches had their tokens parsed over and over.
      */
-    private boolean isHashNextLookAhead(PsiBuilder builder) {
-        PsiBuilder.Marker hashLookAheadMarker = builder.mark();
-        boolean isHashUpcoming = parseHashSegment(builder);
-        hashLookAheadMarker.rollbackTo();
-        return isHashUpcoming;
+    private boolean isHashNextLookAhead(HbTreeBuilder builder) {
+        // skip over a run of "ID EQUALS" pairs
+        int steps = 0;
+        while (builder.lookAhead(steps) == ID && builder.lookAhead(steps + 1) == EQUALS) {
+            steps += 2;
+        }
+
+        if (steps == 0) {
+            return false;
+        }
+
+        // see parseParam for these
+        IElementType afterPairs = builder.lookAhead(steps);
+        boolean isParamAfterPairs = afterPairs == ID
+                || afterPairs == STRING
+                || afterPairs == INTEGER
+                || afterPairs == BOOLEAN
+                || (afterPairs == DATA_PREFIX && builder.lookAhead(steps + 1) == DATA);
+
+        // "ID EQUALS param" is a hash segment, but an ID which is itself followed by EQUALS is not a param
+        // (it's the start of a hash segment), so working back from the last pair, the answer flips with each pair
+        boolean isOddNumberOfPairs = (steps / 2) % 2 == 1;
+        return isOddNumberOfPairs == isParamAfterPairs;
     }
 
     /**
      * Tries to parse the given token, marking an error if any other token is found
      */
-    private boolean parseLeafToken(PsiBuilder builder, IElementType leafTokenType) {
-        PsiBuilder.Marker leafTokenMark = builder.mark();
+    private boolean parseLeafToken(HbTreeBuilder builder, IElementType leafTokenType) {
         if (builder.getTokenType() == leafTokenType) {
+            // the token is left as a plain leaf: wrapping every token in an element of its own type
+            // would double the size of the tree without telling anyone anything the leaf doesn't
             builder.advanceLexer();
-            leafTokenMark.done(leafTokenType);
             return true;
-        } else if (builder.getTokenType() == INVALID) {
+        }
+
+        HbTreeBuilder.Marker unexpectedTokenMark = builder.mark();
+        if (builder.getTokenType() == INVALID) {
             while (!builder.eof() && builder.getTokenType() == INVALID) {
+                builder.checkCanceled();
                 builder.advanceLexer();
             }
-            recordLeafTokenError(INVALID, leafTokenMark);
-            return false;
+            recordLeafTokenError(INVALID, unexpectedTokenMark);
         } else {
-            recordLeafTokenError(leafTokenType, leafTokenMark);
-            return false;
+            recordLeafTokenError(leafTokenType, unexpectedTokenMark);
         }
+        return false;
     }
 
     /**
@@ -776,14 +946,15 @@ class HbParsing {
      * Will also stop if it encounters a {@link #RECOVERY_SET} token
      */
     @SuppressWarnings ("SameParameterValue") // though this method is only being used for CLOSE right now, it reads better this way
-    private void parseLeafTokenGreedy(PsiBuilder builder, IElementType expectedToken) {
+    private void parseLeafTokenGreedy(HbTreeBuilder builder, IElementType expectedToken) {
         // failed to parse expected token... chew up tokens marking this error until we encounter
         // a token which give the parser a good shot at resuming
         if (builder.getTokenType() != expectedToken) {
-            PsiBuilder.Marker unexpectedTokensMarker = builder.mark();
+            HbTreeBuilder.Marker unexpectedTokensMarker = builder.mark();
             while (!builder.eof()
                     && builder.getTokenType() != expectedToken
                     && !RECOVERY_SET.contains(builder.getTokenType())) {
+                builder.checkCanceled();
                 builder.advanceLexer();
             }
 
@@ -795,9 +966,11 @@ class HbParsing {
         }
     }
 
-    private void recordLeafTokenError(IElementType expectedToken, PsiBuilder.Marker unexpectedTokensMarker) {
+    private void recordLeafTokenError(IElementType expectedToken, HbTreeBuilder.Marker unexpectedTokensMarker) {
         if (expectedToken instanceof HbElementType) {
             unexpectedTokensMarker.error(((HbElementType) expectedToken).parseExpectedMessage());
+        } else if (expectedToken instanceof HbReparseableTokenType) {
+            unexpectedTokensMarker.error(((HbReparseableTokenType) expectedToken).parseExpectedMessage());
         } else {
             unexpectedTokensMarker.error(HbBundle.message("hb.parsing.element.expected.invalid"));
         }
@@ -809,14 +982,14 @@ class HbParsing {
      * An open inverse expression is either an OPEN_INVERSE token (i.e. "{{^"), or
      * and OPEN token followed immediate by an ELSE token (i.e. "{{else")
      */
-    private boolean atOpenInverseExpression(PsiBuilder builder) {
+    private boolean atOpenInverseExpression(HbTreeBuilder builder) {
         boolean atOpenInverse = false;
 
         if (builder.getTokenType() == OPEN_INVERSE) {
             atOpenInverse = true;
         }
 
-        PsiBuilder.Marker lookAheadMarker = builder.mark();
+        HbTreeBuilder.Marker lookAheadMarker = builder.mark();
         if (builder.getTokenType() == OPEN) {
             builder.advanceLexer();
             if (builder.getTokenType() == ELSE) {
@@ -827,4 +1000,35 @@ class HbParsing {
         lookAheadMarker.rollbackTo();
         return atOpenInverse;
     }
+
+    /**
+     * The markers for a block whose "open-type mustache" we've parsed (see {@link #parseBlockStart})
+     */
+    private static class OpenBlock {
+        final HbTreeBuilder.Marker blockMarker;
+        final HbTreeBuilder.Marker openMustacheMarker;
+        final HbTreeBuilder.Marker programMarker;
+
+        OpenBlock(HbTreeBuilder.Marker blockMarker, HbTreeBuilder.Marker openMustacheMarker, HbTreeBuilder.Marker programMarker) {
+            this.blockMarker = blockMarker;
+            this.openMustacheMarker = openMustacheMarker;
+            this.programMarker = programMarker;
+        }
+    }
+
+    /**
+     * A program in the middle of being parsed by {@link #parseProgramWithBlockStack}
+     */
+    private static class NestedProgram {
+        // the block this is the program of, or null for the top level program
+        final OpenBlock openBlock;
+
+        HbTreeBuilder.Marker statementsMarker;
+        boolean hasSimpleInverse;
+
+        NestedProgram(OpenBlock openBlock, HbTreeBuilder.Marker statementsMarker) {
+            this.openBlock = openBlock;
+            this.statementsMarker = statementsMarker;
+        }
+    }
 }
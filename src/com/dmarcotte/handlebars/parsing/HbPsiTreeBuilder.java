@@ -0,0 +1,89 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.intellij.lang.PsiBuilder;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.psi.tree.IElementType;
+
+/**
+ * {@link HbTreeBuilder} for the plugin: everything is handed on to the IDE's {@link PsiBuilder}
+ */
+class HbPsiTreeBuilder implements HbTreeBuilder {
+    private final PsiBuilder _builder;
+
+    public HbPsiTreeBuilder(PsiBuilder builder) {
+        _builder = builder;
+    }
+
+    @Override
+    public IElementType getTokenType() {
+        return _builder.getTokenType();
+    }
+
+    @Override
+    public String getTokenText() {
+        return _builder.getTokenText();
+    }
+
+    @Override
+    public int getCurrentOffset() {
+        return _builder.getCurrentOffset();
+    }
+
+    @Override
+    public IElementType lookAhead(int steps) {
+        return _builder.lookAhead(steps);
+    }
+
+    @Override
+    public void advanceLexer() {
+        _builder.advanceLexer();
+    }
+
+    @Override
+    public boolean eof() {
+        return _builder.eof();
+    }
+
+    @Override
+    public Marker mark() {
+        return new PsiMarker(_builder.mark());
+    }
+
+    @Override
+    public void checkCanceled() {
+        ProgressManager.checkCanceled();
+    }
+
+    private static class PsiMarker implements Marker {
+        private final PsiBuilder.Marker _marker;
+
+        PsiMarker(PsiBuilder.Marker marker) {
+            _marker = marker;
+        }
+
+        @Override
+        public void drop() {
+            _marker.drop();
+        }
+
+        @Override
+        public void rollbackTo() {
+            _marker.rollbackTo();
+        }
+
+        @Override
+        public void done(IElementType type) {
+            _marker.done(type);
+        }
+
+        @Override
+        public void error(String message) {
+            _marker.error(message);
+        }
+
+        @Override
+        public void errorBefore(String message, Marker before) {
+            _marker.errorBefore(message, ((PsiMarker) before)._marker);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.HbLanguage;
+import com.intellij.lang.ASTFactory;
+import com.intellij.lang.ASTNode;
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.IReparseableElementType;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Element type for the tokens which can be reparsed on their own ({@link HbTokenTypes#COMMENT} and
+ * {@link HbTokenTypes#STRING}), so that typing inside one of them re-lexes just that token rather than reparsing
+ * the enclosing block (or the whole file).
+ * <p>
+ * The lexer and parser treat these as ordinary tokens, but the PSI builder makes a lazy element out of each of them,
+ * holding a single leaf of {@link #getLeafType()}.  The parser never looks at the text of these tokens, so when the
+ * edited text still lexes as exactly one token of this type, with the same boundaries it would get in the context of
+ * the file, nothing else in the tree can have changed.
+ * <p>
+ * That wrapper costs an extra node per token, which is why CONTENT, by far our most common token, is left as a plain
+ * leaf (edits to it are reparsed with the enclosing block, see {@link HbBlockWrapperElementType}).  Comments and
+ * strings are few enough that the extra nodes don't count for much.  Note that {@link PsiFile#findElementAt} finds
+ * the leaf, so code looking for comments and strings there should check {@link HbTokenTypes#COMMENTS} and
+ * {@link HbTokenTypes#STRING_LITERALS} rather than comparing with COMMENT and STRING.
+ */
+class HbReparseableTokenType extends IReparseableElementType {
+    private final HbElementType _leafType;
+    private final int _lexerState;
+
+    /**
+     * @param parseExpectedMessageKey see {@link HbElementType#HbElementType}
+     * @param lexerState the (packed) state {@link HbLexer} is in at the start of a token of this type
+     */
+    public HbReparseableTokenType(@NotNull @NonNls String debugName, @NotNull @NonNls String parseExpectedMessageKey, int lexerState) {
+        super(debugName, HbLanguage.INSTANCE);
+        // the leaf gets the same name as its token so that it reads the same in the PSI
+        _leafType = new HbElementType(debugName, parseExpectedMessageKey);
+        _lexerState = lexerState;
+    }
+
+    @Override
+    public String toString() {
+        return "[Hb] " + super.toString();
+    }
+
+    /**
+     * @see HbElementType#parseExpectedMessage()
+     */
+    public String parseExpectedMessage() {
+        return _leafType.parseExpectedMessage();
+    }
+
+    /**
+     * @return the type of the leaf inside elements of this type
+     */
+    public IElementType getLeafType() {
+        return _leafType;
+    }
+
+    @Override
+    protected ASTNode doParseContents(@NotNull ASTNode chameleon, @NotNull PsiElement psi) {
+        return ASTFactory.leaf(_leafType, chameleon.getChars());
+    }
+
+    @Override
+    public boolean isParsable(CharSequence buffer, Project project) {
+        if (buffer.length() == 0) {
+            return false;
+        }
+
+        Lexer lexer = new HbLexer();
+        lexer.start(buffer, 0, buffer.length(), _lexerState);
+        if (lexer.getTokenType() != this || lexer.getTokenEnd() != buffer.length()) {
+            return false;
+        }
+
+        lexer.advance();
+        // the lexer must come out of the token in the state it would have been in before the edit
+        return lexer.getTokenType() == null && lexer.getState() == _lexerState;
+    }
+}
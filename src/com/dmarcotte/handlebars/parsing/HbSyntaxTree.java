@@ -0,0 +1,215 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.intellij.psi.TokenType;
+import com.intellij.psi.tree.IElementType;
+
+import java.util.Arrays;
+
+/**
+ * A Handlebars syntax tree built without the IDE, for tools which want our grammar (and our error messages)
+ * outside it, e.g. to validate templates in a build.  Parse with {@link #parse(CharSequence)}.
+ * <p>
+ * The tree holds the same elements the plugin's PSI would (STATEMENTS, MUSTACHE, BLOCK_WRAPPER, errors etc.)
+ * and the tokens under them, but it's all in a handful of arrays: nodes and tokens are ints, and there are no
+ * objects per node.
+ * <ul>
+ *     <li>Nodes are numbered in document order, starting with the root (node 0) which covers all the text.
+ *     A node's descendants follow it directly, so its first child (if any) is the next node.</li>
+ *     <li>Tokens are numbered in document order too, and include the white space and comments which the nodes'
+ *     edges skip over.</li>
+ * </ul>
+ * Note that "without the IDE" doesn't mean without the platform's classes: the tree's element types are the ones
+ * in {@link HbTokenTypes}, and loading those loads the plugin's PSI element types with them (stub element types,
+ * lazily reparsed token types, the file element type).  Tools need the platform's PSI and stub API classes on the
+ * classpath as well as its util classes.
+ */
+public final class HbSyntaxTree {
+    private final CharSequence _text;
+
+    private final IElementType[] _tokenTypes;
+    private final int[] _tokenStarts;
+    private final int _tokenCount;
+
+    private final Nodes _nodes;
+
+    HbSyntaxTree(CharSequence text, IElementType[] tokenTypes, int[] tokenStarts, int tokenCount, Nodes nodes) {
+        _text = text;
+        _tokenTypes = tokenTypes;
+        _tokenStarts = tokenStarts;
+        _tokenCount = tokenCount;
+        _nodes = nodes;
+    }
+
+    /**
+     * Parses the given template
+     */
+    public static HbSyntaxTree parse(CharSequence text) {
+        HbArrayTreeBuilder builder = new HbArrayTreeBuilder(text);
+        new HbParsing(builder).parse();
+        return builder.buildTree(HbTokenTypes.FILE);
+    }
+
+    public CharSequence getText() {
+        return _text;
+    }
+
+    public int getNodeCount() {
+        return _nodes._count;
+    }
+
+    public IElementType getNodeType(int node) {
+        return _nodes._types[node];
+    }
+
+    public int getStartOffset(int node) {
+        return _nodes._starts[node];
+    }
+
+    public int getEndOffset(int node) {
+        return _nodes._ends[node];
+    }
+
+    public CharSequence getNodeText(int node) {
+        return _text.subSequence(getStartOffset(node), getEndOffset(node));
+    }
+
+    /**
+     * @return the parent of the given node, or -1 for the root
+     */
+    public int getParent(int node) {
+        return _nodes._parents[node];
+    }
+
+    /**
+     * @return the first child of the given node, or -1 if it has none
+     */
+    public int getFirstChild(int node) {
+        int next = node + 1;
+        return next < _nodes._count && _nodes._parents[next] == node ? next : -1;
+    }
+
+    /**
+     * @return the node after the given one with the same parent, or -1 if there isn't one
+     */
+    public int getNextSibling(int node) {
+        int next = _nodes._subtreeEnds[node];
+        return next < _nodes._count && _nodes._parents[next] == _nodes._parents[node] ? next : -1;
+    }
+
+    /**
+     * @return true if the given node is an error the parser found (in which case it has a {@link #getErrorMessage})
+     */
+    public boolean isError(int node) {
+        return _nodes._types[node] == TokenType.ERROR_ELEMENT;
+    }
+
+    /**
+     * @return the message for the given error node, or null if the node is not an error
+     */
+    public String getErrorMessage(int node) {
+        int errorIndex = Arrays.binarySearch(_nodes._errorNodes, 0, _nodes._errorCount, node);
+        return errorIndex >= 0 ? _nodes._errorMessages[errorIndex] : null;
+    }
+
+    /**
+     * @return the number of errors in the tree
+     */
+    public int getErrorCount() {
+        return _nodes._errorCount;
+    }
+
+    /**
+     * @return the node of the index'th error in the tree (in document order)
+     */
+    public int getErrorNode(int index) {
+        return _nodes._errorNodes[index];
+    }
+
+    public int getTokenCount() {
+        return _tokenCount;
+    }
+
+    public IElementType getTokenType(int token) {
+        return _tokenTypes[token];
+    }
+
+    public int getTokenStart(int token) {
+        return _tokenStarts[token];
+    }
+
+    public int getTokenEnd(int token) {
+        return _tokenStarts[token + 1];
+    }
+
+    /**
+     * @return the index of the token containing the given offset
+     */
+    public int findTokenAt(int offset) {
+        int token = Arrays.binarySearch(_tokenStarts, 0, _tokenCount, offset);
+        return token >= 0 ? token : -token - 2;
+    }
+
+    /**
+     * The nodes of an {@link HbSyntaxTree}, as {@link HbArrayTreeBuilder} adds them in document order
+     */
+    static class Nodes {
+        private IElementType[] _types;
+        private int[] _starts;
+        private int[] _ends;
+        private int[] _parents;
+        // index of the first node after each node's descendants
+        private int[] _subtreeEnds;
+        private int _count;
+
+        // errors are rare, so rather than a message slot for every node, we keep a list of the error nodes
+        private int[] _errorNodes = new int[4];
+        private String[] _errorMessages = new String[4];
+        private int _errorCount;
+
+        Nodes(int expectedCount) {
+            _types = new IElementType[expectedCount];
+            _starts = new int[expectedCount];
+            _ends = new int[expectedCount];
+            _parents = new int[expectedCount];
+            _subtreeEnds = new int[expectedCount];
+        }
+
+        /**
+         * Adds a node after all the others, which must have been added in document order
+         *
+         * @return the new node
+         */
+        int add(IElementType type, int start, int end, int parent) {
+            if (_count == _types.length) {
+                int newLength = _count * 2 + 1;
+                _types = Arrays.copyOf(_types, newLength);
+                _starts = Arrays.copyOf(_starts, newLength);
+                _ends = Arrays.copyOf(_ends, newLength);
+                _parents = Arrays.copyOf(_parents, newLength);
+                _subtreeEnds = Arrays.copyOf(_subtreeEnds, newLength);
+            }
+            _types[_count] = type;
+            _starts[_count] = start;
+            _ends[_count] = end;
+            _parents[_count] = parent;
+            return _count++;
+        }
+
+        /**
+         * Records that all of the given node's descendants have been added
+         */
+        void close(int node) {
+            _subtreeEnds[node] = _count;
+        }
+
+        void addError(int node, String message) {
+            if (_errorCount == _errorNodes.length) {
+                _errorNodes = Arrays.copyOf(_errorNodes, _errorCount * 2);
+                _errorMessages = Arrays.copyOf(_errorMessages, _errorCount * 2);
+            }
+            _errorNodes[_errorCount] = node;
+            _errorMessages[_errorCount] = message;
+            _errorCount++;
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.dmarcotte.handlebars.parsing;
 
-import com.dmarcotte.handlebars.HbLanguage;
 import com.intellij.psi.tree.IElementType;
 import com.intellij.psi.tree.IFileElementType;
 import com.intellij.psi.tree.TokenSet;
@@ -12,21 +11,23 @@ public class HbTokenTypes {
      */
     private HbTokenTypes() {}
 
-    public static final IElementType BLOCK_WRAPPER = new HbCompositeElementType("BLOCK_WRAPPER"); // used to delineate blocks in the PSI tree. The formatter requires this extra structure.
-    public static final IElementType OPEN_BLOCK_STACHE = new HbCompositeElementType("OPEN_BLOCK_STACHE");
-    public static final IElementType OPEN_INVERSE_BLOCK_STACHE = new HbCompositeElementType("OPEN_INVERSE_BLOCK_STACHE");
+    public static final IElementType BLOCK_WRAPPER = new HbBlockWrapperElementType("BLOCK_WRAPPER"); // used to delineate blocks in the PSI tree. The formatter requires this extra structure.
+    // the mustaches other templates care about have stubs.  See HbMustacheStubElementType
+    public static final IElementType OPEN_BLOCK_STACHE = new HbMustacheStubElementType("OPEN_BLOCK_STACHE");
+    public static final IElementType OPEN_INVERSE_BLOCK_STACHE = new HbMustacheStubElementType("OPEN_INVERSE_BLOCK_STACHE");
     public static final IElementType CLOSE_BLOCK_STACHE = new HbCompositeElementType("CLOSE_BLOCK_STACHE");
-    public static final IElementType MUSTACHE = new HbCompositeElementType("MUSTACHE");
+    public static final IElementType MUSTACHE = new HbMustacheStubElementType("MUSTACHE");
     public static final IElementType PARAM = new HbCompositeElementType("PARAM");
-    public static final IElementType PARTIAL_STACHE = new HbCompositeElementType("PARTIAL_STACHE");
+    public static final IElementType PARTIAL_STACHE = new HbMustacheStubElementType("PARTIAL_STACHE");
     public static final IElementType SIMPLE_INVERSE = new HbCompositeElementType("SIMPLE_INVERSE");
     public static final IElementType STATEMENTS = new HbCompositeElementType("STATEMENTS");
 
+    // COMMENT and STRING can be reparsed on their own.  See HbReparseableTokenType
     public static final IElementType CONTENT = new HbElementType("CONTENT", "hb.parsing.element.expected.content");
     public static final IElementType OUTER_ELEMENT_TYPE = new HbElementType("HB_FRAGMENT", "hb.parsing.element.expected.outer_element_type");
 
     public static final IElementType WHITE_SPACE = new HbElementType("WHITE_SPACE", "hb.parsing.element.expected.white_space");
-    public static final IElementType COMMENT = new HbElementType("COMMENT", "hb.parsing.element.expected.comment");
+    public static final IElementType COMMENT = new HbReparseableTokenType("COMMENT", "hb.parsing.element.expected.comment", _HbLexer.YYINITIAL);
     public static final IElementType UNCLOSED_COMMENT = new HbElementType("UNCLOSED_COMMENT", "");
 
     public static final IElementType OPEN = new HbElementType("OPEN", "hb.parsing.element.expected.open");
@@ -45,13 +46,14 @@ public class HbTokenTypes {
     public static final IElementType ELSE = new HbElementType("ELSE", "");
     public static final IElementType BOOLEAN = new HbElementType("BOOLEAN", "hb.parsing.element.expected.boolean");
     public static final IElementType INTEGER = new HbElementType("INTEGER", "hb.parsing.element.expected.integer");
-    public static final IElementType STRING = new HbElementType("STRING", "hb.parsing.element.expected.string");
+    public static final IElementType STRING = new HbReparseableTokenType("STRING", "hb.parsing.element.expected.string", _HbLexer.PACKED_MUSTACHE_STATE);
     public static final IElementType ESCAPE_CHAR = new HbElementType("ESCAPE_CHAR", "");
     public static final IElementType INVALID = new HbElementType("INVALID", "hb.parsing.element.expected.invalid");
 
-    public static final IFileElementType FILE = new IFileElementType("FILE", HbLanguage.INSTANCE);
+    public static final IFileElementType FILE = new HbFileElementType();
 
     public static final TokenSet WHITESPACES = TokenSet.create(WHITE_SPACE);
-    public static final TokenSet COMMENTS = TokenSet.create(COMMENT);
-    public static final TokenSet STRING_LITERALS = TokenSet.create(STRING);
+    // include the leaves inside our reparseable tokens, so that they're still comments and strings to the platform
+    public static final TokenSet COMMENTS = TokenSet.create(COMMENT, ((HbReparseableTokenType) COMMENT).getLeafType());
+    public static final TokenSet STRING_LITERALS = TokenSet.create(STRING, ((HbReparseableTokenType) STRING).getLeafType());
 }
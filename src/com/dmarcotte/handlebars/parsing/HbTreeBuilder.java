@@ -0,0 +1,81 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.intellij.psi.tree.IElementType;
+
+/**
+ * The subset of {@link com.intellij.lang.PsiBuilder} which {@link HbParsing} drives, so that our grammar can build
+ * trees other than the IDE's.
+ * <p>
+ * The plugin parses through {@link HbPsiTreeBuilder}, which hands everything on to a real PsiBuilder.  Tools
+ * running outside the IDE can use {@link HbSyntaxTree#parse(CharSequence)}, which builds a compact array-backed
+ * tree with no PsiBuilder (or IDE) behind it.
+ * <p>
+ * Implementations must behave as PsiBuilder does: white space and comment tokens are skipped over
+ * by {@link #getTokenType()}, {@link #advanceLexer()} and {@link #lookAhead(int)}, and are left out of the edges
+ * of any marker completed with {@link Marker#done} or {@link Marker#error}.
+ */
+public interface HbTreeBuilder {
+
+    /**
+     * @return the current token, or null at the end of the text
+     */
+    IElementType getTokenType();
+
+    /**
+     * @return the text of the current token, or null at the end of the text
+     */
+    String getTokenText();
+
+    /**
+     * @return the offset of the current token in the text
+     */
+    int getCurrentOffset();
+
+    /**
+     * @return the token the given number of (non white space, non comment) tokens past the current one,
+     *         or null if that's past the end of the text
+     */
+    IElementType lookAhead(int steps);
+
+    void advanceLexer();
+
+    boolean eof();
+
+    /**
+     * @return a marker at the current token
+     */
+    Marker mark();
+
+    /**
+     * Throws {@link com.intellij.openapi.progress.ProcessCanceledException} if whoever's waiting on the parse
+     * doesn't want it anymore.  Called from each of the parser's loops.
+     */
+    void checkCanceled();
+
+    interface Marker {
+        /**
+         * Forgets this marker, keeping everything parsed since it was made
+         */
+        void drop();
+
+        /**
+         * Goes back to this marker's token, forgetting everything parsed since this marker was made
+         */
+        void rollbackTo();
+
+        /**
+         * Makes the tokens since this marker into an element of the given type
+         */
+        void done(IElementType type);
+
+        /**
+         * Makes the tokens since this marker into an error element with the given message
+         */
+        void error(String message);
+
+        /**
+         * Makes the tokens from this marker to the given (later) one into an error element with the given message
+         */
+        void errorBefore(String message, Marker before);
+    }
+}
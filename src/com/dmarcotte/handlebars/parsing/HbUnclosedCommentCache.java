@@ -0,0 +1,105 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.intellij.openapi.editor.event.DocumentEvent;
+
+/**
+ * Remembers the unclosed comment (if any) in a document being lexed over and over by the editor highlighter,
+ * so that each re-lex doesn't have to scan the rest of the file again to find out the comment has no close.
+ * <p>
+ * Knowing where the unclosed comment starts also lets {@link HbLexer} report the lines of the comment as
+ * initial-state tokens: the highlighter restarts and resyncs only at those, and without them every edit inside
+ * the comment would re-lex it through to the end of the file.
+ * <p>
+ * The owner must pass along every change to the document with {@link #documentChanged}.
+ */
+public class HbUnclosedCommentCache {
+
+    private int myCommentStart = -1;
+    private int myBodyStart;
+    private String myTerminator;
+    private int myTextLength;
+
+    /**
+     * @return true if the comment opened at commentStart is known to have no terminator in a text of the given length
+     */
+    boolean isUnclosed(int commentStart, String terminator, int textLength) {
+        return myCommentStart == commentStart && myTerminator.equals(terminator) && myTextLength == textLength;
+    }
+
+    /**
+     * @return true if offset is past the start of the known unclosed comment, which runs to the end of the text
+     */
+    boolean isInUnclosedComment(int offset, int textLength) {
+        return myCommentStart != -1 && offset > myCommentStart && myTextLength == textLength;
+    }
+
+    /**
+     * @return true if the given token range covers the start of the known unclosed comment
+     */
+    boolean coversCommentStart(int tokenStart, int tokenEnd) {
+        return myCommentStart != -1 && tokenStart <= myCommentStart && myCommentStart < tokenEnd;
+    }
+
+    void recordUnclosed(int commentStart, int bodyStart, String terminator, int textLength) {
+        myCommentStart = commentStart;
+        myBodyStart = bodyStart;
+        myTerminator = terminator;
+        myTextLength = textLength;
+    }
+
+    public void clear() {
+        myCommentStart = -1;
+        myTerminator = null;
+    }
+
+    /**
+     * Brings the cache up to date with a change to the document
+     *
+     * @return true if the change may have closed (or otherwise changed the extent of) the known unclosed comment,
+     *         in which case the tokens lexed for it are stale and the text should be lexed again from scratch
+     */
+    public boolean documentChanged(DocumentEvent event) {
+        if (myCommentStart == -1) {
+            return false;
+        }
+
+        int changeStart = event.getOffset();
+        int lengthDelta = event.getNewLength() - event.getOldLength();
+        if (changeStart + event.getOldLength() <= myCommentStart) {
+            // the change is wholly before the comment: it just moves along
+            myCommentStart += lengthDelta;
+            myBodyStart += lengthDelta;
+            myTextLength += lengthDelta;
+            return false;
+        }
+
+        if (changeStart < myBodyStart) {
+            // the comment opener itself was changed
+            clear();
+            return true;
+        }
+
+        // the rest of the body is as it was, so a terminator can only have turned up overlapping the changed text
+        CharSequence text = event.getDocument().getCharsSequence();
+        int searchStart = Math.max(myBodyStart, changeStart - myTerminator.length() + 1);
+        int searchEnd = Math.min(changeStart + event.getNewLength(), text.length() - myTerminator.length() + 1);
+        for (int i = searchStart; i < searchEnd; i++) {
+            if (startsWith(text, i, myTerminator)) {
+                clear();
+                return true;
+            }
+        }
+
+        myTextLength += lengthDelta;
+        return false;
+    }
+
+    private static boolean startsWith(CharSequence text, int offset, String prefix) {
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(offset + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,4 +1,4 @@
-/* The following code was generated by JFlex 1.4.3 on 2/27/13 7:06 AM */
+/* The following code was generated by JFlex 1.4.3 on 10/15/26, 3:08 AM */
 
 // We base our lexer directly on the official handlebars.l lexer definition,
 // making some modifications to account for Jison/JFlex syntax and functionality differences
@@ -9,7 +9,9 @@ package com.dmarcotte.handlebars.parsing;
 
 import com.intellij.lexer.FlexLexer;
 import com.intellij.psi.tree.IElementType;
-import com.intellij.util.containers.Stack;
+import com.dmarcotte.handlebars.exception.ShouldNotHappenException;
+import com.dmarcotte.handlebars.parsing.HbTokenTypes;
+import com.dmarcotte.handlebars.config.HbConfig;
 
 // suppress various warnings/inspections for the generated class
 @SuppressWarnings ({"FieldCanBeLocal", "UnusedDeclaration", "UnusedAssignment", "AccessStaticViaInstance", "MismatchedReadAndWriteOfArray", "WeakerAccess", "SameParameterValue", "CanBeFinal", "SameReturnValue", "RedundantThrows", "ConstantConditions"})
@@ -17,7 +19,7 @@ import com.intellij.util.containers.Stack;
 /**
  * This class is a scanner generated by 
  * <a href="http://www.jflex.de/">JFlex</a> 1.4.3
- * on 2/27/13 7:06 AM from the specification file
+ * on 10/15/26, 3:08 AM from the specification file
  * <tt>handlebars.flex</tt>
  */
 final class _HbLexer implements FlexLexer {
@@ -26,6 +28,7 @@ final class _HbLexer implements FlexLexer {
 
   /** lexical states */
   public static final int mu = 2;
+  public static final int unclosed_comment = 12;
   public static final int emu = 4;
   public static final int YYINITIAL = 0;
   public static final int par = 6;
@@ -39,7 +42,7 @@ final class _HbLexer implements FlexLexer {
    * l is of the form l = 2*k, k a non negative integer
    */
   private static final int ZZ_LEXSTATE[] = { 
-     0,  0,  1,  1,  2,  2,  3,  3,  4,  4,  5, 5
+     0,  0,  1,  1,  2,  2,  3,  3,  4,  4,  5,  5,  6, 6
   };
 
   /** 
@@ -48,9 +51,9 @@ final class _HbLexer implements FlexLexer {
   private static final String ZZ_CMAP_PACKED = 
     "\11\0\1\1\1\2\1\16\1\1\1\1\22\0\1\1\1\12\1\17"+
     "\1\6\1\34\1\37\1\11\1\20\5\37\1\32\1\14\1\7\12\33"+
-    "\3\0\1\13\1\5\1\0\1\21\32\40\1\35\1\4\1\36\1\10"+
+    "\3\0\1\13\1\5\1\0\1\21\32\40\1\35\1\3\1\36\1\10"+
     "\1\34\1\0\1\31\3\40\1\22\1\30\5\40\1\23\5\40\1\26"+
-    "\1\24\1\25\1\27\5\40\1\3\1\0\1\15\uff82\0";
+    "\1\24\1\25\1\27\5\40\1\4\1\0\1\15\uff82\0";
 
   /** 
    * Translates characters to character classes
@@ -63,17 +66,16 @@ final class _HbLexer implements FlexLexer {
   private static final int [] ZZ_ACTION = zzUnpackAction();
 
   private static final String ZZ_ACTION_PACKED_0 =
-    "\1\1\1\2\4\0\1\1\1\3\1\2\1\3\1\4"+
-    "\1\5\1\4\3\3\1\6\7\3\1\2\1\3\1\7"+
+    "\1\0\1\1\5\0\1\2\1\3\1\1\1\3\1\4"+
+    "\1\5\1\4\3\3\1\6\7\3\1\1\1\7\1\3"+
     "\1\10\2\3\1\11\1\12\1\13\1\14\1\15\1\16"+
     "\2\0\1\17\2\0\1\20\5\0\1\21\1\0\1\22"+
-    "\1\0\1\23\1\12\1\24\1\25\1\26\1\27\1\30"+
-    "\1\31\1\16\3\0\1\22\4\0\1\32\1\33\1\0"+
-    "\1\34\1\35\1\0\1\32\2\33\1\36\1\37\1\33"+
-    "\1\37\2\33\1\40";
+    "\1\0\1\23\1\24\1\25\1\26\1\27\1\30\1\31"+
+    "\1\16\3\0\1\22\4\0\1\32\1\33\1\0\1\34"+
+    "\1\35\1\0\1\32\1\36\1\37";
 
   private static int [] zzUnpackAction() {
-    int [] result = new int[84];
+    int [] result = new int[77];
     int offset = 0;
     offset = zzUnpackAction(ZZ_ACTION_PACKED_0, offset, result);
     return result;
@@ -99,19 +101,18 @@ final class _HbLexer implements FlexLexer {
 
   private static final String ZZ_ROWMAP_PACKED_0 =
     "\0\0\0\41\0\102\0\143\0\204\0\245\0\306\0\347"+
-    "\0\u0108\0\u0129\0\347\0\347\0\u014a\0\u016b\0\u018c\0\u01ad"+
-    "\0\347\0\u01ce\0\u01ef\0\u0210\0\u0231\0\u0252\0\u0273\0\u0294"+
-    "\0\u02b5\0\u02d6\0\347\0\u02f7\0\u0318\0\u0339\0\u035a\0\u037b"+
-    "\0\u039c\0\347\0\347\0\u03bd\0\u018c\0\u03de\0\347\0\u01ad"+
-    "\0\u03ff\0\347\0\u01ef\0\u0420\0\u0441\0\u0462\0\u0273\0\347"+
-    "\0\u0294\0\u0483\0\u04a4\0\347\0\347\0\347\0\347\0\347"+
-    "\0\347\0\347\0\347\0\347\0\u04c5\0\u04e6\0\u0507\0\u0528"+
-    "\0\u0549\0\u056a\0\u058b\0\u05ac\0\u05cd\0\u05ee\0\u060f\0\347"+
-    "\0\347\0\u0630\0\347\0\u0651\0\u0672\0\347\0\u0693\0\u06b4"+
-    "\0\347\0\u06d5\0\u06f6\0\347";
+    "\0\347\0\u0108\0\u0129\0\347\0\347\0\u014a\0\u016b\0\u018c"+
+    "\0\u01ad\0\347\0\u01ce\0\u01ef\0\u0210\0\u0231\0\u0252\0\u0273"+
+    "\0\u0294\0\u02b5\0\347\0\u02d6\0\u02f7\0\u0318\0\u0339\0\u035a"+
+    "\0\347\0\u037b\0\347\0\347\0\u039c\0\u018c\0\u03bd\0\347"+
+    "\0\u01ad\0\u03de\0\347\0\u01ef\0\u03ff\0\u0420\0\u0441\0\u0273"+
+    "\0\347\0\u0294\0\u0462\0\u0483\0\347\0\347\0\347\0\347"+
+    "\0\347\0\347\0\347\0\347\0\u04a4\0\u04c5\0\u04e6\0\u0507"+
+    "\0\u0528\0\u0549\0\u056a\0\u058b\0\u05ac\0\347\0\u05cd\0\347"+
+    "\0\347\0\u05ee\0\347\0\347\0\347";
 
   private static int [] zzUnpackRowMap() {
-    int [] result = new int[84];
+    int [] result = new int[77];
     int offset = 0;
     offset = zzUnpackRowMap(ZZ_ROWMAP_PACKED_0, offset, result);
     return result;
@@ -134,54 +135,50 @@ final class _HbLexer implements FlexLexer {
   private static final int [] ZZ_TRANS = zzUnpackTrans();
 
   private static final String ZZ_TRANS_PACKED_0 =
-    "\3\1\1\7\35\1\1\10\2\11\1\12\3\10\1\13"+
-    "\3\10\1\14\1\15\1\16\1\11\1\17\1\20\1\21"+
-    "\1\22\2\23\1\24\2\23\1\25\1\23\1\26\1\27"+
-    "\1\23\1\30\2\10\1\23\1\10\2\31\1\32\1\33"+
-    "\35\10\2\31\4\10\1\34\1\10\1\34\2\10\1\34"+
-    "\3\10\1\34\1\10\13\34\2\10\2\34\1\10\2\31"+
-    "\1\35\36\10\2\31\12\10\1\36\4\10\10\37\6\10"+
-    "\1\37\3\1\1\40\35\1\42\0\2\11\13\0\1\11"+
-    "\25\0\1\41\36\0\2\42\11\0\1\43\2\42\37\0"+
-    "\1\44\23\0\4\45\1\46\12\45\1\47\21\45\4\50"+
-    "\1\51\13\50\1\47\20\50\1\0\2\52\4\0\1\52"+
-    "\3\0\4\52\3\0\1\53\1\54\11\53\3\0\1\53"+
-    "\1\0\2\52\4\0\1\52\3\0\4\52\3\0\13\53"+
-    "\3\0\1\53\1\0\2\52\4\0\1\52\3\0\4\52"+
-    "\3\0\4\53\1\55\6\53\3\0\1\53\1\0\2\52"+
-    "\4\0\1\52\3\0\4\52\3\0\7\53\1\56\3\53"+
-    "\3\0\1\53\1\0\2\52\4\0\1\52\3\0\4\52"+
-    "\3\0\11\53\1\57\1\53\3\0\1\53\1\0\2\60"+
-    "\4\0\1\52\3\0\2\52\2\60\3\0\11\53\1\57"+
-    "\1\53\3\0\1\53\36\61\1\43\2\61\1\0\2\31"+
-    "\41\0\1\62\44\0\1\34\1\0\1\34\2\0\1\34"+
-    "\3\0\1\34\1\0\13\34\2\0\2\34\3\0\1\63"+
-    "\52\0\1\64\45\0\10\37\6\0\1\37\3\0\1\65"+
-    "\40\0\1\66\1\0\1\67\1\70\1\71\1\72\1\66"+
-    "\1\73\43\0\1\74\23\0\2\45\1\0\36\45\2\50"+
-    "\1\0\36\50\1\0\2\52\4\0\1\52\3\0\4\52"+
-    "\3\0\2\53\1\75\10\53\3\0\1\53\1\0\2\52"+
-    "\4\0\1\52\3\0\4\52\3\0\5\53\1\76\5\53"+
-    "\3\0\1\53\1\0\2\52\4\0\1\52\3\0\4\52"+
-    "\3\0\1\53\1\77\11\53\3\0\1\53\3\62\1\100"+
-    "\35\62\12\0\1\101\27\0\2\52\4\0\1\52\3\0"+
-    "\4\52\3\0\1\102\12\53\3\0\1\53\1\0\2\52"+
-    "\4\0\1\52\3\0\4\52\3\0\1\103\12\53\3\0"+
-    "\1\53\1\0\2\52\4\0\1\52\3\0\4\52\3\0"+
-    "\2\53\1\104\10\53\3\0\1\53\3\62\1\105\35\62"+
-    "\32\106\1\107\6\106\1\0\2\110\4\0\1\52\3\0"+
-    "\2\52\2\110\3\0\13\53\3\0\1\53\1\0\2\111"+
-    "\4\0\1\52\3\0\2\52\2\111\3\0\13\53\3\0"+
-    "\1\53\1\0\2\52\4\0\1\52\3\0\4\52\3\0"+
-    "\1\112\12\53\3\0\1\53\3\0\1\113\35\0\15\106"+
-    "\1\114\23\106\32\0\1\115\7\0\2\116\4\0\1\52"+
-    "\3\0\2\52\2\116\3\0\13\53\3\0\1\53\15\106"+
-    "\1\117\23\106\32\115\1\120\6\115\15\0\1\121\23\0"+
-    "\32\115\1\122\23\115\1\123\14\115\1\122\23\115\1\124"+
-    "\14\115\1\120\6\115";
+    "\41\10\1\11\2\12\1\11\1\13\2\11\1\14\3\11"+
+    "\1\15\1\16\1\17\1\12\1\20\1\21\1\22\1\23"+
+    "\2\24\1\25\2\24\1\26\1\24\1\27\1\30\1\24"+
+    "\1\31\2\11\1\24\1\11\2\32\1\33\1\34\35\11"+
+    "\2\32\4\11\1\35\1\11\1\35\2\11\1\35\3\11"+
+    "\1\35\1\11\13\35\2\11\2\35\1\11\2\32\1\11"+
+    "\1\36\35\11\2\32\12\11\1\37\4\11\10\40\6\11"+
+    "\1\40\41\41\42\0\2\12\13\0\1\12\26\0\1\42"+
+    "\35\0\2\43\11\0\1\44\2\43\37\0\1\45\23\0"+
+    "\3\46\1\47\13\46\1\50\21\46\3\51\1\52\14\51"+
+    "\1\50\20\51\1\0\2\53\4\0\1\53\3\0\4\53"+
+    "\3\0\1\54\1\55\11\54\3\0\1\54\1\0\2\53"+
+    "\4\0\1\53\3\0\4\53\3\0\13\54\3\0\1\54"+
+    "\1\0\2\53\4\0\1\53\3\0\4\53\3\0\4\54"+
+    "\1\56\6\54\3\0\1\54\1\0\2\53\4\0\1\53"+
+    "\3\0\4\53\3\0\7\54\1\57\3\54\3\0\1\54"+
+    "\1\0\2\53\4\0\1\53\3\0\4\53\3\0\11\54"+
+    "\1\60\1\54\3\0\1\54\1\0\2\61\4\0\1\53"+
+    "\3\0\2\53\2\61\3\0\11\54\1\60\1\54\3\0"+
+    "\1\54\36\62\1\44\2\62\1\0\2\32\42\0\1\63"+
+    "\43\0\1\35\1\0\1\35\2\0\1\35\3\0\1\35"+
+    "\1\0\13\35\2\0\2\35\4\0\1\64\51\0\1\65"+
+    "\45\0\10\40\6\0\1\40\4\0\1\66\1\67\1\70"+
+    "\1\71\1\72\1\66\1\73\43\0\1\74\23\0\2\46"+
+    "\1\0\36\46\2\51\1\0\36\51\1\0\2\53\4\0"+
+    "\1\53\3\0\4\53\3\0\2\54\1\75\10\54\3\0"+
+    "\1\54\1\0\2\53\4\0\1\53\3\0\4\53\3\0"+
+    "\5\54\1\76\5\54\3\0\1\54\1\0\2\53\4\0"+
+    "\1\53\3\0\4\53\3\0\1\54\1\77\11\54\3\0"+
+    "\1\54\4\63\1\100\34\63\12\0\1\101\27\0\2\53"+
+    "\4\0\1\53\3\0\4\53\3\0\1\102\12\54\3\0"+
+    "\1\54\1\0\2\53\4\0\1\53\3\0\4\53\3\0"+
+    "\1\103\12\54\3\0\1\54\1\0\2\53\4\0\1\53"+
+    "\3\0\4\53\3\0\2\54\1\104\10\54\3\0\1\54"+
+    "\4\63\1\105\34\63\32\106\1\107\6\106\1\0\2\110"+
+    "\4\0\1\53\3\0\2\53\2\110\3\0\13\54\3\0"+
+    "\1\54\1\0\2\111\4\0\1\53\3\0\2\53\2\111"+
+    "\3\0\13\54\3\0\1\54\1\0\2\53\4\0\1\53"+
+    "\3\0\4\53\3\0\1\112\12\54\3\0\1\54\4\0"+
+    "\1\113\66\0\1\114\7\0\2\115\4\0\1\53\3\0"+
+    "\2\53\2\115\3\0\13\54\3\0\1\54";
 
   private static int [] zzUnpackTrans() {
-    int [] result = new int[1815];
+    int [] result = new int[1551];
     int offset = 0;
     offset = zzUnpackTrans(ZZ_TRANS_PACKED_0, offset, result);
     return result;
@@ -222,14 +219,14 @@ final class _HbLexer implements FlexLexer {
   private static final int [] ZZ_ATTRIBUTE = zzUnpackAttribute();
 
   private static final String ZZ_ATTRIBUTE_PACKED_0 =
-    "\2\1\4\0\1\1\1\11\2\1\2\11\4\1\1\11"+
-    "\11\1\1\11\6\1\2\11\1\1\2\0\1\11\2\0"+
-    "\1\11\5\0\1\11\1\0\1\1\1\0\11\11\3\0"+
-    "\1\1\4\0\2\1\1\0\2\11\1\0\1\11\2\1"+
-    "\1\11\2\1\1\11\2\1\1\11";
+    "\1\0\1\1\5\0\2\11\2\1\2\11\4\1\1\11"+
+    "\10\1\1\11\5\1\1\11\1\1\2\11\1\1\2\0"+
+    "\1\11\2\0\1\11\5\0\1\11\1\0\1\1\1\0"+
+    "\10\11\3\0\1\1\4\0\1\1\1\11\1\0\2\11"+
+    "\1\0\3\11";
 
   private static int [] zzUnpackAttribute() {
-    int [] result = new int[84];
+    int [] result = new int[77];
     int offset = 0;
     offset = zzUnpackAttribute(ZZ_ATTRIBUTE_PACKED_0, offset, result);
     return result;
@@ -288,15 +285,193 @@ final class _HbLexer implements FlexLexer {
   private boolean zzEOFDone;
 
   /* user code: */
-    private Stack<Integer> stack = new Stack<Integer>();
+    // The stack of lexical states saved by yypushState, packed into an int so that the complete state of this
+    // lexer fits in the single int that Lexer.getState() hands to the editor highlighter.  Each entry takes
+    // STACK_ENTRY_BITS bits and holds (lexicalState / 2) + 1 (JFlex lexical states are even numbers), so an
+    // empty slot is always 0 and the top of the stack lives in the lowest bits.  (With STACK_ENTRY_BITS = 3 there's
+    // room for 7 lexical states, which is exactly what we have.)
+    private static final int LEXICAL_STATE_BITS = 4;
+    private static final int STACK_ENTRY_BITS = 3;
+    private static final int STACK_ENTRY_MASK = (1 << STACK_ENTRY_BITS) - 1;
+    private static final int MAX_STACK_DEPTH = (Integer.SIZE - LEXICAL_STATE_BITS) / STACK_ENTRY_BITS;
+
+    /**
+     * The packed state (see {@link #getPackedState()}) just inside a mustache opened from the initial state,
+     * which is where we lex STRINGs
+     */
+    public static final int PACKED_MUSTACHE_STATE = ((YYINITIAL / 2 + 1) << LEXICAL_STATE_BITS) | mu;
+
+    /**
+     * The packed state (see {@link #getPackedState()}) for the lines of an unclosed comment after its first
+     */
+    public static final int PACKED_UNCLOSED_COMMENT_STATE = ((YYINITIAL / 2 + 1) << LEXICAL_STATE_BITS) | unclosed_comment;
+
+    private int stack = 0;
+
+    private HbUnclosedCommentCache unclosedCommentCache;
+
+    /**
+     * @param cache where to remember an unclosed comment between restarts on the same document, or null to always
+     *              scan for comment closes
+     */
+    public void setUnclosedCommentCache(HbUnclosedCommentCache cache) {
+      unclosedCommentCache = cache;
+    }
 
     public void yypushState(int newState) {
-      stack.push(yystate());
+      if ((stack >>> (STACK_ENTRY_BITS * (MAX_STACK_DEPTH - 1))) != 0) {
+        // the grammar never nests states more than a couple deep, so running out of room means the .flex rules are broken
+        throw new ShouldNotHappenException();
+      }
+      stack = (stack << STACK_ENTRY_BITS) | (yystate() / 2 + 1);
       yybegin(newState);
     }
 
     public void yypopState() {
-      yybegin(stack.pop());
+      int top = stack & STACK_ENTRY_MASK;
+      stack >>>= STACK_ENTRY_BITS;
+      // an empty stack means we were (re)started inside a state without its parents; fall back to the initial state
+      yybegin(top == 0 ? YYINITIAL : (top - 1) * 2);
+    }
+
+    /**
+     * @return the complete state of this lexer (the current lexical state and the stack of states beneath it)
+     *         packed into an int.  Restarting this lexer with {@link #restoreState(int)} on this value picks up
+     *         exactly where it left off.
+     */
+    public int getPackedState() {
+      return (stack << LEXICAL_STATE_BITS) | yystate();
+    }
+
+    /**
+     * Restores a state previously obtained from {@link #getPackedState()}
+     */
+    public void restoreState(int packedState) {
+      stack = packedState >>> LEXICAL_STATE_BITS;
+      yybegin(packedState & ((1 << LEXICAL_STATE_BITS) - 1));
+    }
+
+    /**
+     * Checks the end of the current token text without creating a String for it
+     */
+    private boolean yytextEndsWith(String suffix) {
+      int suffixStart = zzMarkedPos - suffix.length();
+      if (suffixStart < zzStartRead) {
+        return false;
+      }
+      for (int i = 0; i < suffix.length(); i++) {
+        if (bufferCharAt(suffixStart + i) != suffix.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @return the offset of the first occurrence of target at or after fromOffset, or -1 if there isn't one
+     */
+    private int findInBuffer(String target, int fromOffset) {
+      char first = target.charAt(0);
+      int lastStart = zzEndRead - target.length();
+      for (int i = fromOffset; i <= lastStart; i++) {
+        if (bufferCharAt(i) == first) {
+          int j = 1;
+          while (j < target.length() && bufferCharAt(i + j) == target.charAt(j)) {
+            j++;
+          }
+          if (j == target.length()) {
+            return i;
+          }
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * @return the offset just past the first line break at or after fromOffset, or the end of input if there isn't one
+     */
+    private int findLineEnd(int fromOffset) {
+      for (int i = fromOffset; i < zzEndRead; i++) {
+        if (bufferCharAt(i) == '\n') {
+          return i + 1;
+        }
+      }
+      return zzEndRead;
+    }
+
+    /**
+     * Called with the opening "{{!" or "{{!--" of a comment matched
+     *
+     * @return the offset of the given terminator closing the comment, or -1 if there isn't one in the rest of the input
+     */
+    private int findCommentClose(String terminator) {
+      if (unclosedCommentCache != null && unclosedCommentCache.isUnclosed(zzStartRead, terminator, zzEndRead)) {
+        return -1;
+      }
+      return findInBuffer(terminator, zzMarkedPos);
+    }
+
+    /**
+     * Called with the opening "{{!" or "{{!--" of a comment matched and no close for it in the rest of the input:
+     * starts handing out the comment as UNCLOSED_COMMENT tokens, the first running to the end of this line
+     */
+    private IElementType startUnclosedComment(String terminator) {
+      if (unclosedCommentCache != null) {
+        unclosedCommentCache.recordUnclosed(zzStartRead, zzMarkedPos, terminator, zzEndRead);
+      }
+
+      // the comment takes the rest of the input, so we'll never pop back out of it
+      yybegin(unclosed_comment);
+      zzMarkedPos = findLineEnd(zzStartRead);
+      return HbTokenTypes.UNCLOSED_COMMENT;
+    }
+
+    private char bufferCharAt(int offset) {
+      return zzBufferArray != null ? zzBufferArray[offset] : zzBuffer.charAt(offset);
+    }
+
+    /**
+     * @return the offset of the first "{{" at or after fromOffset, or -1 if there isn't one before the end of input
+     */
+    private int findOpenStache(int fromOffset) {
+      // only every other char needs a look: if the char at i isn't a '{', no "{{" can start at i - 1 or at i
+      int i = fromOffset + 1;
+      if (zzBufferArray != null) {
+        char[] buffer = zzBufferArray;
+        while (i < zzEndRead) {
+          if (buffer[i] != '{') {
+            i += 2;
+          } else if (buffer[i - 1] == '{') {
+            return i - 1;
+          } else {
+            i++;
+          }
+        }
+      } else {
+        CharSequence buffer = zzBuffer;
+        while (i < zzEndRead) {
+          if (buffer.charAt(i) != '{') {
+            i += 2;
+          } else if (buffer.charAt(i - 1) == '{') {
+            return i - 1;
+          } else {
+            i++;
+          }
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Same test as String.trim(): everything up to and including ' ' counts as white space
+     */
+    private boolean isWhiteSpace(int startOffset, int endOffset) {
+      for (int i = startOffset; i < endOffset; i++) {
+        if (bufferCharAt(i) > ' ') {
+          return false;
+        }
+      }
+      return true;
     }
 
 
@@ -332,6 +507,7 @@ final class _HbLexer implements FlexLexer {
     return map;
   }
 
+
   public final int getTokenStart(){
     return zzStartRead;
   }
@@ -550,16 +726,27 @@ final class _HbLexer implements FlexLexer {
           { // otherwise, if the remaining text just contains the one escaped mustache, then it's all CONTENT
         return HbTokenTypes.CONTENT;
           }
+        case 32: break;
+        case 30: 
+          { int commentClose = findCommentClose("--}}");
+      if (commentClose == -1) {
+        return startUnclosedComment("--}}");
+      }
+
+      zzMarkedPos = commentClose + 4;
+      yypopState();
+      return HbTokenTypes.COMMENT;
+          }
         case 33: break;
         case 7: 
           { return HbTokenTypes.ESCAPE_CHAR;
           }
         case 34: break;
-        case 2: 
+        case 1: 
           { return HbTokenTypes.WHITE_SPACE;
           }
         case 35: break;
-        case 30: 
+        case 31: 
           // lookahead expression with fixed base length
           zzMarkedPos = zzStartRead + 5;
           { return HbTokenTypes.BOOLEAN;
@@ -575,45 +762,39 @@ final class _HbLexer implements FlexLexer {
           { return HbTokenTypes.SEP;
           }
         case 38: break;
-        case 10: 
-          { // backtrack over any stache characters at the end of this string
-          while (yylength() > 0 && yytext().subSequence(yylength() - 1, yylength()).toString().equals("{")) {
-            yypushback(1);
-          }
-
-          if (yylength() > 0 && yytext().toString().substring(yylength() - 1, yylength()).equals("\\")) {
-            yypushback(1); // put the escape char back
-            yypushState(emu);
-          } else {
-            yypushState(mu);
-          }
-
-          // we stray from the Handlebars grammar a bit here since we need our WHITE_SPACE more clearly delineated
-          //    and we need to avoid creating extra tokens for empty strings (makes the parser and formatter happier)
-          if (!yytext().toString().equals("")) {
-              if (yytext().toString().trim().length() == 0) {
-                  return HbTokenTypes.WHITE_SPACE;
-              } else {
-                  return HbTokenTypes.CONTENT;
-              }
-          }
-          }
-        case 39: break;
         case 12: 
           // lookahead expression with fixed base length
           zzMarkedPos = zzStartRead + 1;
           { return HbTokenTypes.ID;
           }
-        case 40: break;
+        case 39: break;
         case 13: 
           { return HbTokenTypes.ID;
           }
-        case 41: break;
+        case 40: break;
         case 16: 
           // lookahead expression with fixed lookahead length
           yypushback(1);
           { return HbTokenTypes.ID;
           }
+        case 41: break;
+        case 26: 
+          { // grab everything up to the next open stache
+          // backtrack over any stache characters at the end of this string
+          while (yytextEndsWith("{")) {
+            yypushback(1);
+          }
+
+          if (yytextEndsWith("\\")) {
+            // the next mustache is escaped, push back the escape char so that we can lex it as such
+            yypushback(1);
+          } else {
+            // the next mustache is not escaped, we're done in this state
+            yypopState();
+          }
+
+          return HbTokenTypes.CONTENT;
+          }
         case 42: break;
         case 9: 
           { yypopState(); return HbTokenTypes.DATA;
@@ -625,107 +806,115 @@ final class _HbLexer implements FlexLexer {
           { return HbTokenTypes.ELSE;
           }
         case 44: break;
-        case 27: 
-          { yypopState(); return HbTokenTypes.UNCLOSED_COMMENT;
-          }
-        case 45: break;
         case 25: 
           { yypushback(3); yypopState(); yypushState(comment);
           }
-        case 46: break;
+        case 45: break;
         case 19: 
           { yypushback(2); yypopState();
           }
-        case 47: break;
+        case 46: break;
         case 11: 
           { return HbTokenTypes.OPEN;
           }
-        case 48: break;
+        case 47: break;
         case 23: 
           { return HbTokenTypes.OPEN_ENDBLOCK;
           }
-        case 49: break;
+        case 48: break;
         case 24: 
           { return HbTokenTypes.OPEN_INVERSE;
           }
-        case 50: break;
+        case 49: break;
         case 15: 
           { return HbTokenTypes.STRING;
           }
-        case 51: break;
-        case 32: 
-          { yypopState(); return HbTokenTypes.COMMENT;
-          }
-        case 52: break;
+        case 50: break;
         case 22: 
           { return HbTokenTypes.OPEN_BLOCK;
           }
-        case 53: break;
+        case 51: break;
         case 6: 
           { yypushState(data); return HbTokenTypes.DATA_PREFIX;
           }
-        case 54: break;
+        case 52: break;
+        case 27: 
+          { int commentClose = findCommentClose("}}");
+      if (commentClose == -1) {
+        return startUnclosedComment("}}");
+      }
+
+      zzMarkedPos = commentClose + 2;
+      // backtrack over any extra stache characters at the end of this string
+      while (yytextEndsWith("}}}")) {
+        yypushback(1);
+      }
+      yypopState();
+      return HbTokenTypes.COMMENT;
+          }
+        case 53: break;
         case 20: 
           { return HbTokenTypes.OPEN_UNESCAPED;
           }
-        case 55: break;
-        case 1: 
-          { return HbTokenTypes.CONTENT;
-          }
-        case 56: break;
+        case 54: break;
         case 5: 
           { return HbTokenTypes.EQUALS;
           }
-        case 57: break;
-        case 31: 
-          { // backtrack over any extra stache characters at the end of this string
-      while (yylength() > 2 && yytext().subSequence(yylength() - 3, yylength()).toString().equals("}}}")) {
-        yypushback(1);
-      }
-      yypopState();
-      return HbTokenTypes.COMMENT;
-          }
-        case 58: break;
+        case 55: break;
         case 8: 
           { yypopState(); return HbTokenTypes.PARTIAL_NAME;
           }
-        case 59: break;
+        case 56: break;
         case 14: 
           { yypopState(); return HbTokenTypes.CLOSE;
           }
-        case 60: break;
-        case 26: 
-          { // grab everything up to the next open stache
-          // backtrack over any stache characters at the end of this string
-          while (yylength() > 0 && yytext().subSequence(yylength() - 1, yylength()).toString().equals("{")) {
-            yypushback(1);
+        case 57: break;
+        case 10: 
+          { zzMarkedPos = findLineEnd(zzMarkedPos);
+      return HbTokenTypes.UNCLOSED_COMMENT;
+          }
+        case 58: break;
+        case 2: 
+          { int openStache = findOpenStache(zzStartRead);
+          if (openStache == -1) {
+            // no more mustaches: the rest of the input is CONTENT
+            zzMarkedPos = zzEndRead;
+            return HbTokenTypes.CONTENT;
           }
 
-          if (yylength() > 0 && yytext().toString().substring(yylength() - 1, yylength()).equals("\\")) {
-            // the next mustache is escaped, push back the escape char so that we can lex it as such
-            yypushback(1);
+          zzMarkedPos = openStache;
+          if (zzMarkedPos > zzStartRead && bufferCharAt(zzMarkedPos - 1) == '\\') {
+            zzMarkedPos--; // leave the escape char for the emu state
+            yypushState(emu);
           } else {
-            // the next mustache is not escaped, we're done in this state
-            yypopState();
+            yypushState(mu);
           }
 
-          return HbTokenTypes.CONTENT;
+          // we stray from the Handlebars grammar a bit here since we need our WHITE_SPACE more clearly delineated
+          //    and we need to avoid creating extra tokens for empty strings (makes the parser and formatter happier)
+          if (zzMarkedPos > zzStartRead) {
+              if (isWhiteSpace(zzStartRead, zzMarkedPos)) {
+                  return HbTokenTypes.WHITE_SPACE;
+              } else {
+                  return HbTokenTypes.CONTENT;
+              }
           }
-        case 61: break;
+          }
+        case 59: break;
         case 21: 
           { yypushState(par); return HbTokenTypes.OPEN_PARTIAL;
           }
-        case 62: break;
+        case 60: break;
         case 3: 
           { return HbTokenTypes.INVALID;
           }
-        case 63: break;
+        case 61: break;
         case 17: 
           // lookahead expression with fixed lookahead length
           yypushback(1);
           { return HbTokenTypes.INTEGER;
           }
-        case 64: break;
+        case 62: break;
         default:
           if (zzInput == YYEOF && zzStartRead == zzCurrentPos) {
             zzAtEOF = true;
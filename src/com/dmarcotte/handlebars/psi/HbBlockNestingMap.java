@@ -0,0 +1,203 @@
+package com.dmarcotte.handlebars.psi;
+
+import com.dmarcotte.handlebars.parsing.HbTokenTypes;
+import com.intellij.lang.ASTNode;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.TokenType;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiTreeUtil;
+import gnu.trove.THashSet;
+import gnu.trove.TIntArrayList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Where a template's blocks are, so that {@link HbPsiUtil} can answer "which open/close tag is this element in?",
+ * "is this a nested STATEMENTS?", "how deeply nested is this offset?" and "which block is it in?" with a lookup
+ * rather than a walk up the tree.  Built in one pass over the file's AST the first time it's asked for, and cached until the file changes.
+ */
+class HbBlockNestingMap {
+    private static final Key<CachedValue<HbBlockNestingMap>> NESTING_MAP_KEY = Key.create("HbBlockNestingMap");
+
+    // the elements which can contain blocks and statements; everything else is a mustache, content or a comment
+    private static final TokenSet CONTAINERS = TokenSet.create(HbTokenTypes.FILE, HbTokenTypes.STATEMENTS,
+                                                               HbTokenTypes.BLOCK_WRAPPER, TokenType.ERROR_ELEMENT);
+    private static final TokenSet OPEN_TAGS = TokenSet.create(HbTokenTypes.OPEN_BLOCK_STACHE,
+                                                              HbTokenTypes.OPEN_INVERSE_BLOCK_STACHE);
+
+    // open and close tags in document order (which, since they don't nest, is also the order of their ends)
+    private final Tags myOpenTags = new Tags();
+    private final Tags myCloseTags = new Tags();
+
+    // the blocks, in document order: their starts and ends, and the index of the block each is in (or -1)
+    private final TIntArrayList myBlockStarts = new TIntArrayList();
+    private final TIntArrayList myBlockEnds = new TIntArrayList();
+    private final TIntArrayList myBlockParents = new TIntArrayList();
+
+    // the ends of the blocks in order: an offset's depth is the number of blocks started at or before it,
+    // less the number ended at or before it
+    private final TIntArrayList mySortedBlockEnds = new TIntArrayList();
+
+    private final Set<ASTNode> myNonRootStatements = new THashSet<ASTNode>();
+
+    /**
+     * @return the nesting map for the given Handlebars file
+     */
+    static HbBlockNestingMap getInstance(final PsiFile file) {
+        return CachedValuesManager.getManager(file.getProject()).getCachedValue(file, NESTING_MAP_KEY, new CachedValueProvider<HbBlockNestingMap>() {
+            @Override
+            public Result<HbBlockNestingMap> compute() {
+                return Result.create(new HbBlockNestingMap(file.getNode()), file);
+            }
+        }, false);
+    }
+
+    HbBlockNestingMap(ASTNode fileNode) {
+        // walk the containers and tags depth first (so we meet them in document order),
+        // keeping count of how many STATEMENTS we're in, and track of which block
+        List<ASTNode> nodes = new ArrayList<ASTNode>();
+        TIntArrayList statementsDepths = new TIntArrayList();
+        TIntArrayList enclosingBlocks = new TIntArrayList();
+        nodes.add(fileNode);
+        statementsDepths.add(0);
+        enclosingBlocks.add(-1);
+        while (!nodes.isEmpty()) {
+            int last = nodes.size() - 1;
+            ASTNode node = nodes.remove(last);
+            int statementsDepth = statementsDepths.remove(last);
+            int enclosingBlock = enclosingBlocks.remove(last);
+
+            IElementType nodeType = node.getElementType();
+            if (OPEN_TAGS.contains(nodeType)) {
+                myOpenTags.add(node);
+                continue;
+            }
+            if (nodeType == HbTokenTypes.CLOSE_BLOCK_STACHE) {
+                myCloseTags.add(node);
+                continue;
+            }
+
+            if (nodeType == HbTokenTypes.STATEMENTS) {
+                if (statementsDepth > 0) {
+                    myNonRootStatements.add(node);
+                }
+                statementsDepth++;
+            } else if (nodeType == HbTokenTypes.BLOCK_WRAPPER) {
+                myBlockParents.add(enclosingBlock);
+                enclosingBlock = myBlockStarts.size();
+                myBlockStarts.add(node.getStartOffset());
+                myBlockEnds.add(node.getStartOffset() + node.getTextLength());
+            }
+
+            // push the children in reverse, so that we come to them in document order
+            for (ASTNode child = node.getLastChildNode(); child != null; child = child.getTreePrev()) {
+                IElementType childType = child.getElementType();
+                if (CONTAINERS.contains(childType) || OPEN_TAGS.contains(childType)
+                        || childType == HbTokenTypes.CLOSE_BLOCK_STACHE) {
+                    nodes.add(child);
+                    statementsDepths.add(statementsDepth);
+                    enclosingBlocks.add(enclosingBlock);
+                }
+            }
+        }
+
+        // blocks come out in document order of their starts, but their ends need sorting
+        mySortedBlockEnds.add(myBlockEnds.toNativeArray());
+        mySortedBlockEnds.sort();
+    }
+
+    /**
+     * @return the open tag which is a strict ancestor of the given element, or null if there isn't one
+     */
+    HbOpenBlockMustache findParentOpenTag(PsiElement element) {
+        return (HbOpenBlockMustache) myOpenTags.findParent(element);
+    }
+
+    /**
+     * @return the close tag which is a strict ancestor of the given element, or null if there isn't one
+     */
+    HbCloseBlockMustache findParentCloseTag(PsiElement element) {
+        return (HbCloseBlockMustache) myCloseTags.findParent(element);
+    }
+
+    /**
+     * @return true if the given element is a STATEMENTS with another STATEMENTS above it
+     */
+    boolean isNonRootStatements(PsiElement element) {
+        return myNonRootStatements.contains(element.getNode());
+    }
+
+    /**
+     * @return the number of blocks the given offset is inside of
+     */
+    int getBlockDepth(int offset) {
+        return countAtOrBefore(myBlockStarts, offset) - countAtOrBefore(mySortedBlockEnds, offset);
+    }
+
+    /**
+     * @return the range of the innermost block the given offset is inside of, or null if it's not in one
+     */
+    TextRange findBlockRange(int offset) {
+        // blocks nest, so if the last block starting at or before the offset doesn't contain it,
+        // the innermost one that does is one of its ancestors
+        int block = countAtOrBefore(myBlockStarts, offset) - 1;
+        while (block != -1 && myBlockEnds.get(block) <= offset) {
+            block = myBlockParents.get(block);
+        }
+        return block == -1 ? null : new TextRange(myBlockStarts.get(block), myBlockEnds.get(block));
+    }
+
+    /**
+     * @return the number of values in the given sorted list which are at most the given value
+     */
+    private static int countAtOrBefore(TIntArrayList sortedValues, int value) {
+        int low = 0;
+        int high = sortedValues.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedValues.get(mid) <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Tags of one kind, in document order
+     */
+    private static class Tags {
+        private final TIntArrayList myStarts = new TIntArrayList();
+        private final TIntArrayList myEnds = new TIntArrayList();
+        private final List<ASTNode> myNodes = new ArrayList<ASTNode>();
+
+        void add(ASTNode tag) {
+            myStarts.add(tag.getStartOffset());
+            myEnds.add(tag.getStartOffset() + tag.getTextLength());
+            myNodes.add(tag);
+        }
+
+        /**
+         * Tags don't nest, so the only one which can contain the element is the last one starting at or before it
+         */
+        PsiElement findParent(PsiElement element) {
+            int candidate = countAtOrBefore(myStarts, element.getTextRange().getStartOffset()) - 1;
+            if (candidate < 0 || myEnds.get(candidate) < element.getTextRange().getEndOffset()) {
+                return null;
+            }
+
+            PsiElement tag = myNodes.get(candidate).getPsi();
+            return PsiTreeUtil.isAncestor(tag, element, true) ? tag : null;
+        }
+    }
+}
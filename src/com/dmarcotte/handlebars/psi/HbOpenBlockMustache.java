@@ -1,7 +1,15 @@
 package com.dmarcotte.handlebars.psi;
 
+import org.jetbrains.annotations.Nullable;
+
 /**
  * Base element for mustaches which open blocks (i.e. "{{#foo}}" and "{{^foo}}")
  */
 public interface HbOpenBlockMustache extends HbPsiElement {
+    /**
+     * @return the helper or path this block opens with, i.e. "each" for "{{#each items}}",
+     *         or null if the block has no name
+     */
+    @Nullable
+    String getName();
 }
@@ -1,4 +1,12 @@
 package com.dmarcotte.handlebars.psi;
 
+import org.jetbrains.annotations.Nullable;
+
 public interface HbPartial extends HbMustache {
+    /**
+     * @return the name of the included partial as written (i.e. "path/to/partial" for "{{> path/to/partial}}"),
+     *         or null if the partial has no name
+     */
+    @Nullable
+    String getPartialName();
 }
@@ -1,8 +1,17 @@
 package com.dmarcotte.handlebars.psi;
 
-import com.intellij.openapi.util.Condition;
+import com.dmarcotte.handlebars.file.HbFileType;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
-import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.FilenameIndex;
+import com.intellij.psi.search.GlobalSearchScope;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class HbPsiUtil {
 
@@ -18,13 +27,8 @@ public class HbPsiUtil {
      * @return An ancestor of type {@link HbOpenBlockMustache} or null if none exists
      */
     public static HbOpenBlockMustache findParentOpenTagElement(PsiElement element) {
-        return (HbOpenBlockMustache) PsiTreeUtil.findFirstParent(element, true, new Condition<PsiElement>() {
-            @Override
-            public boolean value(PsiElement element) {
-                return element != null
-                        && element instanceof HbOpenBlockMustache;
-            }
-        });
+        HbBlockNestingMap nestingMap = getNestingMap(element);
+        return nestingMap == null ? null : nestingMap.findParentOpenTag(element);
     }
 
     /**
@@ -38,29 +42,130 @@ public class HbPsiUtil {
      * @return An ancestor of type {@link HbCloseBlockMustache} or null if none exists
      */
     public static HbCloseBlockMustache findParentCloseTagElement(PsiElement element) {
-        return (HbCloseBlockMustache) PsiTreeUtil.findFirstParent(element, true, new Condition<PsiElement>() {
-            @Override
-            public boolean value(PsiElement element) {
-                return element != null
-                        && element instanceof HbCloseBlockMustache;
-            }
-        });
+        HbBlockNestingMap nestingMap = getNestingMap(element);
+        return nestingMap == null ? null : nestingMap.findParentCloseTag(element);
     }
 
     /**
      * Tests to see if the given element is not the "root" statements expression of the grammar
      */
     public static boolean isNonRootStatementsElement(PsiElement element) {
-        PsiElement statementsParent = PsiTreeUtil.findFirstParent(element, true, new Condition<PsiElement>() {
-            @Override
-            public boolean value(PsiElement element) {
-                return element != null
-                        && element instanceof HbStatements;
+        if (!(element instanceof HbStatements)) {
+            return false;
+        }
+
+        HbBlockNestingMap nestingMap = getNestingMap(element);
+        return nestingMap != null && nestingMap.isNonRootStatements(element);
+    }
+
+    /**
+     * @return the number of blocks which contain the given offset in the given Handlebars file
+     *         (i.e. 0 outside all blocks, 1 inside "{{#if}}...{{/if}}", 2 inside a block in that block, etc.)
+     */
+    public static int getBlockDepth(HbPsiFile file, int offset) {
+        return HbBlockNestingMap.getInstance(file).getBlockDepth(offset);
+    }
+
+    /**
+     * @return the range of the innermost block (from the start of its open tag to the end of its close tag)
+     *         which contains the given offset in the given Handlebars file, or null if it isn't in a block
+     */
+    public static TextRange findBlockRange(HbPsiFile file, int offset) {
+        return HbBlockNestingMap.getInstance(file).findBlockRange(offset);
+    }
+
+    /**
+     * @return the nesting map of the Handlebars file the given element is in,
+     *         or null if it isn't in one (in which case it can't be in any of our blocks)
+     */
+    private static HbBlockNestingMap getNestingMap(PsiElement element) {
+        if (element == null) {
+            return null;
+        }
+
+        PsiFile file = element.getContainingFile();
+        return file instanceof HbPsiFile ? HbBlockNestingMap.getInstance(file) : null;
+    }
+
+    /**
+     * Finds the templates a partial name refers to: those named for the name's last segment (with any of our
+     * extensions) whose directories end with the rest of it.  i.e. "{{> path/to/partial}}" refers to
+     * ".../path/to/partial.hbs", ".../path/to/partial.handlebars" and ".../path/to/partial.mustache".
+     * <p>
+     * This is a lookup in the file name index; no templates are read.
+     *
+     * @param project The project to search
+     * @param partialName The name as written in the partial, e.g. "path/to/partial"
+     * @return The templates the name could refer to, or an empty list if there are none
+     */
+    public static List<PsiFile> findPartialFiles(Project project, String partialName) {
+        List<PsiFile> partialFiles = new ArrayList<PsiFile>();
+        String simpleName = getPartialSimpleName(partialName);
+        if (simpleName.length() == 0) {
+            return partialFiles;
+        }
+
+        GlobalSearchScope scope = GlobalSearchScope.allScope(project);
+        for (String extension : HbFileType.DEFAULT_EXTENSION.split(";")) {
+            for (PsiFile file : FilenameIndex.getFilesByName(project, simpleName + "." + extension, scope)) {
+                if (isPartialFile(file.getVirtualFile(), partialName)) {
+                    partialFiles.add(file);
+                }
             }
-        });
+        }
+        return partialFiles;
+    }
 
-        // we're a non-root statements if we're of type statements, and we have a statements parent
-        return element instanceof HbStatements
-                && statementsParent != null;
+    /**
+     * @return true if the given file is one the given partial name refers to (see {@link #findPartialFiles})
+     */
+    public static boolean isPartialFile(VirtualFile file, String partialName) {
+        if (file == null || file.getFileType() != HbFileType.INSTANCE) {
+            return false;
+        }
+
+        String[] segments = partialName.split("/");
+        VirtualFile current = file;
+        String currentName = FileUtil.getNameWithoutExtension(file.getName());
+        for (int i = segments.length - 1; i >= 0; i--) {
+            if (segments[i].length() == 0) {
+                continue;
+            }
+            if (current == null || !segments[i].equals(currentName)) {
+                return false;
+            }
+            current = current.getParent();
+            currentName = current == null ? null : current.getName();
+        }
+        return true;
+    }
+
+    /**
+     * The reverse of {@link #findPartialFiles}: the names a partial can refer to the given template by, i.e.
+     * "partial", "to/partial", "path/to/partial" and so on up to the root for ".../path/to/partial.hbs", each also
+     * with a leading and/or a trailing "/".  That's every name {@link #isPartialFile} accepts for the template apart
+     * from ones with empty segments in the middle (e.g. "path//partial").
+     */
+    public static List<String> getPartialNames(VirtualFile file) {
+        List<String> partialNames = new ArrayList<String>();
+        String path = FileUtil.getNameWithoutExtension(file.getName());
+        for (VirtualFile parent = file.getParent(); ; parent = parent.getParent()) {
+            partialNames.add(path);
+            partialNames.add("/" + path);
+            partialNames.add(path + "/");
+            partialNames.add("/" + path + "/");
+            if (parent == null || parent.getName().length() == 0 || parent.getName().equals("/")) {
+                return partialNames;
+            }
+            path = parent.getName() + "/" + path;
+        }
+    }
+
+    /**
+     * @return the last segment of the given partial name, i.e. "partial" for "path/to/partial"
+     */
+    public static String getPartialSimpleName(String partialName) {
+        String trimmedName = partialName.endsWith("/") ? partialName.substring(0, partialName.length() - 1) : partialName;
+        return trimmedName.substring(trimmedName.lastIndexOf('/') + 1);
     }
 }
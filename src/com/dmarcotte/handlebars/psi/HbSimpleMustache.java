@@ -1,4 +1,12 @@
 package com.dmarcotte.handlebars.psi;
 
+import org.jetbrains.annotations.Nullable;
+
 public interface HbSimpleMustache extends HbMustache {
+    /**
+     * @return the helper or path this mustache opens with, i.e. "foo.bar" for "{{foo.bar baz}}",
+     *         or null if the mustache has no name (e.g. "{{@index}}")
+     */
+    @Nullable
+    String getName();
 }
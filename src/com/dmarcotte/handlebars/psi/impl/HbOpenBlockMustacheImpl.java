@@ -1,11 +1,24 @@
 package com.dmarcotte.handlebars.psi.impl;
 
 import com.dmarcotte.handlebars.psi.HbOpenBlockMustache;
+import com.dmarcotte.handlebars.psi.stubs.HbMustacheStub;
 import com.intellij.lang.ASTNode;
+import com.intellij.psi.stubs.IStubElementType;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-public class HbOpenBlockMustacheImpl extends HbPsiElementImpl implements HbOpenBlockMustache {
+public class HbOpenBlockMustacheImpl extends HbStubBasedPsiElementImpl implements HbOpenBlockMustache {
     public HbOpenBlockMustacheImpl(@NotNull ASTNode astNode) {
         super(astNode);
     }
+
+    public HbOpenBlockMustacheImpl(@NotNull HbMustacheStub stub, @NotNull IStubElementType nodeType) {
+        super(stub, nodeType);
+    }
+
+    @Nullable
+    @Override
+    public String getName() {
+        return getStubName();
+    }
 }
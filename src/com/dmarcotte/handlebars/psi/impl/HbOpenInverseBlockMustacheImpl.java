@@ -1,11 +1,17 @@
 package com.dmarcotte.handlebars.psi.impl;
 
 import com.dmarcotte.handlebars.psi.HbOpenInverseBlockMustache;
+import com.dmarcotte.handlebars.psi.stubs.HbMustacheStub;
 import com.intellij.lang.ASTNode;
+import com.intellij.psi.stubs.IStubElementType;
 import org.jetbrains.annotations.NotNull;
 
 public class HbOpenInverseBlockMustacheImpl extends HbOpenBlockMustacheImpl implements HbOpenInverseBlockMustache {
     public HbOpenInverseBlockMustacheImpl(@NotNull ASTNode astNode) {
         super(astNode);
     }
+
+    public HbOpenInverseBlockMustacheImpl(@NotNull HbMustacheStub stub, @NotNull IStubElementType nodeType) {
+        super(stub, nodeType);
+    }
 }
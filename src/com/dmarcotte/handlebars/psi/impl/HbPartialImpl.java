@@ -1,11 +1,55 @@
 package com.dmarcotte.handlebars.psi.impl;
 
+import com.dmarcotte.handlebars.parsing.HbTokenTypes;
 import com.dmarcotte.handlebars.psi.HbPartial;
+import com.dmarcotte.handlebars.psi.stubs.HbMustacheStub;
 import com.intellij.lang.ASTNode;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.stubs.IStubElementType;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-public class HbPartialImpl extends HbPsiElementImpl implements HbPartial {
+public class HbPartialImpl extends HbStubBasedPsiElementImpl implements HbPartial {
     public HbPartialImpl(@NotNull ASTNode astNode) {
         super(astNode);
     }
+
+    public HbPartialImpl(@NotNull HbMustacheStub stub, @NotNull IStubElementType nodeType) {
+        super(stub, nodeType);
+    }
+
+    @Nullable
+    @Override
+    public String getPartialName() {
+        return getStubName();
+    }
+
+    /**
+     * A partial is named by its PARTIAL_NAME token
+     */
+    @Nullable
+    @Override
+    TextRange getNameRange() {
+        ASTNode partialNameNode = getPartialNameNode();
+        return partialNameNode == null ? null : partialNameNode.getTextRange();
+    }
+
+    @Nullable
+    ASTNode getPartialNameNode() {
+        return getNode().findChildByType(HbTokenTypes.PARTIAL_NAME);
+    }
+
+    @Override
+    public PsiReference getReference() {
+        ASTNode partialNameNode = getPartialNameNode();
+        return partialNameNode == null ? null : new HbPartialReference(this, partialNameNode);
+    }
+
+    @NotNull
+    @Override
+    public PsiReference[] getReferences() {
+        PsiReference reference = getReference();
+        return reference == null ? PsiReference.EMPTY_ARRAY : new PsiReference[] { reference };
+    }
 }
@@ -0,0 +1,65 @@
+package com.dmarcotte.handlebars.psi.impl;
+
+import com.dmarcotte.handlebars.psi.HbPsiUtil;
+import com.intellij.lang.ASTNode;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiElementResolveResult;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiPolyVariantReferenceBase;
+import com.intellij.psi.ResolveResult;
+import com.intellij.psi.impl.source.tree.LeafElement;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.IncorrectOperationException;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Reference from a partial's name to the templates it includes (see {@link HbPsiUtil#findPartialFiles})
+ */
+class HbPartialReference extends PsiPolyVariantReferenceBase<HbPartialImpl> {
+
+    HbPartialReference(HbPartialImpl partial, ASTNode partialNameNode) {
+        super(partial, TextRange.from(partialNameNode.getStartOffset() - partial.getTextRange().getStartOffset(),
+                                      partialNameNode.getTextLength()));
+    }
+
+    @NotNull
+    @Override
+    public ResolveResult[] multiResolve(boolean incompleteCode) {
+        List<PsiFile> partialFiles = HbPsiUtil.findPartialFiles(getElement().getProject(), getValue());
+        ResolveResult[] results = new ResolveResult[partialFiles.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new PsiElementResolveResult(partialFiles.get(i));
+        }
+        return results;
+    }
+
+    @NotNull
+    @Override
+    public Object[] getVariants() {
+        return ArrayUtil.EMPTY_OBJECT_ARRAY;
+    }
+
+    /**
+     * Renaming a partial's template renames the last segment of the partial's name to match
+     */
+    @Override
+    public PsiElement handleElementRename(String newElementName) throws IncorrectOperationException {
+        ASTNode partialNameNode = getElement().getPartialNameNode();
+        if (!(partialNameNode instanceof LeafElement)) {
+            throw new IncorrectOperationException("Partial has no name to rename");
+        }
+
+        String partialName = partialNameNode.getText();
+        String simpleName = HbPsiUtil.getPartialSimpleName(partialName);
+        int simpleNameStart = partialName.lastIndexOf(simpleName);
+        String newPartialName = partialName.substring(0, simpleNameStart)
+                + FileUtil.getNameWithoutExtension(newElementName)
+                + partialName.substring(simpleNameStart + simpleName.length());
+        ((LeafElement) partialNameNode).replaceWithText(newPartialName);
+        return getElement();
+    }
+}
@@ -1,11 +1,24 @@
 package com.dmarcotte.handlebars.psi.impl;
 
 import com.dmarcotte.handlebars.psi.HbSimpleMustache;
+import com.dmarcotte.handlebars.psi.stubs.HbMustacheStub;
 import com.intellij.lang.ASTNode;
+import com.intellij.psi.stubs.IStubElementType;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-public class HbSimpleMustacheImpl extends HbMustacheImpl implements HbSimpleMustache {
+public class HbSimpleMustacheImpl extends HbStubBasedPsiElementImpl implements HbSimpleMustache {
     public HbSimpleMustacheImpl(@NotNull ASTNode astNode) {
         super(astNode);
     }
+
+    public HbSimpleMustacheImpl(@NotNull HbMustacheStub stub, @NotNull IStubElementType nodeType) {
+        super(stub, nodeType);
+    }
+
+    @Nullable
+    @Override
+    public String getName() {
+        return getStubName();
+    }
 }
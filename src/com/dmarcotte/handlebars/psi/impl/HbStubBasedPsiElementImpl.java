@@ -0,0 +1,91 @@
+package com.dmarcotte.handlebars.psi.impl;
+
+import com.dmarcotte.handlebars.parsing.HbTokenTypes;
+import com.dmarcotte.handlebars.psi.HbPsiElement;
+import com.dmarcotte.handlebars.psi.stubs.HbMustacheStub;
+import com.intellij.extapi.psi.StubBasedPsiElementBase;
+import com.intellij.lang.ASTNode;
+import com.intellij.navigation.ItemPresentation;
+import com.intellij.navigation.ItemPresentationProviders;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.stubs.IStubElementType;
+import com.intellij.psi.tree.IElementType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Base for the mustaches we keep stubs for (see {@link HbMustacheStub}).  Their name and its offset are answered
+ * from the stub while there is one, so looking at them doesn't load the template's AST.
+ */
+public abstract class HbStubBasedPsiElementImpl extends StubBasedPsiElementBase<HbMustacheStub> implements HbPsiElement {
+
+    HbStubBasedPsiElementImpl(@NotNull ASTNode astNode) {
+        super(astNode);
+    }
+
+    HbStubBasedPsiElementImpl(@NotNull HbMustacheStub stub, @NotNull IStubElementType nodeType) {
+        super(stub, nodeType);
+    }
+
+    @Override
+    public ItemPresentation getPresentation() {
+        return ItemPresentationProviders.getItemPresentation(this);
+    }
+
+    /**
+     * @return the name this mustache's stub records (see {@link HbMustacheStub#getName()})
+     */
+    @Nullable
+    public String getStubName() {
+        HbMustacheStub stub = getStub();
+        if (stub != null) {
+            return stub.getName();
+        }
+
+        TextRange nameRange = getNameRange();
+        return nameRange == null ? null : nameRange.shiftRight(-getTextRange().getStartOffset()).substring(getText());
+    }
+
+    /**
+     * @return the offset this mustache's stub records (see {@link HbMustacheStub#getNameOffset()})
+     */
+    public int getStubNameOffset() {
+        HbMustacheStub stub = getStub();
+        if (stub != null) {
+            return stub.getNameOffset();
+        }
+
+        TextRange nameRange = getNameRange();
+        return nameRange == null ? getTextRange().getStartOffset() : nameRange.getStartOffset();
+    }
+
+    /**
+     * @return the range of this mustache's name in the file, worked out from the AST, or null if it has no name.
+     *         By default, the name is the path the mustache opens with: its leading IDs and separators.
+     */
+    @Nullable
+    TextRange getNameRange() {
+        ASTNode nameStart = null;
+        ASTNode nameEnd = null;
+        for (ASTNode child = getNode().getFirstChildNode(); child != null; child = child.getTreeNext()) {
+            IElementType childType = child.getElementType();
+            if (childType == HbTokenTypes.ID || (nameStart != null && childType == HbTokenTypes.SEP)) {
+                if (nameStart == null) {
+                    nameStart = child;
+                }
+                nameEnd = child;
+            } else if (nameStart != null) {
+                break;
+            }
+        }
+
+        return nameStart == null
+               ? null
+               : new TextRange(nameStart.getStartOffset(), nameEnd.getStartOffset() + nameEnd.getTextLength());
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + getElementType() + ")";
+    }
+}
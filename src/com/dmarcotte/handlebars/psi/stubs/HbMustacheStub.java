@@ -0,0 +1,25 @@
+package com.dmarcotte.handlebars.psi.stubs;
+
+import com.dmarcotte.handlebars.psi.HbPsiElement;
+import com.intellij.psi.stubs.StubElement;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Stub for the mustaches other templates care about: blocks, simple mustaches and partials.  These are what
+ * cross-file features (partial lookups, block outlines, helper lists) need, and a stub tree of them can be read
+ * from the stub index without lexing or parsing the template.
+ */
+public interface HbMustacheStub extends StubElement<HbPsiElement> {
+    /**
+     * @return the mustache's name as written: the helper or path for blocks and simple mustaches
+     *         (i.e. "each" for "{{#each items}}", "foo.bar" for "{{foo.bar}}"), the partial name for partials,
+     *         or null if the mustache has no name
+     */
+    @Nullable
+    String getName();
+
+    /**
+     * @return the offset of the name in the file, or the offset of the mustache if it has no name
+     */
+    int getNameOffset();
+}
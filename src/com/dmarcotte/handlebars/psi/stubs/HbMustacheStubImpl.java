@@ -0,0 +1,29 @@
+package com.dmarcotte.handlebars.psi.stubs;
+
+import com.dmarcotte.handlebars.psi.HbPsiElement;
+import com.intellij.psi.stubs.IStubElementType;
+import com.intellij.psi.stubs.StubBase;
+import com.intellij.psi.stubs.StubElement;
+import org.jetbrains.annotations.Nullable;
+
+public class HbMustacheStubImpl extends StubBase<HbPsiElement> implements HbMustacheStub {
+    private final String myName;
+    private final int myNameOffset;
+
+    public HbMustacheStubImpl(StubElement parent, IStubElementType elementType, @Nullable String name, int nameOffset) {
+        super(parent, elementType);
+        myName = name;
+        myNameOffset = nameOffset;
+    }
+
+    @Nullable
+    @Override
+    public String getName() {
+        return myName;
+    }
+
+    @Override
+    public int getNameOffset() {
+        return myNameOffset;
+    }
+}
@@ -0,0 +1,366 @@
+package com.dmarcotte.handlebars.validation;
+
+import com.dmarcotte.handlebars.file.HbFileType;
+import com.dmarcotte.handlebars.parsing.HbSyntaxTree;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless validator for directories of templates, for use in builds: every Handlebars/Mustache file
+ * (see {@link HbFileType#DEFAULT_EXTENSION}) under the given directories is parsed with the plugin's grammar
+ * (see {@link HbSyntaxTree}), and the errors the plugin would mark in them are reported.
+ * <p>
+ * Run with the plugin and the IDE's util and core jars on the classpath, including the PSI and stub API classes
+ * which {@link HbSyntaxTree}'s element types bring in:
+ * <pre>
+ *     java com.dmarcotte.handlebars.validation.HbBatchValidator [-threads N] [-charset NAME] dir...
+ * </pre>
+ * The report is one JSON object per line for each file, in path order, followed by a summary line (see
+ * {@link FileResult#toJson()} and {@link #summaryJson}).  The exit code is 1 if any file has errors, 2 if any file
+ * couldn't be read, and 0 otherwise.
+ */
+public class HbBatchValidator {
+
+    private static final List<String> EXTENSIONS = Arrays.asList(HbFileType.DEFAULT_EXTENSION.split(";"));
+
+    private final int _threadCount;
+    private final Charset _charset;
+
+    public HbBatchValidator(int threadCount, Charset charset) {
+        _threadCount = threadCount;
+        _charset = charset;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        Charset charset = Charset.forName("UTF-8");
+        List<File> roots = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads") && i + 1 < args.length) {
+                threadCount = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-charset") && i + 1 < args.length) {
+                charset = Charset.forName(args[++i]);
+            } else {
+                roots.add(new File(args[i]));
+            }
+        }
+
+        if (roots.isEmpty()) {
+            System.err.println("Usage: HbBatchValidator [-threads N] [-charset NAME] dir...");
+            System.exit(2);
+        }
+
+        long start = System.nanoTime();
+        List<FileResult> results = new HbBatchValidator(threadCount, charset).validate(roots);
+        long totalTime = System.nanoTime() - start;
+
+        PrintStream out = System.out;
+        int exitCode = 0;
+        for (FileResult result : results) {
+            out.println(result.toJson());
+            if (result.getReadError() != null) {
+                exitCode = 2;
+            } else if (!result.getErrors().isEmpty() && exitCode == 0) {
+                exitCode = 1;
+            }
+        }
+        out.println(summaryJson(results, totalTime));
+        out.flush();
+
+        System.exit(exitCode);
+    }
+
+    /**
+     * Validates all the templates under the given files and directories
+     *
+     * @return the result for each template, in path order
+     */
+    public List<FileResult> validate(List<File> roots) throws InterruptedException {
+        List<File> files = new ArrayList<File>();
+        for (File root : roots) {
+            collectTemplates(root, files);
+        }
+        Collections.sort(files);
+
+        List<Callable<FileResult>> tasks = new ArrayList<Callable<FileResult>>(files.size());
+        for (final File file : files) {
+            tasks.add(new Callable<FileResult>() {
+                @Override
+                public FileResult call() {
+                    return validateFile(file);
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, _threadCount));
+        try {
+            List<FileResult> results = new ArrayList<FileResult>(files.size());
+            for (Future<FileResult> future : executor.invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    // validateFile reports its problems in its result; anything else is a bug
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Reads and parses the given template
+     */
+    public FileResult validateFile(File file) {
+        long start = System.nanoTime();
+        CharBuffer text;
+        try {
+            text = read(file);
+        } catch (IOException e) {
+            return new FileResult(file, System.nanoTime() - start, Collections.<Problem>emptyList(), e.toString());
+        }
+
+        HbSyntaxTree tree = HbSyntaxTree.parse(text);
+        List<Problem> errors = new ArrayList<Problem>(tree.getErrorCount());
+        LineIndex lineIndex = tree.getErrorCount() == 0 ? null : new LineIndex(text);
+        for (int i = 0; i < tree.getErrorCount(); i++) {
+            int errorNode = tree.getErrorNode(i);
+            int offset = tree.getStartOffset(errorNode);
+            errors.add(new Problem(offset, lineIndex.getLine(offset), lineIndex.getColumn(offset),
+                                   tree.getErrorMessage(errorNode)));
+        }
+
+        return new FileResult(file, System.nanoTime() - start, errors, null);
+    }
+
+    /**
+     * Maps the file and decodes it straight out of the mapping; the CharBuffer is the only copy of the text we make
+     */
+    private CharBuffer read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return _charset.newDecoder().decode(bytes);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void collectTemplates(File file, List<File> templates) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    collectTemplates(child, templates);
+                }
+            }
+        } else if (isTemplate(file)) {
+            templates.add(file);
+        }
+    }
+
+    private static boolean isTemplate(File file) {
+        String name = file.getName();
+        int extensionStart = name.lastIndexOf('.');
+        return extensionStart >= 0
+                && EXTENSIONS.contains(name.substring(extensionStart + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * @return the closing line of a report: how many files we checked, how many had errors, and how long it all took
+     */
+    static String summaryJson(List<FileResult> results, long totalTimeNanos) {
+        int filesWithErrors = 0;
+        int errorCount = 0;
+        int unreadableFiles = 0;
+        for (FileResult result : results) {
+            if (result.getReadError() != null) {
+                unreadableFiles++;
+            } else if (!result.getErrors().isEmpty()) {
+                filesWithErrors++;
+                errorCount += result.getErrors().size();
+            }
+        }
+
+        return "{\"summary\":true" +
+                ",\"files\":" + results.size() +
+                ",\"filesWithErrors\":" + filesWithErrors +
+                ",\"errors\":" + errorCount +
+                ",\"unreadableFiles\":" + unreadableFiles +
+                ",\"timeMs\":" + toMillis(totalTimeNanos) + "}";
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format(Locale.ENGLISH, "%.3f", nanos / 1000000.0);
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': quoted.append("\\\""); break;
+                case '\\': quoted.append("\\\\"); break;
+                case '\n': quoted.append("\\n"); break;
+                case '\r': quoted.append("\\r"); break;
+                case '\t': quoted.append("\\t"); break;
+                default:
+                    if (c < ' ') {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * The outcome of validating one template
+     */
+    public static class FileResult {
+        private final File _file;
+        private final long _timeNanos;
+        private final List<Problem> _errors;
+        private final String _readError;
+
+        FileResult(File file, long timeNanos, List<Problem> errors, String readError) {
+            _file = file;
+            _timeNanos = timeNanos;
+            _errors = errors;
+            _readError = readError;
+        }
+
+        public File getFile() {
+            return _file;
+        }
+
+        /**
+         * @return how long it took to read and parse the file
+         */
+        public long getTimeNanos() {
+            return _timeNanos;
+        }
+
+        public List<Problem> getErrors() {
+            return _errors;
+        }
+
+        /**
+         * @return a description of what went wrong reading the file, or null if it was read
+         */
+        public String getReadError() {
+            return _readError;
+        }
+
+        /**
+         * @return e.g. <code>{"file":"a/b.hbs","timeMs":0.412,"errors":[{"offset":12,"line":2,"column":5,"message":"..."}]}</code>,
+         *         with a "readError" rather than "errors" for a file we couldn't read
+         */
+        public String toJson() {
+            StringBuilder json = new StringBuilder("{\"file\":").append(quote(_file.getPath()))
+                    .append(",\"timeMs\":").append(toMillis(_timeNanos));
+            if (_readError != null) {
+                json.append(",\"readError\":").append(quote(_readError));
+            } else {
+                json.append(",\"errors\":[");
+                for (int i = 0; i < _errors.size(); i++) {
+                    Problem error = _errors.get(i);
+                    json.append(i == 0 ? "" : ",")
+                            .append("{\"offset\":").append(error.getOffset())
+                            .append(",\"line\":").append(error.getLine())
+                            .append(",\"column\":").append(error.getColumn())
+                            .append(",\"message\":").append(quote(error.getMessage())).append("}");
+                }
+                json.append("]");
+            }
+            return json.append("}").toString();
+        }
+    }
+
+    /**
+     * An error in a template.  Lines and columns count from 1.
+     */
+    public static class Problem {
+        private final int _offset;
+        private final int _line;
+        private final int _column;
+        private final String _message;
+
+        Problem(int offset, int line, int column, String message) {
+            _offset = offset;
+            _line = line;
+            _column = column;
+            _message = message;
+        }
+
+        public int getOffset() {
+            return _offset;
+        }
+
+        public int getLine() {
+            return _line;
+        }
+
+        public int getColumn() {
+            return _column;
+        }
+
+        public String getMessage() {
+            return _message;
+        }
+    }
+
+    /**
+     * Start offsets of the lines of a text, for turning offsets into lines and columns
+     */
+    private static class LineIndex {
+        private int[] _lineStarts = new int[64];
+        private int _lineCount;
+
+        LineIndex(CharSequence text) {
+            addLineStart(0);
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '\n') {
+                    addLineStart(i + 1);
+                }
+            }
+        }
+
+        private void addLineStart(int offset) {
+            if (_lineCount == _lineStarts.length) {
+                _lineStarts = Arrays.copyOf(_lineStarts, _lineCount * 2);
+            }
+            _lineStarts[_lineCount++] = offset;
+        }
+
+        int getLine(int offset) {
+            int line = Arrays.binarySearch(_lineStarts, 0, _lineCount, offset);
+            // for an offset inside a line, binarySearch gives us -(the next line's index) - 1
+            return (line >= 0 ? line : -line - 2) + 1;
+        }
+
+        int getColumn(int offset) {
+            return offset - _lineStarts[getLine(offset) - 1] + 1;
+        }
+    }
+}
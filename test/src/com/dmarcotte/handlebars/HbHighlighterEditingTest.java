@@ -0,0 +1,95 @@
+package com.dmarcotte.handlebars;
+
+import com.dmarcotte.handlebars.parsing.HbLexer;
+import com.dmarcotte.handlebars.parsing.HbUnclosedCommentCache;
+import com.intellij.lexer.DelegateLexer;
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.ex.util.LexerEditorHighlighter;
+import com.intellij.testFramework.IdeaTestCase;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Drives a real editor highlighter ({@link HbTemplateHighlighter}, a {@link LexerEditorHighlighter} over
+ * {@link HbLexer}) through document edits, checking that the number of tokens it re-lexes per keystroke doesn't
+ * grow with the size of the file.
+ */
+public class HbHighlighterEditingTest extends LightPlatformCodeInsightFixtureTestCase {
+
+    private static final int[] LINE_COUNTS = { 1000, 3000, 10000 };
+    static final int KEYSTROKES = 200;
+
+    public HbHighlighterEditingTest() {
+        IdeaTestCase.initPlatformPrefix();
+    }
+
+    public void testTypingInMustacheDoesNotScaleWithFileSize() {
+        int[] relexedTokens = new int[LINE_COUNTS.length];
+        for (int i = 0; i < LINE_COUNTS.length; i++) {
+            String text = buildTemplate(LINE_COUNTS[i]);
+            // type into the name of a mustache halfway down the file
+            int offset = text.indexOf("{{name", text.length() / 2) + "{{name".length();
+            relexedTokens[i] = countRelexedTokens(text, offset);
+        }
+
+        for (int i = 1; i < LINE_COUNTS.length; i++) {
+            assertEquals("Tokens re-lexed for " + KEYSTROKES + " keystrokes at " + LINE_COUNTS[i] + " lines",
+                         relexedTokens[0], relexedTokens[i]);
+        }
+    }
+
+    static String buildTemplate(int lineCount) {
+        StringBuilder template = new StringBuilder();
+        for (int i = 0; i < lineCount; i++) {
+            template.append("<li>{{#if item").append(i).append("}}{{@index}} {{name \"str\"}}")
+                    .append("{{else}}{{! none }}{{> partial}}{{/if}}</li>\n");
+        }
+        return template.toString();
+    }
+
+    /**
+     * @return the number of tokens the editor highlighter lexes while keeping up with {@link #KEYSTROKES} single
+     *         character inserts at the given offset (the initial lex of the text is left out)
+     */
+    static int countRelexedTokens(String text, final int offset) {
+        final Document document = EditorFactory.getInstance().createDocument(text);
+
+        final int[] tokenCount = new int[1];
+        HbUnclosedCommentCache unclosedCommentCache = new HbUnclosedCommentCache();
+        HbHighlighter countingHighlighter = new HbHighlighter(unclosedCommentCache) {
+            @NotNull
+            @Override
+            public Lexer getHighlightingLexer() {
+                return new DelegateLexer(super.getHighlightingLexer()) {
+                    @Override
+                    public void advance() {
+                        tokenCount[0]++;
+                        super.advance();
+                    }
+                };
+            }
+        };
+        LexerEditorHighlighter highlighter = new HbTemplateHighlighter(
+                null, null, EditorColorsManager.getInstance().getGlobalScheme(), countingHighlighter,
+                unclosedCommentCache);
+        highlighter.setText(document.getCharsSequence());
+        document.addDocumentListener(highlighter);
+        tokenCount[0] = 0;
+
+        ApplicationManager.getApplication().runWriteAction(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < KEYSTROKES; i++) {
+                    document.insertString(offset + i, "x");
+                }
+            }
+        });
+
+        document.removeDocumentListener(highlighter);
+        return tokenCount[0];
+    }
+}
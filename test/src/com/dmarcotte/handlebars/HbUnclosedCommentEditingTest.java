@@ -0,0 +1,134 @@
+package com.dmarcotte.handlebars;
+
+import com.dmarcotte.handlebars.parsing.HbUnclosedCommentCache;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.ex.util.LexerEditorHighlighter;
+import com.intellij.openapi.editor.highlighter.HighlighterIterator;
+import com.intellij.testFramework.IdeaTestCase;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Typing inside an unclosed comment should have the editor highlighter re-lex the same tokens whatever the size of
+ * the file: the lexer hands out unclosed comments a line at a time, and with an {@link HbUnclosedCommentCache}
+ * neither rescans the rest of the file for a close nor has to re-lex the comment through to the end of the file.
+ */
+public class HbUnclosedCommentEditingTest extends LightPlatformCodeInsightFixtureTestCase {
+
+    private static final int[] LINE_COUNTS = { 1000, 3000, 10000 };
+
+    public HbUnclosedCommentEditingTest() {
+        IdeaTestCase.initPlatformPrefix();
+    }
+
+    public void testTypingInUnclosedCommentDoesNotScaleWithFileSize() {
+        int[] relexedTokens = new int[LINE_COUNTS.length];
+        for (int i = 0; i < LINE_COUNTS.length; i++) {
+            String text = "{{!-- \n" + HbHighlighterEditingTest.buildTemplate(LINE_COUNTS[i]);
+            int offset = text.indexOf("<li>", text.length() / 2);
+            relexedTokens[i] = HbHighlighterEditingTest.countRelexedTokens(text, offset);
+        }
+
+        for (int i = 1; i < LINE_COUNTS.length; i++) {
+            assertEquals("Tokens re-lexed for " + HbHighlighterEditingTest.KEYSTROKES + " keystrokes in an unclosed "
+                         + "comment at " + LINE_COUNTS[i] + " lines",
+                         relexedTokens[0], relexedTokens[i]);
+        }
+    }
+
+    /**
+     * The highlighter's tokens should always be the ones a fresh lex of the text would give, including after edits
+     * which close the comment, reopen it, or stop it being a comment at all
+     */
+    public void testHighlightingMatchesFreshLexAfterEdits() {
+        final Document document = EditorFactory.getInstance().createDocument(
+                "<p>{{title}}</p>\n{{!-- \n" + HbHighlighterEditingTest.buildTemplate(200));
+        LexerEditorHighlighter highlighter = createHighlighter();
+        highlighter.setText(document.getCharsSequence());
+        document.addDocumentListener(highlighter);
+
+        final int middle = document.getText().indexOf("<li>", document.getTextLength() / 2);
+        final int commentStart = document.getText().indexOf("{{!--");
+
+        // type inside the comment
+        editAndCheck(document, highlighter, new Runnable() {
+            @Override
+            public void run() {
+                document.insertString(middle, "x\ny");
+            }
+        });
+
+        // close it...
+        final String close = "--}}";
+        for (int i = 0; i < close.length(); i++) {
+            final int closeIndex = i;
+            editAndCheck(document, highlighter, new Runnable() {
+                @Override
+                public void run() {
+                    document.insertString(middle + closeIndex, close.substring(closeIndex, closeIndex + 1));
+                }
+            });
+        }
+
+        // ... and open it again
+        editAndCheck(document, highlighter, new Runnable() {
+            @Override
+            public void run() {
+                document.deleteString(middle, middle + 1);
+            }
+        });
+
+        // type before it
+        editAndCheck(document, highlighter, new Runnable() {
+            @Override
+            public void run() {
+                document.insertString(commentStart - 1, "text");
+            }
+        });
+
+        // turn the comment opener into the start of an unescaped mustache...
+        editAndCheck(document, highlighter, new Runnable() {
+            @Override
+            public void run() {
+                document.insertString(commentStart + "text".length(), "{");
+            }
+        });
+
+        // ... and back
+        editAndCheck(document, highlighter, new Runnable() {
+            @Override
+            public void run() {
+                document.deleteString(commentStart + "text".length(), commentStart + "text".length() + 1);
+            }
+        });
+
+        document.removeDocumentListener(highlighter);
+    }
+
+    private static void editAndCheck(Document document, LexerEditorHighlighter highlighter, Runnable edit) {
+        ApplicationManager.getApplication().runWriteAction(edit);
+
+        LexerEditorHighlighter freshHighlighter = createHighlighter();
+        freshHighlighter.setText(document.getCharsSequence());
+        assertEquals(getTokens(freshHighlighter), getTokens(highlighter));
+    }
+
+    private static LexerEditorHighlighter createHighlighter() {
+        return new HbTemplateHighlighter(null, null, EditorColorsManager.getInstance().getGlobalScheme());
+    }
+
+    private static List<String> getTokens(LexerEditorHighlighter highlighter) {
+        List<String> tokens = new ArrayList<String>();
+        HighlighterIterator iterator = highlighter.createIterator(0);
+        while (!iterator.atEnd()) {
+            tokens.add(iterator.getTokenType() + "[" + iterator.getStart() + "," + iterator.getEnd() + "]");
+            iterator.advance();
+        }
+        return tokens;
+    }
+}
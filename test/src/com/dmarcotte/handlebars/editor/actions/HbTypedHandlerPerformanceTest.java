@@ -0,0 +1,62 @@
+package com.dmarcotte.handlebars.editor.actions;
+
+import com.dmarcotte.handlebars.config.HbConfig;
+import com.dmarcotte.handlebars.file.HbFileType;
+import com.dmarcotte.handlebars.format.FormatterTestSettings;
+import com.dmarcotte.handlebars.util.HbPerformanceTestData;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+
+/**
+ * Typing latency in large templates: {@link HbTypedHandler} runs on every keystroke, so what it costs is what
+ * the user feels
+ */
+public class HbTypedHandlerPerformanceTest extends HbActionHandlerTest {
+
+    // a bit of everything the typed handler has business with: "{{", open blocks, simple inverses and plain text
+    private static final String TYPED_TEXT = "<p>{{#if a}}{{name}}{{else}}none</p>\n";
+
+    private boolean myPrevAutoCloseSetting;
+    private FormatterTestSettings formatterTestSettings;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        myPrevAutoCloseSetting = HbConfig.isAutoGenerateCloseTagEnabled();
+        HbConfig.setAutoGenerateCloseTagEnabled(true);
+
+        formatterTestSettings = new FormatterTestSettings(getProject());
+        formatterTestSettings.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        HbConfig.setAutoGenerateCloseTagEnabled(myPrevAutoCloseSetting);
+        formatterTestSettings.tearDown();
+
+        super.tearDown();
+    }
+
+    public void testTypingInLargeTemplates() {
+        for (int depth : HbPerformanceTestData.DEPTHS) {
+            // budget 10ms a keystroke
+            doTypingPerformanceTest("Typing in " + HbPerformanceTestData.describe(HbPerformanceTestData.LARGE, depth),
+                                    10 * TYPED_TEXT.length(), HbPerformanceTestData.buildTemplate(HbPerformanceTestData.LARGE, depth));
+        }
+    }
+
+    private void doTypingPerformanceTest(String message, int expectedMs, String template) {
+        // type into the middle of the template, where there's tree on both sides of the caret
+        int caretOffset = template.indexOf('\n', template.length() / 2) + 1;
+        myFixture.configureByText(HbFileType.INSTANCE,
+                                  template.substring(0, caretOffset) + "<caret>" + template.substring(caretOffset));
+
+        PlatformTestUtil.startPerformanceTest(message, expectedMs, new ThrowableRunnable() {
+            @Override
+            public void run() throws Throwable {
+                myFixture.type(TYPED_TEXT);
+            }
+        }).cpuBound().assertTiming();
+    }
+}
@@ -79,6 +79,56 @@ public class HbTypedHandlerTest extends HbActionHandlerTest {
         doCharTest('}', "{{^foo bar baz bat=\"bam\"}<caret>", "{{^foo bar baz bat=\"bam\"}}<caret>");
     }
 
+    /**
+     * Retyping the end of an open stache whose block is already closed shouldn't close it again
+     */
+    public void testOpenBlockStacheAlreadyClosed() {
+        HbConfig.setAutoGenerateCloseTagEnabled(true);
+        doCharTest('}', "{{#foo}<caret>\nstuff\n{{/foo}}", "{{#foo}}<caret>\nstuff\n{{/foo}}");
+        doCharTest('}', "{{^foo}<caret>{{/foo}}", "{{^foo}}<caret>{{/foo}}");
+        doCharTest('}', "{{#foo}<caret>{{#bar}}{{/bar}}{{^}}{{^baz}}{{/baz}}{{/foo}}",
+                   "{{#foo}}<caret>{{#bar}}{{/bar}}{{^}}{{^baz}}{{/baz}}{{/foo}}");
+
+        // a close for a nested block of the same name doesn't count...
+        doCharTest('}', "{{#foo}<caret>{{#foo}}{{/foo}}", "{{#foo}}<caret>{{/foo}}{{#foo}}{{/foo}}");
+        // ... and neither does one after the end of the enclosing block
+        doCharTest('}', "{{#if}}{{#foo}<caret>{{/if}}{{/foo}}", "{{#if}}{{#foo}}<caret>{{/foo}}{{/if}}{{/foo}}");
+
+        // a close which belongs to an enclosing block of the same name doesn't count...
+        doCharTest('}', "{{#if a}}{{#if b}<caret>{{/if}}", "{{#if a}}{{#if b}}<caret>{{/if}}{{/if}}");
+        doCharTest('}', "{{#each a}}{{#each b}<caret>\n{{/each}}", "{{#each a}}{{#each b}}<caret>{{/each}}\n{{/each}}");
+        // ... but one after which the enclosing blocks' closes still line up does
+        doCharTest('}', "{{#if a}}{{#if b}<caret>{{/if}}{{/if}}", "{{#if a}}{{#if b}}<caret>{{/if}}{{/if}}");
+        doCharTest('}', "{{#if a}}{{#with c}}{{#if b}<caret>{{/if}}{{/with}}{{/if}}",
+                   "{{#if a}}{{#with c}}{{#if b}}<caret>{{/if}}{{/with}}{{/if}}");
+
+        // a malformed "{{^" doesn't open a block, and doesn't hide the stache which follows it
+        doCharTest('}', "{{#foo}<caret>{{^{{/foo}}", "{{#foo}}<caret>{{^{{/foo}}");
+        doCharTest('}', "{{#foo}<caret>{{^ {{#bar}}{{/bar}}{{/foo}}", "{{#foo}}<caret>{{^ {{#bar}}{{/bar}}{{/foo}}");
+    }
+
+    /**
+     * We only look so far ahead for an existing close; past that, the block is closed as if it had none
+     */
+    public void testOpenBlockStacheCloseTooFarAway() {
+        HbConfig.setAutoGenerateCloseTagEnabled(true);
+
+        // each "{{bar}}" is three tokens
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < HbTypedHandler.MAX_TOKENS_TO_SCAN / 3 + 1; i++) {
+            body.append("{{bar}}");
+        }
+        doCharTest('}', "{{#foo}<caret>" + body + "{{/foo}}", "{{#foo}}<caret>{{/foo}}" + body + "{{/foo}}");
+    }
+
+    /**
+     * "{{else}}" with params opens an inverse block, but has no name for us to close it with
+     */
+    public void testElseStacheWithParams() {
+        HbConfig.setAutoGenerateCloseTagEnabled(true);
+        doCharTest('}', "{{#if}}{{else foo}<caret>", "{{#if}}{{else foo}}<caret>");
+    }
+
     public void testRegularStache() {
         // ensure that nothing special happens for regular 'staches, whether autoGenerateCloseTag is enabled or not
 
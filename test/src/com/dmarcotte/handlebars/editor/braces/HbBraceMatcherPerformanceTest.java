@@ -0,0 +1,71 @@
+package com.dmarcotte.handlebars.editor.braces;
+
+import com.dmarcotte.handlebars.file.HbFileType;
+import com.intellij.codeInsight.highlighting.BraceMatchingUtil;
+import com.intellij.openapi.editor.ex.EditorEx;
+import com.intellij.openapi.editor.highlighter.HighlighterIterator;
+import com.intellij.testFramework.IdeaTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import com.intellij.util.ThrowableRunnable;
+
+/**
+ * Timing tests for {@link HbBraceMatcher}, on the sort of template which used to make it quadratic: a minified
+ * template with all its 'staches on one line, inside a block
+ */
+public class HbBraceMatcherPerformanceTest extends LightPlatformCodeInsightFixtureTestCase {
+
+    // each "{{b}} " is four tokens: OPEN, ID, CLOSE and WHITE_SPACE
+    private static final int MUSTACHE_COUNT = 25000;
+
+    public HbBraceMatcherPerformanceTest() {
+        IdeaTestCase.initPlatformPrefix();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        StringBuilder template = new StringBuilder("<caret>{{#each items}}");
+        for (int i = 0; i < MUSTACHE_COUNT; i++) {
+            template.append("{{b}} ");
+        }
+        template.append("{{/each}}");
+        myFixture.configureByText(HbFileType.INSTANCE, template.toString());
+    }
+
+    /**
+     * Matching the block's braces means passing (and asking about) every close brace in between
+     */
+    public void testMatchBlockBracesOnOneLine() {
+        final int expectedMatch = myFixture.getEditor().getDocument().getTextLength() - "}}".length();
+        PlatformTestUtil.startPerformanceTest("Matching block braces over " + MUSTACHE_COUNT + " 'staches", 200, new ThrowableRunnable() {
+            @Override
+            public void run() throws Throwable {
+                assertEquals(expectedMatch, BraceMatchingUtil.getMatchedBraceOffset(myFixture.getEditor(), true, myFixture.getFile()));
+            }
+        }).cpuBound().assertTiming();
+    }
+
+    /**
+     * Asking about each token in turn, as highlighting the braces around the caret does when the caret moves
+     */
+    public void testRBraceCheckForEveryToken() {
+        final HbBraceMatcher braceMatcher = new HbBraceMatcher();
+        final CharSequence text = myFixture.getEditor().getDocument().getCharsSequence();
+        PlatformTestUtil.startPerformanceTest("Checking " + MUSTACHE_COUNT * 4 + " tokens for right braces", 200, new ThrowableRunnable() {
+            @Override
+            public void run() throws Throwable {
+                int rightBraceCount = 0;
+                HighlighterIterator iterator = ((EditorEx) myFixture.getEditor()).getHighlighter().createIterator(0);
+                for (; !iterator.atEnd(); iterator.advance()) {
+                    if (braceMatcher.isRBraceToken(iterator, text, HbFileType.INSTANCE)) {
+                        rightBraceCount++;
+                    }
+                }
+                // every simple 'stache's close, and the close block's
+                assertEquals(MUSTACHE_COUNT + 1, rightBraceCount);
+            }
+        }).cpuBound().assertTiming();
+    }
+}
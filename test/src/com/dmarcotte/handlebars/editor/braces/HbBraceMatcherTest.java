@@ -2,9 +2,15 @@ package com.dmarcotte.handlebars.editor.braces;
 
 import com.dmarcotte.handlebars.file.HbFileType;
 import com.intellij.codeInsight.highlighting.BraceMatchingUtil;
+import com.intellij.openapi.editor.ex.EditorEx;
+import com.intellij.openapi.editor.highlighter.HighlighterIterator;
 import com.intellij.testFramework.IdeaTestCase;
 import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class HbBraceMatcherTest extends LightPlatformCodeInsightFixtureTestCase {
 
     private static final String ourBraceMatchIndicator = "<brace_match>";
@@ -159,4 +165,32 @@ public class HbBraceMatcherTest extends LightPlatformCodeInsightFixtureTestCase
                         .replace("{{/ foo3 }}", "{{/ foo3 <brace_match>}}")
         );
     }
+
+    /**
+     * The braces which open blocks, and the close braces of the 'staches which close them, are structural;
+     * the rest aren't
+     */
+    public void testStructuralBraces() {
+        myFixture.configureByText(HbFileType.INSTANCE, ourTestSource);
+
+        List<Integer> expectedOffsets = new ArrayList<Integer>();
+        for (String blockOpen : new String[] { "{{# foo1 }}", "{{# foo2 }}", "{{^ foo3 }}", "{{^ foo4 }}" }) {
+            expectedOffsets.add(ourTestSource.indexOf(blockOpen));
+        }
+        for (String blockClose : new String[] { "{{/ foo1 }}", "{{/ foo2 }}", "{{/ foo3 }}", "{{/ foo4 }}" }) {
+            expectedOffsets.add(ourTestSource.indexOf(blockClose) + blockClose.length() - "}}".length());
+        }
+        Collections.sort(expectedOffsets);
+
+        HbBraceMatcher braceMatcher = new HbBraceMatcher();
+        List<Integer> structuralBraceOffsets = new ArrayList<Integer>();
+        HighlighterIterator iterator = ((EditorEx) myFixture.getEditor()).getHighlighter().createIterator(0);
+        for (; !iterator.atEnd(); iterator.advance()) {
+            if (braceMatcher.isStructuralBrace(iterator, ourTestSource, HbFileType.INSTANCE)) {
+                structuralBraceOffsets.add(iterator.getStart());
+            }
+        }
+
+        assertEquals(expectedOffsets, structuralBraceOffsets);
+    }
 }
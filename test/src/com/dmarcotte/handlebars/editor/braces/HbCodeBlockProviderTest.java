@@ -0,0 +1,62 @@
+package com.dmarcotte.handlebars.editor.braces;
+
+import com.dmarcotte.handlebars.file.HbFileType;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.testFramework.IdeaTestCase;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+
+public class HbCodeBlockProviderTest extends LightPlatformCodeInsightFixtureTestCase {
+
+    private static final String ourTestSource =
+            "<p>{{title}}</p>\n" +
+            "{{#each items}}\n" +
+            "    {{#if active}}\n" +
+            "        {{name}}\n" +
+            "    {{else}}\n" +
+            "        none\n" +
+            "    {{/if}}\n" +
+            "{{/each}}\n";
+
+    private static final String EACH_BLOCK = ourTestSource.substring(ourTestSource.indexOf("{{#each"),
+                                                                     ourTestSource.indexOf("{{/each}}") + "{{/each}}".length());
+    private static final String IF_BLOCK = ourTestSource.substring(ourTestSource.indexOf("{{#if"),
+                                                                   ourTestSource.indexOf("{{/if}}") + "{{/if}}".length());
+
+    public HbCodeBlockProviderTest() {
+        IdeaTestCase.initPlatformPrefix();
+    }
+
+    public void testOutsideBlocks() {
+        doCodeBlockTest(ourTestSource.indexOf("title"), null);
+        doCodeBlockTest(ourTestSource.length(), null);
+    }
+
+    public void testInBlock() {
+        doCodeBlockTest(ourTestSource.indexOf("{{#each"), EACH_BLOCK);
+        doCodeBlockTest(ourTestSource.indexOf("items"), EACH_BLOCK);
+        doCodeBlockTest(ourTestSource.indexOf("{{/each"), EACH_BLOCK);
+    }
+
+    public void testInNestedBlock() {
+        doCodeBlockTest(ourTestSource.indexOf("active"), IF_BLOCK);
+        doCodeBlockTest(ourTestSource.indexOf("else"), IF_BLOCK);
+        doCodeBlockTest(ourTestSource.indexOf("none"), IF_BLOCK);
+    }
+
+    /**
+     * The end of a block is outside it, so moving to the end of the inner block, then to the end of the block
+     * around the caret again, takes us to the end of the outer one
+     */
+    public void testAtEndOfNestedBlock() {
+        doCodeBlockTest(ourTestSource.indexOf("{{/if}}") + "{{/if}}".length(), EACH_BLOCK);
+    }
+
+    private void doCodeBlockTest(int caretOffset, String expectedBlock) {
+        myFixture.configureByText(HbFileType.INSTANCE, ourTestSource);
+        myFixture.getEditor().getCaretModel().moveToOffset(caretOffset);
+
+        TextRange range = new HbCodeBlockProvider().getCodeBlockRange(myFixture.getEditor(), myFixture.getFile());
+
+        assertEquals(expectedBlock, range == null ? null : range.substring(ourTestSource));
+    }
+}
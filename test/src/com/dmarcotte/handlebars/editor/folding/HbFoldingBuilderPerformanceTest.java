@@ -0,0 +1,89 @@
+package com.dmarcotte.handlebars.editor.folding;
+
+import com.dmarcotte.handlebars.file.HbFileType;
+import com.dmarcotte.handlebars.util.HbPerformanceTestData;
+import com.intellij.lang.ASTNode;
+import com.intellij.openapi.editor.Document;
+import com.intellij.testFramework.IdeaTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import com.intellij.util.ThrowableRunnable;
+
+/**
+ * Timing tests for {@link HbFoldingBuilder#buildFoldRegions} (and the pass behind it,
+ * {@link HbFoldingBuilder#computeFoldRegions}) on large templates
+ */
+public class HbFoldingBuilderPerformanceTest extends LightPlatformCodeInsightFixtureTestCase {
+
+    public HbFoldingBuilderPerformanceTest() {
+        IdeaTestCase.initPlatformPrefix();
+    }
+
+    public void testFoldingScaling() {
+        int[] sizes = { HbPerformanceTestData.SMALL, HbPerformanceTestData.MEDIUM };
+        for (int size : sizes) {
+            for (int depth : HbPerformanceTestData.DEPTHS) {
+                // budget 10ms per 10KB, with a floor for the small templates
+                doFoldingPerformanceTest("Building folds for " + HbPerformanceTestData.describe(size, depth),
+                                         Math.max(50, size / 1024), HbPerformanceTestData.buildTemplate(size, depth));
+            }
+        }
+    }
+
+    /**
+     * Ten thousand multi-line blocks, nested a few deep, each with a comment: every one of them is a region
+     */
+    public void testFoldingTenThousandBlocks() {
+        StringBuilder template = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            template.append("{{#each items").append(i).append("}}\n")
+                    .append("  {{!-- item\n  --}}\n")
+                    .append("  <li>{{name}}</li>\n");
+            if (i % 4 == 3) {
+                // close this block and the three opened before it
+                for (int j = 0; j < 4; j++) {
+                    template.append("{{/each}}\n");
+                }
+            }
+        }
+
+        doFoldingPerformanceTest("Building folds for 10000 blocks", 200, template.toString());
+        assertEquals(20000, new HbFoldingBuilder().buildFoldRegions(myFixture.getFile().getNode(), myFixture.getEditor().getDocument()).length);
+    }
+
+    /**
+     * Folding passes over a document which hasn't changed since the last one shouldn't cost anything
+     */
+    public void testFoldingUnchangedTemplate() {
+        String template = HbPerformanceTestData.buildTemplate(HbPerformanceTestData.MEDIUM, 10);
+        myFixture.configureByText(HbFileType.INSTANCE, template);
+        final ASTNode fileNode = myFixture.getFile().getNode();
+        final Document document = myFixture.getEditor().getDocument();
+        final HbFoldingBuilder foldingBuilder = new HbFoldingBuilder();
+        foldingBuilder.buildFoldRegions(fileNode, document);
+
+        PlatformTestUtil.startPerformanceTest("Building folds for an unchanged " + HbPerformanceTestData.describe(template.length(), 10),
+                                              5, new ThrowableRunnable() {
+            @Override
+            public void run() throws Throwable {
+                for (int i = 0; i < 100; i++) {
+                    foldingBuilder.buildFoldRegions(fileNode, document);
+                }
+            }
+        }).cpuBound().assertTiming();
+    }
+
+    private void doFoldingPerformanceTest(String message, int expectedMs, String template) {
+        myFixture.configureByText(HbFileType.INSTANCE, template);
+        final ASTNode fileNode = myFixture.getFile().getNode();
+        final Document document = myFixture.getEditor().getDocument();
+
+        PlatformTestUtil.startPerformanceTest(message, expectedMs, new ThrowableRunnable() {
+            @Override
+            public void run() throws Throwable {
+                // time the pass itself, not the regions buildFoldRegions keeps from one run to the next
+                HbFoldingBuilder.computeFoldRegions(fileNode, document);
+            }
+        }).cpuBound().assertTiming();
+    }
+}
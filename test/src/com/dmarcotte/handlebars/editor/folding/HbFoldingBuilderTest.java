@@ -1,6 +1,12 @@
 package com.dmarcotte.handlebars.editor.folding;
 
+import com.dmarcotte.handlebars.file.HbFileType;
 import com.dmarcotte.handlebars.util.HbTestUtils;
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.folding.FoldingDescriptor;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.PsiDocumentManager;
 import com.intellij.testFramework.IdeaTestCase;
 import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
 
@@ -21,6 +27,33 @@ public class HbFoldingBuilderTest extends LightPlatformCodeInsightFixtureTestCas
     public void testCommentFolds() { doTest(); }
     public void testInverseBlockCodeFolds() { doTest(); }
 
+    /**
+     * Regions are kept between folding passes, but only until the document changes
+     */
+    public void testFoldsUpdateAfterEdit() {
+        myFixture.configureByText(HbFileType.INSTANCE, "{{#foo}}\n    stuff\n{{/foo}}\n");
+        HbFoldingBuilder foldingBuilder = new HbFoldingBuilder();
+        ASTNode fileNode = myFixture.getFile().getNode();
+        final Document document = myFixture.getEditor().getDocument();
+
+        FoldingDescriptor[] descriptors = foldingBuilder.buildFoldRegions(fileNode, document);
+        assertEquals(1, descriptors.length);
+        assertSame(descriptors, foldingBuilder.buildFoldRegions(fileNode, document));
+
+        ApplicationManager.getApplication().runWriteAction(new Runnable() {
+            @Override
+            public void run() {
+                document.insertString(0, "{{!\n    comment\n}}\n");
+            }
+        });
+        PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+
+        descriptors = foldingBuilder.buildFoldRegions(myFixture.getFile().getNode(), document);
+        assertEquals(2, descriptors.length);
+        assertEquals("\n    comment\n", descriptors[0].getRange().substring(document.getText()));
+        assertEquals("}}\n    stuff\n{{/foo", descriptors[1].getRange().substring(document.getText()));
+    }
+
     /**
      * Test folding based by validating against a the file in {@link #TEST_DATA_PATH} who
      * names matches the test.<br/>
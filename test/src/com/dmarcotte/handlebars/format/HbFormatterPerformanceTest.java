@@ -0,0 +1,67 @@
+package com.dmarcotte.handlebars.format;
+
+import com.dmarcotte.handlebars.util.HbPerformanceTestData;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.CommandProcessor;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.codeStyle.CodeStyleManager;
+import com.intellij.testFramework.LightIdeaTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+
+/**
+ * Timing tests for {@link HbFormattingModelBuilder}: "Reformat Code" on large templates
+ */
+public class HbFormatterPerformanceTest extends LightIdeaTestCase implements HbFormattingModelBuilderTest {
+
+    private final FormatterTestSettings formatterTestSettings = new FormatterTestSettings(getProject());
+
+    @Override
+    protected void setUp()
+            throws Exception {
+        super.setUp();
+
+        formatterTestSettings.setUp();
+    }
+
+    @Override
+    protected void tearDown()
+            throws Exception {
+        formatterTestSettings.tearDown();
+
+        super.tearDown();
+    }
+
+    public void testFormatScaling() {
+        // the formatter also has to format the templated HTML, so we stick to the smaller sizes here
+        int[] sizes = { HbPerformanceTestData.SMALL, HbPerformanceTestData.MEDIUM };
+        for (int size : sizes) {
+            for (int depth : HbPerformanceTestData.DEPTHS) {
+                // budget 500ms per 10KB
+                doFormatPerformanceTest("Formatting " + HbPerformanceTestData.describe(size, depth),
+                                        size / 20, HbPerformanceTestData.buildTemplate(size, depth));
+            }
+        }
+    }
+
+    private void doFormatPerformanceTest(String message, int expectedMs, String template) {
+        final PsiFile file = createFile("A.hbs", template);
+
+        PlatformTestUtil.startPerformanceTest(message, expectedMs, new ThrowableRunnable() {
+            @Override
+            public void run() throws Throwable {
+                CommandProcessor.getInstance().executeCommand(getProject(), new Runnable() {
+                    @Override
+                    public void run() {
+                        ApplicationManager.getApplication().runWriteAction(new Runnable() {
+                            @Override
+                            public void run() {
+                                CodeStyleManager.getInstance(getProject()).reformat(file);
+                            }
+                        });
+                    }
+                }, "", "");
+            }
+        }).cpuBound().assertTiming();
+    }
+}
@@ -0,0 +1,41 @@
+package com.dmarcotte.handlebars.index;
+
+import com.dmarcotte.handlebars.util.HbTemplateGenerator;
+import com.intellij.testFramework.IdeaTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import com.intellij.util.ThrowableRunnable;
+
+/**
+ * Timing test for building {@link HbHelperIndex} over a generated 10,000 file corpus, the size of a large monorepo.
+ * We time our indexer over each file's text (i.e. the part of an index build which is ours), not the platform's storage.
+ */
+public class HbHelperIndexPerformanceTest extends LightPlatformCodeInsightFixtureTestCase {
+
+    private static final int FILE_COUNT = 10000;
+    private static final int FILE_SIZE = 4 * 1024;
+
+    public HbHelperIndexPerformanceTest() {
+        IdeaTestCase.initPlatformPrefix();
+    }
+
+    public void testIndexGeneratedCorpus() {
+        final String[] corpus = new String[FILE_COUNT];
+        int corpusSize = 0;
+        for (int i = 0; i < FILE_COUNT; i++) {
+            corpus[i] = new HbTemplateGenerator(i).size(FILE_SIZE).depth(i % 10).commentRatio(0.05).generate();
+            corpusSize += corpus[i].length();
+        }
+
+        // budget 50ms per MB of templates (i.e. 2s for the 40MB corpus)
+        PlatformTestUtil.startPerformanceTest("Indexing helpers in " + FILE_COUNT + " templates (" + corpusSize / (1024 * 1024) + "MB)",
+                                              50 * corpusSize / (1024 * 1024), new ThrowableRunnable() {
+            @Override
+            public void run() throws Throwable {
+                for (String template : corpus) {
+                    HbHelperIndex.indexHelpers(template);
+                }
+            }
+        }).cpuBound().assertTiming();
+    }
+}
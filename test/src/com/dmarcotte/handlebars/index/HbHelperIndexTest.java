@@ -0,0 +1,67 @@
+package com.dmarcotte.handlebars.index;
+
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.testFramework.IdeaTestCase;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class HbHelperIndexTest extends LightPlatformCodeInsightFixtureTestCase {
+
+    public HbHelperIndexTest() {
+        IdeaTestCase.initPlatformPrefix();
+    }
+
+    public void testBlockHelpers() {
+        String text = "{{#each items}}{{#if active}}x{{/if}}{{^unless ok}}y{{/unless}}{{/each}}";
+        Map<String, List<Integer>> helpers = HbHelperIndex.indexHelpers(text);
+
+        assertEquals(3, helpers.size());
+        assertEquals(Arrays.asList(text.indexOf("each")), helpers.get("each"));
+        assertEquals(Arrays.asList(text.indexOf("if")), helpers.get("if"));
+        assertEquals(Arrays.asList(text.indexOf("unless")), helpers.get("unless"));
+    }
+
+    public void testMustacheHelpersNeedParams() {
+        String text = "{{link 'home'}} {{{ raw body }}} {{format total=1}} {{@index}} {{name}} {{user.name arg}}";
+        Map<String, List<Integer>> helpers = HbHelperIndex.indexHelpers(text);
+
+        assertEquals(3, helpers.size());
+        assertEquals(Arrays.asList(text.indexOf("link")), helpers.get("link"));
+        assertEquals(Arrays.asList(text.indexOf("raw")), helpers.get("raw"));
+        assertEquals(Arrays.asList(text.indexOf("format")), helpers.get("format"));
+    }
+
+    public void testPathsAreNotHelpers() {
+        assertEquals(Collections.<String, List<Integer>>emptyMap(), HbHelperIndex.indexHelpers("{{#person.address}}{{/person.address}}{{#../up}}{{/../up}}"));
+    }
+
+    public void testUsageCountsAcrossFiles() {
+        myFixture.addFileToProject("a.hbs", "{{#each a}}{{#each b}}{{/each}}{{/each}}{{t 'key'}}");
+        myFixture.addFileToProject("b.mustache", "{{#each c}}{{/each}}");
+
+        GlobalSearchScope scope = GlobalSearchScope.allScope(getProject());
+        assertEquals(3, HbHelperIndex.getUsageCount("each", scope));
+        assertEquals(1, HbHelperIndex.getUsageCount("t", scope));
+        assertEquals(0, HbHelperIndex.getUsageCount("unused", scope));
+        assertTrue(HbHelperIndex.getAllHelperNames(getProject()).containsAll(Arrays.asList("each", "t")));
+    }
+
+    public void testUpdatesWhenFileChanges() {
+        PsiFile file = myFixture.addFileToProject("a.hbs", "{{#if a}}{{/if}}");
+        GlobalSearchScope scope = GlobalSearchScope.allScope(getProject());
+        assertEquals(1, HbHelperIndex.getUsageCount("if", scope));
+
+        myFixture.configureFromExistingVirtualFile(file.getVirtualFile());
+        myFixture.type("{{#with b}}{{/with}}");
+        PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+
+        assertEquals(1, HbHelperIndex.getUsageCount("with", scope));
+        assertEquals(1, HbHelperIndex.getUsageCount("if", scope));
+    }
+}
@@ -0,0 +1,149 @@
+package com.dmarcotte.handlebars.index;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.testFramework.IdeaTestCase;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+public class HbPartialGraphTest extends LightPlatformCodeInsightFixtureTestCase {
+
+    public HbPartialGraphTest() {
+        IdeaTestCase.initPlatformPrefix();
+    }
+
+    public void testTransitiveIncludes() {
+        VirtualFile layout = addTemplate("layout.hbs", "{{> header}}<main>{{> content}}</main>");
+        VirtualFile header = addTemplate("partials/header.hbs", "{{> nav/menu}}");
+        VirtualFile content = addTemplate("partials/content.hbs", "<p>content</p>");
+        VirtualFile menu = addTemplate("partials/nav/menu.mustache", "<ul></ul>");
+
+        HbPartialGraph graph = HbPartialGraph.getInstance(getProject());
+        assertTrue(graph.includes(layout, menu));
+        assertTrue(graph.includes(header, menu));
+        assertFalse(graph.includes(menu, layout));
+        assertFalse(graph.includes(layout, layout));
+        assertSameFiles(Arrays.asList(header, content, menu), graph.getTransitiveIncludes(layout));
+        assertEquals(0, graph.findCycles().size());
+    }
+
+    public void testCycles() {
+        VirtualFile a = addTemplate("a.hbs", "{{> b}}");
+        VirtualFile b = addTemplate("b.hbs", "{{> c}}");
+        VirtualFile c = addTemplate("c.hbs", "{{> a}}");
+        VirtualFile self = addTemplate("self.hbs", "{{> self}}");
+        VirtualFile outside = addTemplate("outside.hbs", "{{> a}}");
+
+        HbPartialGraph graph = HbPartialGraph.getInstance(getProject());
+        assertTrue(graph.isInCycle(a));
+        assertTrue(graph.isInCycle(self));
+        assertFalse(graph.isInCycle(outside));
+        assertTrue(graph.includes(a, a));
+        assertTrue(graph.includes(outside, c));
+        assertSameFiles(Arrays.asList(a, b, c), graph.getCycle(b));
+        assertEquals(2, graph.findCycles().size());
+    }
+
+    public void testUpdatesWhenTemplatesChange() throws IOException {
+        VirtualFile a = addTemplate("a.hbs", "{{> b}}");
+        VirtualFile b = addTemplate("b.hbs", "{{> a}}");
+
+        HbPartialGraph graph = HbPartialGraph.getInstance(getProject());
+        assertTrue(graph.isInCycle(a));
+
+        setText(b, "<p>no more includes</p>");
+        assertFalse(graph.isInCycle(a));
+        assertTrue(graph.includes(a, b));
+
+        // a new template can complete a new cycle
+        setText(b, "{{> c}}");
+        assertFalse(graph.isInCycle(a));
+        VirtualFile c = addTemplate("c.hbs", "{{> a}}");
+        assertTrue(graph.isInCycle(a));
+        assertTrue(graph.includes(b, c));
+
+        // and deleting one can break it
+        delete(c);
+        assertFalse(graph.isInCycle(a));
+    }
+
+    public void testUpdatesOnUnsavedEdits() {
+        VirtualFile a = addTemplate("a.hbs", "{{> b}}");
+        VirtualFile b = addTemplate("b.hbs", "<p>b</p>");
+
+        HbPartialGraph graph = HbPartialGraph.getInstance(getProject());
+        assertFalse(graph.isInCycle(a));
+
+        // an edit which doesn't touch a partial leaves the graph as it was...
+        editDocument(a, "<p>a</p>{{> b}}");
+        assertTrue(graph.includes(a, b));
+        assertFalse(graph.isInCycle(a));
+
+        // ... and one which adds one links it in
+        editDocument(b, "{{> a}}");
+        assertTrue(graph.isInCycle(a));
+        assertSameFiles(Arrays.asList(a, b), graph.getCycle(b));
+    }
+
+    private void editDocument(VirtualFile file, final String text) {
+        final Document document = FileDocumentManager.getInstance().getDocument(file);
+        assertNotNull(document);
+        ApplicationManager.getApplication().runWriteAction(new Runnable() {
+            @Override
+            public void run() {
+                document.setText(text);
+            }
+        });
+        PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+    }
+
+    private VirtualFile addTemplate(String path, String text) {
+        return myFixture.addFileToProject(path, text).getVirtualFile();
+    }
+
+    private static void setText(final VirtualFile file, final String text) throws IOException {
+        final IOException[] exception = { null };
+        ApplicationManager.getApplication().runWriteAction(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    VfsUtil.saveText(file, text);
+                } catch (IOException e) {
+                    exception[0] = e;
+                }
+            }
+        });
+        if (exception[0] != null) {
+            throw exception[0];
+        }
+    }
+
+    private void delete(final VirtualFile file) throws IOException {
+        final IOException[] exception = { null };
+        ApplicationManager.getApplication().runWriteAction(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    file.delete(this);
+                } catch (IOException e) {
+                    exception[0] = e;
+                }
+            }
+        });
+        if (exception[0] != null) {
+            throw exception[0];
+        }
+    }
+
+    private static void assertSameFiles(List<VirtualFile> expected, List<VirtualFile> actual) {
+        assertEquals(new HashSet<VirtualFile>(expected), new HashSet<VirtualFile>(actual));
+    }
+}
@@ -0,0 +1,96 @@
+package com.dmarcotte.handlebars.index;
+
+import com.dmarcotte.handlebars.psi.HbPartial;
+import com.dmarcotte.handlebars.psi.HbPsiUtil;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.searches.ReferencesSearch;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.testFramework.IdeaTestCase;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import com.intellij.util.indexing.FileBasedIndex;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class HbPartialIndexTest extends LightPlatformCodeInsightFixtureTestCase {
+
+    public HbPartialIndexTest() {
+        IdeaTestCase.initPlatformPrefix();
+    }
+
+    public void testIndexesPartialNamesWithTheirOffsets() {
+        String text = "{{> header}}<div>{{> path/to/partial}}</div>{{>header}}";
+        myFixture.addFileToProject("page.hbs", text);
+
+        List<List<Integer>> headerOffsets = FileBasedIndex.getInstance().getValues(
+                HbPartialIndex.NAME, "header", GlobalSearchScope.allScope(getProject()));
+        assertEquals(1, headerOffsets.size());
+        assertEquals(Arrays.asList(text.indexOf("header"), text.lastIndexOf("header")), headerOffsets.get(0));
+
+        List<List<Integer>> pathOffsets = FileBasedIndex.getInstance().getValues(
+                HbPartialIndex.NAME, "path/to/partial", GlobalSearchScope.allScope(getProject()));
+        assertEquals(1, pathOffsets.size());
+        assertEquals(Arrays.asList(text.indexOf("path/to/partial")), pathOffsets.get(0));
+    }
+
+    public void testResolvesPartialToTemplate() {
+        PsiFile partialFile = myFixture.addFileToProject("templates/path/to/partial.hbs", "<p>partial</p>");
+        myFixture.addFileToProject("templates/other/partial.hbs", "<p>not this one</p>");
+        myFixture.configureByText("page.hbs", "{{> path/to/par<caret>tial}}");
+
+        PsiReference reference = myFixture.getFile().findReferenceAt(myFixture.getCaretOffset());
+        assertNotNull(reference);
+        assertEquals(partialFile, reference.resolve());
+    }
+
+    public void testFindsUsagesOfPartialTemplate() {
+        PsiFile partialFile = myFixture.addFileToProject("templates/path/to/partial.hbs", "<p>partial</p>");
+        myFixture.addFileToProject("templates/page.hbs", "{{> path/to/partial}}{{> to/partial}}");
+        myFixture.addFileToProject("templates/other.mustache", "{{> partial}}{{> elsewhere/partial}}");
+
+        Collection<PsiReference> references = ReferencesSearch.search(partialFile).findAll();
+
+        // the platform's text search may turn up some of the same references, so count the partials they're in
+        Set<String> partialUsages = new HashSet<String>();
+        for (PsiReference reference : references) {
+            if (reference.getElement() instanceof HbPartial) {
+                partialUsages.add(reference.getElement().getContainingFile().getName() + ":"
+                                  + reference.getElement().getTextRange().getStartOffset());
+            }
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("page.hbs:0", "page.hbs:21", "other.mustache:0")), partialUsages);
+    }
+
+    public void testFindsUsagesByAnyNameForTemplate() {
+        PsiFile partialFile = myFixture.addFileToProject("templates/path/to/partial.hbs", "<p>partial</p>");
+        myFixture.addFileToProject("templates/page.hbs", "{{> /templates/path/to/partial}}{{> to/partial/}}");
+
+        List<String> partialNames = HbPsiUtil.getPartialNames(partialFile.getVirtualFile());
+        assertTrue(partialNames.containsAll(Arrays.asList("partial", "to/partial/", "/templates/path/to/partial")));
+
+        Set<String> partialUsages = new HashSet<String>();
+        for (PsiReference reference : ReferencesSearch.search(partialFile).findAll()) {
+            if (reference.getElement() instanceof HbPartial) {
+                partialUsages.add(reference.getElement().getContainingFile().getName() + ":"
+                                  + reference.getElement().getTextRange().getStartOffset());
+            }
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("page.hbs:0", "page.hbs:32")), partialUsages);
+    }
+
+    public void testRenamingTemplateRenamesPartials() {
+        PsiFile partialFile = myFixture.addFileToProject("templates/path/to/partial.hbs", "<p>partial</p>");
+        PsiFile pageFile = myFixture.addFileToProject("templates/page.hbs", "{{> path/to/partial}}");
+
+        myFixture.renameElement(partialFile, "renamed.hbs");
+
+        HbPartial partial = PsiTreeUtil.findChildOfType(pageFile, HbPartial.class);
+        assertNotNull(partial);
+        assertEquals("path/to/renamed", partial.getPartialName());
+    }
+}
@@ -0,0 +1,139 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.file.HbFileType;
+import com.dmarcotte.handlebars.psi.HbBlockWrapper;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.CommandProcessor;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiFileFactory;
+import com.intellij.psi.impl.DebugUtil;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.testFramework.IdeaTestCase;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+
+import java.util.Collection;
+
+/**
+ * Tests for {@link HbBlockWrapperElementType}: which edits may be reparsed within their block, and that doing so
+ * gives the same PSI as parsing the edited file from scratch
+ */
+public class HbBlockWrapperReparseTest extends LightPlatformCodeInsightFixtureTestCase {
+
+    private static final String TEMPLATE =
+            "<ul>\n" +
+            "{{#each items}}\n" +
+            "    <li>{{name}}</li>\n" +
+            "    {{#if active}}\n" +
+            "        {{! active items get a badge }}\n" +
+            "        <span>{{badge}}</span>\n" +
+            "    {{else}}\n" +
+            "        {{> inactiveBadge}}\n" +
+            "    {{/if}}\n" +
+            "{{/each}}\n" +
+            "</ul>\n" +
+            "{{#with footer}}\n" +
+            "    <p>{{text}}</p>\n" +
+            "{{/with}}\n";
+
+    public HbBlockWrapperReparseTest() {
+        IdeaTestCase.initPlatformPrefix();
+    }
+
+    public void testWellFormedBlocksAreParsable() {
+        assertParsable("{{#if foo}}{{/if}}");
+        assertParsable("{{#each items}}\n  <li>{{name}}</li>\n{{/each}}");
+        assertParsable("{{^empty}}nothing{{/empty}}");
+        assertParsable("{{#if foo}}a{{else}}b{{/if}}");
+        assertParsable("{{#if foo}}a{{^}}b{{/if}}");
+        assertParsable("{{#if foo}}{{#if bar}}a{{else}}b{{/if}}{{else}}c{{/if}}");
+        assertParsable("{{#foo.bar baz=\"qux\"}}{{! comment }}{{> partial}}{{/foo.bar}}");
+    }
+
+    public void testMalformedBlocksAreNotParsable() {
+        assertNotParsable("");
+        assertNotParsable("content {{#if foo}}{{/if}}");
+        assertNotParsable("{{#if foo}}{{/if}} content");
+        assertNotParsable("{{#if foo}}{{/if}}{{#if bar}}{{/if}}");
+        assertNotParsable("{{#if foo}}");
+        assertNotParsable("{{#if foo}}{{/iff}}");
+        assertNotParsable("{{#if foo}}{{#if bar}}{{/if}}");
+        assertNotParsable("{{#if foo}}a{{else}}b{{else}}c{{/if}}");
+        assertNotParsable("{{# }}{{/if}}");
+        assertNotParsable("{{#if foo}}{{!-- unclosed {{/if}}");
+        assertNotParsable("{{#if foo}}{{bar %}}{{/if}}");
+        assertNotParsable("{{#if foo}}{{/if");
+    }
+
+    public void testTypingInsideNestedBlock() {
+        doReparseTest(TEMPLATE.indexOf("<span>") + "<span>".length(), "new ", true);
+    }
+
+    public void testAddingMustacheInsideBlock() {
+        doReparseTest(TEMPLATE.indexOf("<li>") + "<li>".length(), "{{#if first}}1st{{/if}} ", true);
+    }
+
+    public void testUnbalancingEditFallsBackToFullReparse() {
+        doReparseTest(TEMPLATE.indexOf("<span>"), "{{#if broken}}", false);
+    }
+
+    public void testBreakingCloseTagName() {
+        doReparseTest(TEMPLATE.indexOf("{{/if}}") + "{{/if".length(), "f", false);
+    }
+
+    /**
+     * Inserts textToInsert at offset and checks that the resulting PSI matches a from-scratch parse of the new text
+     *
+     * @param reparsedInBlock whether the edit is one we expect to be reparsed within the block it's in, in which
+     *                        case the PSI for the block after it should survive untouched
+     */
+    private void doReparseTest(final int offset, final String textToInsert, boolean reparsedInBlock) {
+        myFixture.configureByText(HbFileType.INSTANCE, TEMPLATE);
+        final PsiFile file = myFixture.getFile();
+        final Document document = myFixture.getEditor().getDocument();
+
+        Collection<HbBlockWrapper> blocksBefore = PsiTreeUtil.findChildrenOfType(file, HbBlockWrapper.class);
+        HbBlockWrapper footerBlock = null;
+        for (HbBlockWrapper block : blocksBefore) {
+            if (block.getText().startsWith("{{#with")) {
+                footerBlock = block;
+            }
+        }
+        assertNotNull(footerBlock);
+
+        CommandProcessor.getInstance().executeCommand(getProject(), new Runnable() {
+            @Override
+            public void run() {
+                ApplicationManager.getApplication().runWriteAction(new Runnable() {
+                    @Override
+                    public void run() {
+                        document.insertString(offset, textToInsert);
+                        PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+                    }
+                });
+            }
+        }, "", "");
+
+        PsiFile freshFile = PsiFileFactory.getInstance(getProject())
+                .createFileFromText("fresh.hbs", HbFileType.INSTANCE, document.getText());
+
+        assertEquals(DebugUtil.psiToString(freshFile, false), DebugUtil.psiToString(file, false));
+        if (reparsedInBlock) {
+            // the block after the edit is none of the reparse's business
+            assertTrue(footerBlock.isValid());
+        }
+    }
+
+    private static void assertParsable(String text) {
+        assertTrue("Expected to be able to reparse " + text, isParsable(text));
+    }
+
+    private static void assertNotParsable(String text) {
+        assertFalse("Expected not to be able to reparse " + text, isParsable(text));
+    }
+
+    private static boolean isParsable(String text) {
+        return ((HbBlockWrapperElementType) HbTokenTypes.BLOCK_WRAPPER).isParsable(text, null);
+    }
+}
@@ -0,0 +1,117 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.editor.folding.HbFoldingBuilder;
+import com.dmarcotte.handlebars.file.HbFileType;
+import com.dmarcotte.handlebars.util.HbPerformanceTestData;
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiBuilderFactory;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.util.ProgressIndicatorBase;
+import com.intellij.testFramework.IdeaTestCase;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests that parsing and folding a large template in a background read action give way promptly when it's canceled,
+ * so that a write action (i.e. the user's typing) doesn't have to wait for them to get to the end of the file
+ */
+public class HbCancellationTest extends LightPlatformCodeInsightFixtureTestCase {
+
+    /**
+     * How long a write action may wait on a canceled read action before we consider the user to have noticed
+     */
+    private static final long MAX_WRITE_ACTION_WAIT_MS = 100;
+
+    public HbCancellationTest() {
+        IdeaTestCase.initPlatformPrefix();
+    }
+
+    public void testWriteActionWaitsBrieflyOnParsing() throws Exception {
+        final String template = HbPerformanceTestData.buildTemplate(HbPerformanceTestData.LARGE, 10);
+        final HbParseDefinition parseDefinition = new HbParseDefinition();
+
+        assertWriteActionWaitsBriefly("parsing", new Runnable() {
+            @Override
+            public void run() {
+                PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(parseDefinition, new HbLexer(), template);
+                new HbParser().parse(parseDefinition.getFileNodeType(), builder);
+            }
+        });
+    }
+
+    public void testWriteActionWaitsBrieflyOnFolding() throws Exception {
+        myFixture.configureByText(HbFileType.INSTANCE, HbPerformanceTestData.buildTemplate(HbPerformanceTestData.LARGE, 10));
+        final ASTNode fileNode = myFixture.getFile().getNode();
+        final Document document = myFixture.getEditor().getDocument();
+
+        assertWriteActionWaitsBriefly("folding", new Runnable() {
+            @Override
+            public void run() {
+                // buildFoldRegions would hand back the regions it found the first time round; we want the work
+                HbFoldingBuilder.computeFoldRegions(fileNode, document);
+            }
+        });
+    }
+
+    /**
+     * Runs work over and over in a background read action, then cancels it partway through and measures how long
+     * a write action has to wait for the read action to finish
+     */
+    private static void assertWriteActionWaitsBriefly(String description, final Runnable work) throws Exception {
+        final ProgressIndicatorBase indicator = new ProgressIndicatorBase();
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean canceled = new AtomicBoolean(false);
+
+        Future<?> readAction = ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ProgressManager.getInstance().runProcess(new Runnable() {
+                        @Override
+                        public void run() {
+                            ApplicationManager.getApplication().runReadAction(new Runnable() {
+                                @Override
+                                public void run() {
+                                    started.countDown();
+                                    // the work itself never checks for cancellation: only the code under test can
+                                    // stop it early (and if that code doesn't, the write action waits for all of it)
+                                    for (int i = 0; i < 20; i++) {
+                                        work.run();
+                                    }
+                                }
+                            });
+                        }
+                    }, indicator);
+                } catch (ProcessCanceledException e) {
+                    canceled.set(true);
+                }
+            }
+        });
+
+        started.await();
+        // let the read action get well into the template before we interrupt it
+        Thread.sleep(200);
+
+        long start = System.nanoTime();
+        indicator.cancel();
+        ApplicationManager.getApplication().runWriteAction(new Runnable() {
+            @Override
+            public void run() {
+                // nothing to do: we only want to know how long it took to get here
+            }
+        });
+        long waitedMs = (System.nanoTime() - start) / 1000000;
+        readAction.get();
+
+        assertTrue("Expected " + description + " to notice it was canceled", canceled.get());
+        assertTrue("Write action waited " + waitedMs + "ms on canceled " + description + ", expected at most "
+                   + MAX_WRITE_ACTION_WAIT_MS + "ms", waitedMs <= MAX_WRITE_ACTION_WAIT_MS);
+    }
+}
@@ -134,6 +134,14 @@ public class HbLexerFreeFormTest extends HbLexerTest {
         result.shouldMatchTokenTypes(UNCLOSED_COMMENT);
         result.shouldBeToken(0, UNCLOSED_COMMENT, "{{!-- unclosed comment {{foo}}");
     }
+
+    public void testMultiLineUnclosedComment() {
+        TokenizerResult result = tokenize("{{foo}}\n{{!-- unclosed\ncomment {{bar}}\n\n--}");
+
+        result.shouldMatchTokenTypes(OPEN, ID, CLOSE, WHITE_SPACE, UNCLOSED_COMMENT, UNCLOSED_COMMENT, UNCLOSED_COMMENT, UNCLOSED_COMMENT);
+        result.shouldMatchTokenContent("{{", "foo", "}}", "\n", "{{!-- unclosed\n", "comment {{bar}}\n", "\n", "--}");
+    }
+
     public void testEscapedMustacheAtEOF() {
         TokenizerResult result = tokenize("\\{{escaped}}");
 
@@ -0,0 +1,131 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.util.HbPerformanceTestData;
+import com.dmarcotte.handlebars.util.HbTestUtils;
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import com.sun.management.ThreadMXBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timing and allocation tests for {@link HbLexer} on the kind of input which dominates real templates: lots of static markup
+ * with the occasional mustache.
+ */
+public class HbLexerPerformanceTest extends HbLexerTest {
+
+    private static final int ONE_MB = 1 << 20;
+
+    /**
+     * Leaves some room for measurement noise; String-building token actions cost us over 100 bytes per token
+     */
+    private static final int MAX_ALLOCATED_BYTES_PER_TOKEN = 4;
+
+    public void testLexLargeStaticMarkup() {
+        StringBuilder template = new StringBuilder();
+        while (template.length() < ONE_MB) {
+            template.append("<p class=\"static\">Static markup without a single mustache in it, like most of our HTML.</p>\n");
+        }
+
+        doLexPerformanceTest("Lexing 1MB of static markup", 10, 500, template.toString());
+    }
+
+    public void testLexLargeMostlyStaticTemplate() {
+        StringBuilder template = new StringBuilder();
+        for (int i = 0; template.length() < ONE_MB; i++) {
+            template.append("<div class=\"row\">\n")
+                    .append("  <p>Some static paragraph text that goes on for a while, like most markup does.</p>\n")
+                    .append("  <span>{{item").append(i).append("}}</span>\n")
+                    .append("</div>\n");
+        }
+
+        doLexPerformanceTest("Lexing a 1MB mostly static template", 10, 800, template.toString());
+    }
+
+    public void testLexParserTestData() throws IOException {
+        File[] testFiles = new File(HbTestUtils.BASE_TEST_DATA_PATH, "parser").listFiles();
+        assertNotNull(testFiles);
+        final List<String> templates = new ArrayList<String>();
+        for (File testFile : testFiles) {
+            if (testFile.getName().endsWith(".hbs")) {
+                templates.add(FileUtil.loadFile(testFile));
+            }
+        }
+
+        doLexPerformanceTest("Lexing the parser test data", 200, 1000, templates.toArray(new String[templates.size()]));
+    }
+
+    /**
+     * Lexing cost should scale with template size, and not at all with how deeply blocks are nested
+     */
+    public void testLexScaling() {
+        for (int size : HbPerformanceTestData.SIZES) {
+            for (int depth : HbPerformanceTestData.DEPTHS) {
+                String template = HbPerformanceTestData.buildTemplate(size, depth);
+
+                // budget 1ms per 10KB, with a floor for the small templates
+                doLexPerformanceTest("Lexing " + HbPerformanceTestData.describe(size, depth), 1,
+                                     Math.max(20, size / (10 * 1024)), template);
+            }
+        }
+    }
+
+    /**
+     * Lexing should not create garbage in proportion to the size of the template; the token actions
+     * are expected to inspect the lexer's buffer directly rather than building Strings from it.
+     */
+    public void testLexingDoesNotAllocatePerToken() {
+        StringBuilder template = new StringBuilder();
+        for (int i = 0; template.length() < ONE_MB; i++) {
+            template.append("<li>{{#if item").append(i).append("}}{{@index}} \\{{escaped}} {{name}}")
+                    .append("{{else}}{{! none }}{{!-- none --}}{{/if}}</li>\n");
+        }
+        String text = template.toString();
+
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assertTrue("Allocation measurement not supported on this JVM", threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        Lexer lexer = new HbLexer();
+        // warm up, so that class loading and the like don't get counted against the lexer
+        lexAll(lexer, text);
+
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        int tokenCount = lexAll(lexer, text);
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        assertTrue("Lexing " + tokenCount + " tokens allocated " + allocated + " bytes",
+                   allocated <= (long) tokenCount * MAX_ALLOCATED_BYTES_PER_TOKEN);
+    }
+
+    private static int lexAll(Lexer lexer, String text) {
+        int tokenCount = 0;
+        lexer.start(text);
+        while (lexer.getTokenType() != null) {
+            tokenCount++;
+            lexer.advance();
+        }
+        return tokenCount;
+    }
+
+    private static void doLexPerformanceTest(String message, final int iterations, int expectedMs, final String... templates) {
+        final Lexer lexer = new HbLexer();
+        PlatformTestUtil.startPerformanceTest(message, expectedMs, new ThrowableRunnable() {
+            @Override
+            public void run() throws Throwable {
+                for (int i = 0; i < iterations; i++) {
+                    for (String template : templates) {
+                        lexAll(lexer, template);
+                    }
+                }
+            }
+        }).cpuBound().assertTiming();
+    }
+}
@@ -0,0 +1,92 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.util.HbTestUtils;
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.tree.IElementType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that {@link HbLexer} can be restarted from the state it reports at any token boundary.
+ * (The editor highlighter's own restarts are covered by {@link com.dmarcotte.handlebars.HbHighlighterEditingTest}.)
+ */
+public class HbLexerRestartTest extends HbLexerTest {
+
+    public void testRestartInsideNestedStates() {
+        // data inside a mustache, comments, partials and escaped mustaches all push lexer states
+        doRestartTest("{{foo @index bar}} text {{> partial}} {{! comment }}\\{{escaped}} {{#if x}}{{@first}}{{/if}}");
+    }
+
+    public void testRestartInsideUnclosedMustache() {
+        doRestartTest("{{#each things}}\n    {{@index \"unclosed\" \n{{/each}}");
+    }
+
+    public void testRestartAtEveryTokenOfParserTestData() throws IOException {
+        File[] testFiles = new File(HbTestUtils.BASE_TEST_DATA_PATH, "parser").listFiles();
+        assertNotNull(testFiles);
+        for (File testFile : testFiles) {
+            if (testFile.getName().endsWith(".hbs")) {
+                doRestartTest(FileUtil.loadFile(testFile));
+            }
+        }
+    }
+
+    private static void doRestartTest(String text) {
+        List<TokenInfo> fullLex = lexAll(text, 0, 0);
+        for (int i = 0; i < fullLex.size(); i++) {
+            TokenInfo restartToken = fullLex.get(i);
+            List<TokenInfo> restartedLex = lexAll(text, restartToken.start, restartToken.state);
+            assertEquals("Restarting at token " + i + " (offset " + restartToken.start + ") gave different tokens",
+                         fullLex.subList(i, fullLex.size()), restartedLex);
+        }
+    }
+
+    private static List<TokenInfo> lexAll(String text, int startOffset, int initialState) {
+        Lexer lexer = new HbLexer();
+        lexer.start(text, startOffset, text.length(), initialState);
+        List<TokenInfo> tokens = new ArrayList<TokenInfo>();
+        IElementType tokenType;
+        while ((tokenType = lexer.getTokenType()) != null) {
+            tokens.add(new TokenInfo(tokenType, lexer.getTokenStart(), lexer.getTokenEnd(), lexer.getState()));
+            lexer.advance();
+        }
+        return tokens;
+    }
+
+    private static class TokenInfo {
+        private final IElementType type;
+        private final int start;
+        private final int end;
+        private final int state;
+
+        private TokenInfo(IElementType type, int start, int end, int state) {
+            this.type = type;
+            this.start = start;
+            this.end = end;
+            this.state = state;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TokenInfo)) {
+                return false;
+            }
+            TokenInfo other = (TokenInfo) o;
+            return type == other.type && start == other.start && end == other.end && state == other.state;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * start + end) * 31 + state;
+        }
+
+        @Override
+        public String toString() {
+            return type + "[" + start + "," + end + "]@" + state;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.util.HbTemplateGenerator;
+import com.dmarcotte.handlebars.util.HbTestUtils;
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiBuilderFactory;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.TokenType;
+import com.intellij.psi.impl.DebugUtil;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests for the explicit block stack {@link HbParsing} uses to parse nested blocks (see
+ * {@link HbParsing#parseProgramWithBlockStack}): it must build exactly the tree the recursive parser does,
+ * and cope with nesting far deeper than the recursive parser can
+ */
+public class HbParserBlockStackTest extends HbParserTest {
+
+    public void testSameTreeAsRecursiveParserForTestData() throws IOException {
+        File[] testDataFiles = new File(HbTestUtils.BASE_TEST_DATA_PATH, "parser").listFiles();
+        assertNotNull(testDataFiles);
+        for (File testDataFile : testDataFiles) {
+            if (testDataFile.getName().endsWith(".hbs")) {
+                assertSameTreeAsRecursiveParser(testDataFile.getName(), FileUtil.loadFile(testDataFile));
+            }
+        }
+    }
+
+    public void testSameTreeAsRecursiveParserForGeneratedTemplates() {
+        for (int depth : new int[] { 1, 10, 50 }) {
+            for (double errorRate : new double[] { 0, 0.02, 0.2 }) {
+                String template = new HbTemplateGenerator(depth).size(10 * 1024).depth(depth).errorRate(errorRate).generate();
+                assertSameTreeAsRecursiveParser("depth " + depth + ", error rate " + errorRate, template);
+            }
+        }
+    }
+
+    public void testUnbalancedBlocks() {
+        assertSameTreeAsRecursiveParser("unclosed", "{{#if a}}{{#each b}}{{^c}}text{{else}}more");
+        assertSameTreeAsRecursiveParser("unopened", "{{/if}}{{#if a}}{{/each}}{{/if}}{{/if}}");
+        assertSameTreeAsRecursiveParser("inverses", "{{^}}{{#if a}}{{else}}{{else}}{{^}}{{/if}}{{else}}");
+        assertSameTreeAsRecursiveParser("open at eof", "{{#if a}}");
+    }
+
+    public void testVeryDeeplyNestedBlocks() {
+        int depth = 10000;
+        StringBuilder template = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            template.append("{{#if level").append(i).append("}}\n");
+        }
+        template.append("deep content");
+        for (int i = 0; i < depth; i++) {
+            template.append("{{/if}}\n");
+        }
+
+        ASTNode root = parse(template.toString(), true);
+        assertEquals(template.toString(), root.getText());
+
+        // walk up from the innermost content, counting the blocks around it
+        ASTNode node = root.findLeafElementAt(template.indexOf("deep content"));
+        int blockCount = 0;
+        while (node != null) {
+            assertFalse(node.getElementType() == TokenType.ERROR_ELEMENT);
+            if (node.getElementType() == HbTokenTypes.BLOCK_WRAPPER) {
+                blockCount++;
+            }
+            node = node.getTreeParent();
+        }
+        assertEquals(depth, blockCount);
+    }
+
+    private static void assertSameTreeAsRecursiveParser(String description, String text) {
+        assertEquals("Parse trees differ for " + description,
+                     DebugUtil.treeToString(parse(text, false), false),
+                     DebugUtil.treeToString(parse(text, true), false));
+    }
+
+    private static ASTNode parse(String text, boolean useBlockStack) {
+        HbParseDefinition parseDefinition = new HbParseDefinition();
+        PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(parseDefinition, new HbLexer(), text);
+
+        PsiBuilder.Marker rootMarker = builder.mark();
+        new HbParsing(new HbPsiTreeBuilder(builder), HbParsing.DEFAULT_MAX_RECOVERIES, useBlockStack).parse();
+        rootMarker.done(parseDefinition.getFileNodeType());
+
+        return builder.getTreeBuilt();
+    }
+}
@@ -0,0 +1,69 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.HbBundle;
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiBuilderFactory;
+import com.intellij.psi.PsiErrorElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.util.PsiTreeUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the way {@link HbParsing#parse()} recovers from input it can't make sense of
+ */
+public class HbParserErrorRecoveryTest extends HbParserTest {
+
+    public void testThousandsOfStrayCloseBlocks() {
+        StringBuilder template = new StringBuilder("{{#if foo}}bar{{/if}}");
+        for (int i = 0; i < 20000; i++) {
+            template.append("{{/foo}}");
+        }
+
+        // this used to recurse once per stray close block
+        PsiFile file = createPsiFile("strayCloseBlocks", template.toString());
+        assertEquals(template.toString(), file.getText());
+        assertTrue(PsiTreeUtil.hasErrorElements(file));
+    }
+
+    public void testErrorsUpToTheBudgetAreRecoveredFrom() {
+        ASTNode root = parse("{{/a}}{{/b}}{{/c}}{{foo}}", 3);
+
+        List<PsiErrorElement> errors = new ArrayList<PsiErrorElement>();
+        for (ASTNode child : root.getChildren(null)) {
+            if (child instanceof PsiErrorElement) {
+                errors.add((PsiErrorElement) child);
+            }
+        }
+        assertEquals(3, errors.size());
+        for (PsiErrorElement error : errors) {
+            assertEquals(HbBundle.message("hb.parsing.no.open.mustache"), error.getErrorDescription());
+        }
+
+        // and we got back to parsing the mustache after them
+        assertEquals(HbTokenTypes.STATEMENTS, root.getLastChildNode().getElementType());
+        assertEquals("{{foo}}", root.getLastChildNode().getText());
+    }
+
+    public void testRestOfFileIsOneErrorPastTheBudget() {
+        ASTNode root = parse("{{foo}}{{/a}}{{/b}}{{/c}}{{/d}} and {{more}}", 2);
+
+        ASTNode lastChild = root.getLastChildNode();
+        assertInstanceOf(lastChild, PsiErrorElement.class);
+        assertEquals(HbBundle.message("hb.parsing.too.many.errors"), ((PsiErrorElement) lastChild).getErrorDescription());
+        assertEquals("{{/c}}{{/d}} and {{more}}", lastChild.getText());
+    }
+
+    private static ASTNode parse(String text, int maxRecoveries) {
+        HbParseDefinition parseDefinition = new HbParseDefinition();
+        PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(parseDefinition, new HbLexer(), text);
+
+        PsiBuilder.Marker rootMarker = builder.mark();
+        new HbParsing(new HbPsiTreeBuilder(builder), maxRecoveries).parse();
+        rootMarker.done(parseDefinition.getFileNodeType());
+
+        return builder.getTreeBuilt();
+    }
+}
@@ -0,0 +1,45 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.util.HbTemplateGenerator;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.util.PsiTreeUtil;
+
+/**
+ * Checks that {@link HbTemplateGenerator} sticks to the grammar our parser accepts,
+ * so that scaling tests built on it measure the parser's happy path unless they ask for errors
+ */
+public class HbParserGeneratedTemplateTest extends HbParserTest {
+
+    public void testGeneratedTemplatesParseWithoutErrors() {
+        for (int depth : new int[] { 0, 1, 10, 50 }) {
+            for (double mustacheDensity : new double[] { 0, 0.3, 1 }) {
+                String template = new HbTemplateGenerator(depth)
+                        .size(20 * 1024)
+                        .depth(depth)
+                        .mustacheDensity(mustacheDensity)
+                        .commentRatio(0.1)
+                        .generate();
+
+                PsiFile file = createPsiFile("generated", template);
+                assertEquals(template, file.getText());
+                assertFalse("Errors parsing generated template at depth " + depth + ", mustache density " + mustacheDensity,
+                            PsiTreeUtil.hasErrorElements(file));
+            }
+        }
+    }
+
+    public void testGeneratedTemplatesWithErrors() {
+        String template = new HbTemplateGenerator(42).size(20 * 1024).depth(10).errorRate(0.05).generate();
+
+        PsiFile file = createPsiFile("generated", template);
+        assertEquals(template, file.getText());
+        assertTrue(PsiTreeUtil.hasErrorElements(file));
+    }
+
+    public void testGenerationIsDeterministic() {
+        HbTemplateGenerator generator = new HbTemplateGenerator(7).size(50 * 1024).depth(5).errorRate(0.01);
+
+        assertEquals(generator.generate(), generator.generate());
+        assertEquals(generator.generate(), new HbTemplateGenerator(7).size(50 * 1024).depth(5).errorRate(0.01).generate());
+    }
+}
@@ -0,0 +1,95 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.util.HbPerformanceTestData;
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiBuilderFactory;
+import com.intellij.psi.impl.source.tree.LeafElement;
+
+/**
+ * Memory tests for the trees {@link HbParser} builds: tokens should stay plain leaves rather than each getting
+ * a composite element of its own, which used to double the number of nodes in the tree
+ */
+public class HbParserMemoryTest extends HbParserTest {
+
+    /**
+     * Leaves plenty of room for measurement noise: at a few dozen tokens per KB of template, our leaves and the
+     * composites above them should come to well under this
+     */
+    private static final int MAX_RETAINED_BYTES_PER_KB = 32 * 1024;
+
+    public void testTokensAreNotWrappedInElementsOfTheirOwn() {
+        ASTNode root = parse(HbPerformanceTestData.buildTemplate(HbPerformanceTestData.SMALL, 10));
+        assertNoWrappedTokens(root);
+    }
+
+    /**
+     * Checks the bytes our tree retains per KB of template against a budget, and that there are fewer composite
+     * elements in it than there are tokens (with a composite around every token, there were always more)
+     */
+    public void testRetainedSizePerKb() {
+        for (int depth : HbPerformanceTestData.DEPTHS) {
+            String template = HbPerformanceTestData.buildTemplate(HbPerformanceTestData.MEDIUM, depth);
+
+            long usedBefore = usedMemory();
+            ASTNode root = parse(template);
+            long retainedBytes = usedMemory() - usedBefore;
+
+            int[] counts = new int[2];
+            countNodes(root, counts);
+            int leafCount = counts[0];
+            int compositeCount = counts[1];
+
+            assertTrue("Expected fewer composites than leaves, got " + compositeCount + " composites and "
+                       + leafCount + " leaves", compositeCount < leafCount);
+
+            long retainedBytesPerKb = retainedBytes * 1024 / template.length();
+            assertTrue("Parse tree for " + HbPerformanceTestData.describe(template.length(), depth) + " retained "
+                       + retainedBytesPerKb + " bytes per KB of template (" + leafCount + " leaves, "
+                       + compositeCount + " composites)",
+                       retainedBytesPerKb <= MAX_RETAINED_BYTES_PER_KB);
+        }
+    }
+
+    private static void assertNoWrappedTokens(ASTNode node) {
+        for (ASTNode child = node.getFirstChildNode(); child != null; child = child.getTreeNext()) {
+            if (!(child instanceof LeafElement)) {
+                ASTNode onlyChild = child.getFirstChildNode();
+                if (onlyChild != null && onlyChild.getTreeNext() == null && onlyChild instanceof LeafElement
+                        && !(child.getElementType() instanceof HbReparseableTokenType)) {
+                    assertFalse("Token " + onlyChild.getElementType() + " is wrapped in an element of its own type",
+                                onlyChild.getElementType() == child.getElementType());
+                }
+                assertNoWrappedTokens(child);
+            }
+        }
+    }
+
+    /**
+     * Adds the number of leaves under the given node to counts[0], and the number of composites to counts[1]
+     */
+    private static void countNodes(ASTNode node, int[] counts) {
+        for (ASTNode child = node.getFirstChildNode(); child != null; child = child.getTreeNext()) {
+            if (child instanceof LeafElement) {
+                counts[0]++;
+            } else {
+                counts[1]++;
+                countNodes(child, counts);
+            }
+        }
+    }
+
+    private static ASTNode parse(String template) {
+        HbParseDefinition parseDefinition = new HbParseDefinition();
+        PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(parseDefinition, new HbLexer(), template);
+        return new HbParser().parse(parseDefinition.getFileNodeType(), builder);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
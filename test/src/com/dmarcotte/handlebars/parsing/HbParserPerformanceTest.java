@@ -0,0 +1,190 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.util.HbPerformanceTestData;
+import com.dmarcotte.handlebars.util.HbTemplateGenerator;
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiBuilderFactory;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+
+/**
+ * Timing tests for {@link HbParser}, run on a bare {@link PsiBuilder} so that only our parsing is measured
+ * (no PSI file, document or template data language in the way)
+ */
+public class HbParserPerformanceTest extends HbParserTest {
+
+    public void testParseScaling() {
+        for (int size : HbPerformanceTestData.SIZES) {
+            for (int depth : HbPerformanceTestData.DEPTHS) {
+                // budget 10ms per 10KB, with a floor for the small templates
+                doParsePerformanceTest("Parsing " + HbPerformanceTestData.describe(size, depth),
+                                       Math.max(50, size / 1024), HbPerformanceTestData.buildTemplate(size, depth));
+            }
+        }
+    }
+
+    /**
+     * Parsing a template four times the size (with the same mix of blocks, mustaches, comments and errors)
+     * should cost roughly four times as much
+     */
+    public void testParseCostScalesLinearlyWithSize() {
+        HbTemplateGenerator generator = new HbTemplateGenerator(1).depth(50).commentRatio(0.1).errorRate(0.01);
+        String template = generator.size(HbPerformanceTestData.MEDIUM).generate();
+        String largerTemplate = generator.size(4 * HbPerformanceTestData.MEDIUM).generate();
+
+        // warm up
+        timeParse(largerTemplate);
+
+        long parseTime = timeParse(template);
+        long largerParseTime = timeParse(largerTemplate);
+
+        assertTrue("Parsing " + largerTemplate.length() + " chars took " + largerParseTime / 1000000 + "ms, " +
+                   "parsing " + template.length() + " chars took " + parseTime / 1000000 + "ms",
+                   largerParseTime < 8 * parseTime + 20 * 1000000L);
+    }
+
+    /**
+     * Mustaches with lots of params and hash pairs should cost time in proportion to their length:
+     * each token should only be looked at a fixed number of times, however many others are in the mustache
+     */
+    public void testLongMustacheCostScalesLinearlyWithLength() {
+        String template = buildLongMustaches(50);
+        String longerTemplate = buildLongMustaches(200);
+
+        // warm up
+        timeParse(longerTemplate);
+
+        long parseTime = timeParse(template);
+        long longerParseTime = timeParse(longerTemplate);
+
+        assertTrue("Parsing mustaches with 200 params and hash pairs took " + longerParseTime / 1000000 + "ms, " +
+                   "parsing mustaches with 50 params and hash pairs took " + parseTime / 1000000 + "ms",
+                   longerParseTime < 8 * parseTime + 20 * 1000000L);
+    }
+
+    /**
+     * @return a template of a few hundred mustaches, each with the given number of params (a mix of paths, strings,
+     *         integers, booleans and data) followed by the same number of hash pairs
+     */
+    private static String buildLongMustaches(int argumentCount) {
+        StringBuilder template = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            template.append("<p>{{helper");
+            for (int j = 0; j < argumentCount; j++) {
+                switch (j % 5) {
+                    case 0: template.append(" param").append(j).append(".path"); break;
+                    case 1: template.append(" \"string ").append(j).append("\""); break;
+                    case 2: template.append(" ").append(j); break;
+                    case 3: template.append(" true"); break;
+                    default: template.append(" @index");
+                }
+            }
+            for (int j = 0; j < argumentCount; j++) {
+                template.append(" hash").append(j).append("=");
+                template.append(j % 2 == 0 ? "value.path" : "\"value\"");
+            }
+            template.append("}}</p>\n");
+        }
+        return template.toString();
+    }
+
+    /**
+     * Keeping nested blocks on a stack of our own rather than recursing into them shouldn't cost us anything
+     * noticeable on the templates the recursive parser can manage
+     */
+    public void testBlockStackParsingKeepsUpWithRecursiveParsing() {
+        for (int depth : new int[] { 0, 50, 500 }) {
+            String template = new HbTemplateGenerator(3).size(HbPerformanceTestData.MEDIUM).depth(depth).generate();
+
+            // warm up
+            timeParse(template, true);
+            timeParse(template, false);
+
+            long blockStackParseTime = timeParse(template, true);
+            long recursiveParseTime = timeParse(template, false);
+
+            assertTrue("At depth " + depth + ", parsing with the block stack took " + blockStackParseTime / 1000000 + "ms, " +
+                       "parsing recursively took " + recursiveParseTime / 1000000 + "ms",
+                       blockStackParseTime < 2 * recursiveParseTime + 10 * 1000000L);
+        }
+    }
+
+    /**
+     * Throughput of {@link HbSyntaxTree}, our parser for tools outside the IDE.  The target is 4MB/s on one core:
+     * enough to validate a CI run's 20,000 templates (at around 10KB each, 200MB) in under a minute.
+     */
+    public void testSyntaxTreeThroughput() {
+        for (int depth : HbPerformanceTestData.DEPTHS) {
+            String template = HbPerformanceTestData.buildTemplate(HbPerformanceTestData.LARGE, depth);
+
+            // warm up
+            timeSyntaxTreeParse(template);
+
+            long syntaxTreeParseTime = timeSyntaxTreeParse(template);
+            long psiBuilderParseTime = timeParse(template);
+            double megabytesPerSecond = (template.length() / (1024.0 * 1024.0)) / (syntaxTreeParseTime / 1e9);
+
+            assertTrue("Syntax tree parsed " + HbPerformanceTestData.describe(template.length(), depth)
+                       + " at " + megabytesPerSecond + "MB/s (PsiBuilder took " + psiBuilderParseTime / 1000000 + "ms),"
+                       + " expected at least 4MB/s", megabytesPerSecond >= 4);
+        }
+    }
+
+    /**
+     * @return the best time (in nanoseconds) of a few runs of {@link HbSyntaxTree#parse} over the given template
+     */
+    private static long timeSyntaxTreeParse(String template) {
+        long bestTime = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            HbSyntaxTree.parse(template);
+            bestTime = Math.min(bestTime, System.nanoTime() - start);
+        }
+        return bestTime;
+    }
+
+    /**
+     * @return the best time (in nanoseconds) of a few runs of the parser over the given template
+     */
+    private static long timeParse(String template) {
+        HbParseDefinition parseDefinition = new HbParseDefinition();
+        long bestTime = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(parseDefinition, new HbLexer(), template);
+            new HbParser().parse(parseDefinition.getFileNodeType(), builder);
+            bestTime = Math.min(bestTime, System.nanoTime() - start);
+        }
+        return bestTime;
+    }
+
+    /**
+     * @return the best time (in nanoseconds) of a few runs of {@link HbParsing} over the given template,
+     *         with or without its block stack
+     */
+    private static long timeParse(String template, boolean useBlockStack) {
+        HbParseDefinition parseDefinition = new HbParseDefinition();
+        long bestTime = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(parseDefinition, new HbLexer(), template);
+            PsiBuilder.Marker rootMarker = builder.mark();
+            new HbParsing(new HbPsiTreeBuilder(builder), HbParsing.DEFAULT_MAX_RECOVERIES, useBlockStack).parse();
+            rootMarker.done(parseDefinition.getFileNodeType());
+            builder.getTreeBuilt();
+            bestTime = Math.min(bestTime, System.nanoTime() - start);
+        }
+        return bestTime;
+    }
+
+    private static void doParsePerformanceTest(String message, int expectedMs, final String template) {
+        final HbParseDefinition parseDefinition = new HbParseDefinition();
+        PlatformTestUtil.startPerformanceTest(message, expectedMs, new ThrowableRunnable() {
+            @Override
+            public void run() throws Throwable {
+                PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(parseDefinition, new HbLexer(), template);
+                new HbParser().parse(parseDefinition.getFileNodeType(), builder);
+            }
+        }).cpuBound().assertTiming();
+    }
+}
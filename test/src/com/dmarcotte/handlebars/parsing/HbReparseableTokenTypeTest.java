@@ -0,0 +1,138 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.file.HbFileType;
+import com.dmarcotte.handlebars.psi.HbBlockWrapper;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.CommandProcessor;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiFileFactory;
+import com.intellij.psi.impl.DebugUtil;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.testFramework.IdeaTestCase;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+
+/**
+ * Tests for {@link HbReparseableTokenType}: which edits to COMMENT and STRING tokens may be reparsed on their own,
+ * and that doing so gives the same PSI as parsing the edited file from scratch
+ */
+public class HbReparseableTokenTypeTest extends LightPlatformCodeInsightFixtureTestCase {
+
+    private static final String TEMPLATE =
+            "<ul>\n" +
+            "{{#each items}}\n" +
+            "    <li>{{name}}</li>\n" +
+            "    {{! items are linked }}\n" +
+            "    {{link title class=\"item\"}}\n" +
+            "{{/each}}\n" +
+            "</ul>\n";
+
+    public HbReparseableTokenTypeTest() {
+        IdeaTestCase.initPlatformPrefix();
+    }
+
+    public void testCommentIsParsable() {
+        assertParsable(HbTokenTypes.COMMENT, "{{! a comment }}");
+        assertParsable(HbTokenTypes.COMMENT, "{{!-- a comment with a {{mustache}} in it --}}");
+
+        assertNotParsable(HbTokenTypes.COMMENT, "{{! a comment }} and content");
+        assertNotParsable(HbTokenTypes.COMMENT, "{{! an unclosed comment");
+        assertNotParsable(HbTokenTypes.COMMENT, "{{!-- closed too early --}} --}}");
+        assertNotParsable(HbTokenTypes.COMMENT, "{{! a comment }}}");
+        assertNotParsable(HbTokenTypes.COMMENT, "{{mustache}}");
+    }
+
+    public void testStringIsParsable() {
+        assertParsable(HbTokenTypes.STRING, "\"a string\"");
+        assertParsable(HbTokenTypes.STRING, "'a string'");
+        assertParsable(HbTokenTypes.STRING, "\"a \\\" quote\"");
+        assertParsable(HbTokenTypes.STRING, "\"\"");
+
+        assertNotParsable(HbTokenTypes.STRING, "\"a string\" id");
+        assertNotParsable(HbTokenTypes.STRING, "\"unclosed");
+        assertNotParsable(HbTokenTypes.STRING, "\"close\"}}");
+        assertNotParsable(HbTokenTypes.STRING, "id");
+    }
+
+    /**
+     * CONTENT is a plain leaf: edits in it go to the enclosing block instead
+     */
+    public void testTypingInContent() {
+        doReparseTest(TEMPLATE.indexOf("</li>"), " text", false);
+    }
+
+    public void testTypingInComment() {
+        doReparseTest(TEMPLATE.indexOf(" linked }}"), " always", true);
+    }
+
+    public void testTypingInString() {
+        doReparseTest(TEMPLATE.indexOf("item\"") + "item".length(), " active", true);
+    }
+
+    public void testOpeningMustacheInContent() {
+        doReparseTest(TEMPLATE.indexOf("</li>"), "{{", false);
+    }
+
+    public void testClosingCommentEarly() {
+        doReparseTest(TEMPLATE.indexOf(" linked }}"), " }}", false);
+    }
+
+    public void testClosingStringEarly() {
+        doReparseTest(TEMPLATE.indexOf("item\"") + "item".length(), "\" ", false);
+    }
+
+    /**
+     * Inserts textToInsert at offset and checks that the resulting PSI matches a from-scratch parse of the new text
+     *
+     * @param reparsedInToken whether the edit is one we expect to be reparsed within the token it's in, in which
+     *                        case the block around that token should survive untouched
+     */
+    private void doReparseTest(final int offset, final String textToInsert, boolean reparsedInToken) {
+        myFixture.configureByText(HbFileType.INSTANCE, TEMPLATE);
+        final PsiFile file = myFixture.getFile();
+        final Document document = myFixture.getEditor().getDocument();
+
+        HbBlockWrapper eachBlock = PsiTreeUtil.findChildOfType(file, HbBlockWrapper.class);
+        assertNotNull(eachBlock);
+        PsiElement editedElement = file.findElementAt(offset);
+        assertNotNull(editedElement);
+
+        CommandProcessor.getInstance().executeCommand(getProject(), new Runnable() {
+            @Override
+            public void run() {
+                ApplicationManager.getApplication().runWriteAction(new Runnable() {
+                    @Override
+                    public void run() {
+                        document.insertString(offset, textToInsert);
+                        PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+                    }
+                });
+            }
+        }, "", "");
+
+        PsiFile freshFile = PsiFileFactory.getInstance(getProject())
+                .createFileFromText("fresh.hbs", HbFileType.INSTANCE, document.getText());
+
+        assertEquals(DebugUtil.psiToString(freshFile, false), DebugUtil.psiToString(file, false));
+        if (reparsedInToken) {
+            // only the edited token should have been replaced
+            assertTrue(eachBlock.isValid());
+            assertFalse(editedElement.isValid());
+        }
+    }
+
+    private static void assertParsable(IElementType tokenType, String text) {
+        assertTrue("Expected to be able to reparse " + tokenType + " " + text, isParsable(tokenType, text));
+    }
+
+    private static void assertNotParsable(IElementType tokenType, String text) {
+        assertFalse("Expected not to be able to reparse " + tokenType + " " + text, isParsable(tokenType, text));
+    }
+
+    private static boolean isParsable(IElementType tokenType, String text) {
+        return ((HbReparseableTokenType) tokenType).isParsable(text, null);
+    }
+}
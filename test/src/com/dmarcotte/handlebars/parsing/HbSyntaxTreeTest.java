@@ -0,0 +1,134 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.HbBundle;
+import com.dmarcotte.handlebars.util.HbTemplateGenerator;
+import com.dmarcotte.handlebars.util.HbTestUtils;
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiBuilderFactory;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.PsiErrorElement;
+import com.intellij.psi.impl.source.tree.LeafElement;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests for {@link HbSyntaxTree}: parsing without the IDE's PsiBuilder must find the same elements (and the same
+ * errors) that the plugin does
+ */
+public class HbSyntaxTreeTest extends HbParserTest {
+
+    public void testSameElementsAsPsiForTestData() throws IOException {
+        File[] testDataFiles = new File(HbTestUtils.BASE_TEST_DATA_PATH, "parser").listFiles();
+        assertNotNull(testDataFiles);
+        for (File testDataFile : testDataFiles) {
+            if (testDataFile.getName().endsWith(".hbs")) {
+                assertSameElementsAsPsi(testDataFile.getName(), FileUtil.loadFile(testDataFile));
+            }
+        }
+    }
+
+    public void testSameElementsAsPsiForGeneratedTemplates() {
+        for (int depth : new int[] { 1, 10, 50 }) {
+            for (double errorRate : new double[] { 0, 0.02, 0.2 }) {
+                String template = new HbTemplateGenerator(depth).size(10 * 1024).depth(depth).errorRate(errorRate).generate();
+                assertSameElementsAsPsi("depth " + depth + ", error rate " + errorRate, template);
+            }
+        }
+    }
+
+    public void testNavigation() {
+        HbSyntaxTree tree = HbSyntaxTree.parse("{{#if a}}\n  {{b}}\n{{/if}}");
+
+        int root = 0;
+        assertEquals(HbTokenTypes.FILE, tree.getNodeType(root));
+        assertEquals(-1, tree.getParent(root));
+
+        int statements = tree.getFirstChild(root);
+        assertEquals(HbTokenTypes.STATEMENTS, tree.getNodeType(statements));
+        assertEquals(-1, tree.getNextSibling(statements));
+
+        int block = tree.getFirstChild(statements);
+        assertEquals(HbTokenTypes.BLOCK_WRAPPER, tree.getNodeType(block));
+        assertEquals(tree.getText().toString(), tree.getNodeText(block).toString());
+
+        int openBlock = tree.getFirstChild(block);
+        assertEquals(HbTokenTypes.OPEN_BLOCK_STACHE, tree.getNodeType(openBlock));
+        assertEquals("{{#if a}}", tree.getNodeText(openBlock).toString());
+
+        int blockStatements = tree.getNextSibling(openBlock);
+        assertEquals(HbTokenTypes.STATEMENTS, tree.getNodeType(blockStatements));
+        // the white space around the statements is left out of them
+        assertEquals("{{b}}", tree.getNodeText(blockStatements).toString());
+
+        int closeBlock = tree.getNextSibling(blockStatements);
+        assertEquals(HbTokenTypes.CLOSE_BLOCK_STACHE, tree.getNodeType(closeBlock));
+        assertEquals(-1, tree.getNextSibling(closeBlock));
+        assertEquals(block, tree.getParent(closeBlock));
+
+        int token = tree.findTokenAt(tree.getText().toString().indexOf("b}}"));
+        assertEquals(HbTokenTypes.ID, tree.getTokenType(token));
+        assertEquals("b", tree.getText().subSequence(tree.getTokenStart(token), tree.getTokenEnd(token)).toString());
+
+        assertEquals(0, tree.getErrorCount());
+    }
+
+    public void testErrors() {
+        HbSyntaxTree tree = HbSyntaxTree.parse("{{#if a}}{{/each}}");
+
+        assertEquals(1, tree.getErrorCount());
+        int error = tree.getErrorNode(0);
+        assertTrue(tree.isError(error));
+        assertEquals(HbBundle.message("hb.parsing.end.tag.bad.match", "each", "if"), tree.getErrorMessage(error));
+        assertNull(tree.getErrorMessage(0));
+    }
+
+    private static void assertSameElementsAsPsi(String description, String text) {
+        StringBuilder psiElements = new StringBuilder();
+        appendPsiElements(parseToPsi(text), 0, psiElements);
+
+        StringBuilder syntaxTreeElements = new StringBuilder();
+        HbSyntaxTree tree = HbSyntaxTree.parse(text);
+        appendSyntaxTreeElements(tree, 0, 0, syntaxTreeElements);
+
+        assertEquals("Elements differ for " + description, psiElements.toString(), syntaxTreeElements.toString());
+    }
+
+    private static void appendPsiElements(ASTNode node, int depth, StringBuilder elements) {
+        appendElement(depth, node.getElementType().toString(), node.getStartOffset(), node.getTextLength(),
+                      node instanceof PsiErrorElement ? ((PsiErrorElement) node).getErrorDescription() : null,
+                      elements);
+        for (ASTNode child = node.getFirstChildNode(); child != null; child = child.getTreeNext()) {
+            // the syntax tree keeps its tokens separately, and has no elements for the ones which are reparseable
+            if (!(child instanceof LeafElement) && !(child.getElementType() instanceof HbReparseableTokenType)) {
+                appendPsiElements(child, depth + 1, elements);
+            }
+        }
+    }
+
+    private static void appendSyntaxTreeElements(HbSyntaxTree tree, int node, int depth, StringBuilder elements) {
+        appendElement(depth, tree.getNodeType(node).toString(), tree.getStartOffset(node),
+                      tree.getEndOffset(node) - tree.getStartOffset(node), tree.getErrorMessage(node), elements);
+        for (int child = tree.getFirstChild(node); child != -1; child = tree.getNextSibling(child)) {
+            appendSyntaxTreeElements(tree, child, depth + 1, elements);
+        }
+    }
+
+    private static void appendElement(int depth, String type, int start, int length, String errorMessage, StringBuilder elements) {
+        for (int i = 0; i < depth; i++) {
+            elements.append("  ");
+        }
+        elements.append(type).append(" [").append(start).append(", ").append(start + length).append(")");
+        if (errorMessage != null) {
+            elements.append(" ").append(errorMessage);
+        }
+        elements.append("\n");
+    }
+
+    private static ASTNode parseToPsi(String text) {
+        HbParseDefinition parseDefinition = new HbParseDefinition();
+        PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(parseDefinition, new HbLexer(), text);
+        return new HbParser().parse(parseDefinition.getFileNodeType(), builder);
+    }
+}
@@ -0,0 +1,101 @@
+package com.dmarcotte.handlebars.psi;
+
+import com.dmarcotte.handlebars.HbLanguage;
+import com.dmarcotte.handlebars.file.HbFileType;
+import com.dmarcotte.handlebars.util.HbTemplateGenerator;
+import com.dmarcotte.handlebars.util.HbTestUtils;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.testFramework.IdeaTestCase;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests for the lookups {@link HbPsiUtil} makes in {@link HbBlockNestingMap}: they have to give the same answers as
+ * walking up the tree would
+ */
+public class HbPsiUtilTest extends LightPlatformCodeInsightFixtureTestCase {
+
+    public HbPsiUtilTest() {
+        IdeaTestCase.initPlatformPrefix();
+    }
+
+    public void testSameAnswersAsParentWalksForTestData() throws IOException {
+        File[] testDataFiles = new File(HbTestUtils.BASE_TEST_DATA_PATH, "parser").listFiles();
+        assertNotNull(testDataFiles);
+        for (File testDataFile : testDataFiles) {
+            if (testDataFile.getName().endsWith(".hbs")) {
+                assertSameAnswersAsParentWalks(FileUtil.loadFile(testDataFile));
+            }
+        }
+    }
+
+    public void testSameAnswersAsParentWalksForGeneratedTemplates() {
+        for (double errorRate : new double[] { 0, 0.05 }) {
+            assertSameAnswersAsParentWalks(new HbTemplateGenerator(7).size(20 * 1024).depth(8).errorRate(errorRate).generate());
+        }
+    }
+
+    public void testUpdatesWhenFileChanges() {
+        myFixture.configureByText(HbFileType.INSTANCE, "{{#if a}}<caret>{{/if}}");
+        HbPsiFile file = getHbFile();
+        assertEquals(1, HbPsiUtil.getBlockDepth(file, myFixture.getCaretOffset()));
+
+        myFixture.type("{{#each b}}x{{/each}}");
+        myFixture.getEditor().getCaretModel().moveToOffset("{{#if a}}{{#each b}}".length());
+        PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+
+        file = getHbFile();
+        assertEquals(2, HbPsiUtil.getBlockDepth(file, myFixture.getCaretOffset()));
+        PsiElement each = file.findElementAt("{{#if a}}{{#".length());
+        assertNotNull(HbPsiUtil.findParentOpenTagElement(each));
+        assertEquals("{{#each b}}", HbPsiUtil.findParentOpenTagElement(each).getText());
+    }
+
+    private void assertSameAnswersAsParentWalks(String text) {
+        myFixture.configureByText(HbFileType.INSTANCE, text);
+        HbPsiFile file = getHbFile();
+        assertSameAnswersAsParentWalks(file, file);
+    }
+
+    private static void assertSameAnswersAsParentWalks(HbPsiFile file, PsiElement element) {
+        assertSame(element.toString(), PsiTreeUtil.getParentOfType(element, HbOpenBlockMustache.class, true),
+                   HbPsiUtil.findParentOpenTagElement(element));
+        assertSame(element.toString(), PsiTreeUtil.getParentOfType(element, HbCloseBlockMustache.class, true),
+                   HbPsiUtil.findParentCloseTagElement(element));
+        assertEquals(element.toString(),
+                     element instanceof HbStatements && PsiTreeUtil.getParentOfType(element, HbStatements.class, true) != null,
+                     HbPsiUtil.isNonRootStatementsElement(element));
+
+        if (element.getFirstChild() == null && element.getTextLength() > 0) {
+            int blockDepth = 0;
+            PsiElement innermostBlock = null;
+            for (PsiElement parent = element.getParent(); parent != null; parent = parent.getParent()) {
+                if (parent instanceof HbBlockWrapper) {
+                    blockDepth++;
+                    if (innermostBlock == null) {
+                        innermostBlock = parent;
+                    }
+                }
+            }
+            int offset = element.getTextRange().getStartOffset();
+            assertEquals(element.toString() + " at " + offset, blockDepth, HbPsiUtil.getBlockDepth(file, offset));
+            assertEquals(element.toString() + " at " + offset,
+                         innermostBlock == null ? null : innermostBlock.getTextRange(), HbPsiUtil.findBlockRange(file, offset));
+        }
+
+        for (PsiElement child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            assertSameAnswersAsParentWalks(file, child);
+        }
+    }
+
+    private HbPsiFile getHbFile() {
+        PsiFile file = myFixture.getFile().getViewProvider().getPsi(HbLanguage.INSTANCE);
+        return (HbPsiFile) file;
+    }
+}
@@ -0,0 +1,107 @@
+package com.dmarcotte.handlebars.psi.stubs;
+
+import com.dmarcotte.handlebars.HbLanguage;
+import com.dmarcotte.handlebars.index.HbPartialStubIndex;
+import com.dmarcotte.handlebars.psi.HbOpenBlockMustache;
+import com.dmarcotte.handlebars.psi.HbPartial;
+import com.dmarcotte.handlebars.psi.HbSimpleMustache;
+import com.dmarcotte.handlebars.psi.impl.HbStubBasedPsiElementImpl;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.impl.source.PsiFileImpl;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.stubs.StubElement;
+import com.intellij.testFramework.IdeaTestCase;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class HbMustacheStubTest extends LightPlatformCodeInsightFixtureTestCase {
+
+    private static final String TEMPLATE = "<ul>\n" +
+                                           "{{#each items}}\n" +
+                                           "  <li>{{> path/to/item}} {{format.price total currency='EUR'}}</li>\n" +
+                                           "{{^}}\n" +
+                                           "  {{^if empty}}{{@index}}{{/if}}\n" +
+                                           "{{/each}}\n" +
+                                           "</ul>";
+
+    public HbMustacheStubTest() {
+        IdeaTestCase.initPlatformPrefix();
+    }
+
+    public void testStubsCarryNamesAndOffsets() {
+        PsiFileImpl file = getHbFile(myFixture.addFileToProject("list.hbs", TEMPLATE));
+
+        List<String> stubs = new ArrayList<String>();
+        for (StubElement stub : (List<StubElement>) file.getStub().getChildrenStubs()) {
+            HbMustacheStub mustacheStub = (HbMustacheStub) stub;
+            stubs.add(stub.getStubType() + " " + mustacheStub.getName() + " @" + mustacheStub.getNameOffset());
+        }
+
+        assertEquals("[OPEN_BLOCK_STACHE each @" + TEMPLATE.indexOf("each") + ", " +
+                     "PARTIAL_STACHE path/to/item @" + TEMPLATE.indexOf("path/to/item") + ", " +
+                     "MUSTACHE format.price @" + TEMPLATE.indexOf("format.price") + ", " +
+                     "OPEN_INVERSE_BLOCK_STACHE if @" + TEMPLATE.indexOf("if empty") + ", " +
+                     "MUSTACHE null @" + TEMPLATE.indexOf("{{@index}}") + "]",
+                     stubs.toString());
+    }
+
+    public void testPsiFromStubsDoesNotLoadTree() {
+        PsiFileImpl file = getHbFile(myFixture.addFileToProject("list.hbs", TEMPLATE));
+
+        List<String> names = new ArrayList<String>();
+        for (StubElement stub : (List<StubElement>) file.getStub().getChildrenStubs()) {
+            PsiElement psi = stub.getPsi();
+            names.add(getName(psi) + " @" + ((HbStubBasedPsiElementImpl) psi).getStubNameOffset());
+        }
+
+        assertNull("Reading names and offsets from stub-based PSI shouldn't load the AST", file.getTreeElement());
+
+        // the names and offsets have to agree with what the AST says
+        assertNotNull(file.getNode());
+        List<String> psiNames = new ArrayList<String>();
+        collectNames(file, psiNames);
+        assertEquals(names, psiNames);
+    }
+
+    public void testStubIndexesPartialNames() {
+        PsiFileImpl file = getHbFile(myFixture.addFileToProject("list.hbs", TEMPLATE));
+        GlobalSearchScope scope = GlobalSearchScope.allScope(getProject());
+
+        Collection<HbPartial> partials = HbPartialStubIndex.getPartials("path/to/item", getProject(), scope);
+        assertEquals(1, partials.size());
+        assertEquals("path/to/item", partials.iterator().next().getPartialName());
+
+        // blocks and mustaches aren't partials
+        assertEmpty(HbPartialStubIndex.getPartials("each", getProject(), scope));
+        assertEmpty(HbPartialStubIndex.getPartials("format.price", getProject(), scope));
+
+        assertNull("Looking up the index shouldn't load the AST", file.getTreeElement());
+    }
+
+    private static void collectNames(PsiElement element, List<String> names) {
+        for (PsiElement child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof HbOpenBlockMustache || child instanceof HbSimpleMustache || child instanceof HbPartial) {
+                names.add(getName(child) + " @" + ((HbStubBasedPsiElementImpl) child).getStubNameOffset());
+            }
+            collectNames(child, names);
+        }
+    }
+
+    private static String getName(PsiElement psi) {
+        if (psi instanceof HbPartial) {
+            return ((HbPartial) psi).getPartialName();
+        }
+        if (psi instanceof HbOpenBlockMustache) {
+            return ((HbOpenBlockMustache) psi).getName();
+        }
+        return ((HbSimpleMustache) psi).getName();
+    }
+
+    private static PsiFileImpl getHbFile(PsiFile file) {
+        return (PsiFileImpl) file.getViewProvider().getPsi(HbLanguage.INSTANCE);
+    }
+}
@@ -0,0 +1,42 @@
+package com.dmarcotte.handlebars.util;
+
+/**
+ * The sizes and nesting depths our performance tests run at, and the templates they run against.
+ * <p>
+ * Templates come from {@link HbTemplateGenerator} with a fixed seed, so the same size and depth always give the
+ * same template, and timings are comparable from run to run.  Tests which need other settings (comments, errors)
+ * use the generator directly.
+ */
+public class HbPerformanceTestData {
+
+    public static final int SMALL = 10 * 1024;
+    public static final int MEDIUM = 100 * 1024;
+    public static final int LARGE = 1024 * 1024;
+
+    /**
+     * The template sizes (in chars) performance tests should be run at, where the layer under test can cope with them
+     */
+    public static final int[] SIZES = { SMALL, MEDIUM, LARGE };
+
+    /**
+     * The block nesting depths performance tests should be run at
+     */
+    public static final int[] DEPTHS = { 0, 10, 50 };
+
+    private static final long SEED = 0;
+
+    /**
+     * @param size the minimum length of the returned template
+     * @param depth how deeply the template's blocks are nested
+     */
+    public static String buildTemplate(int size, int depth) {
+        return new HbTemplateGenerator(SEED).size(size).depth(depth).generate();
+    }
+
+    /**
+     * @return a short description of the given template size and depth, for use in performance test messages
+     */
+    public static String describe(int size, int depth) {
+        return (size >= 1024 * 1024 ? (size / (1024 * 1024)) + "MB" : (size / 1024) + "KB") + " at depth " + depth;
+    }
+}
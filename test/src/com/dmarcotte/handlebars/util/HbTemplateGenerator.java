@@ -0,0 +1,210 @@
+package com.dmarcotte.handlebars.util;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic Handlebars templates for scaling tests.
+ * <p>
+ * Templates are built from the constructs our parser understands (blocks with {{else}} sections, mustaches with
+ * params, hashes, data and paths, partials, comments and plain HTML content), tuned by:
+ * <ul>
+ *     <li>{@link #size}: the minimum length of the template</li>
+ *     <li>{@link #depth}: how deeply blocks are nested</li>
+ *     <li>{@link #mustacheDensity}: the fraction of statements which are mustaches rather than content</li>
+ *     <li>{@link #commentRatio}: the fraction of statements which are comments</li>
+ *     <li>{@link #errorRate}: the fraction of statements which are broken in some way</li>
+ * </ul>
+ * The same settings and seed always generate the same template.
+ */
+public class HbTemplateGenerator {
+    private static final String[] BLOCK_HELPERS = { "each", "if", "unless", "with" };
+    private static final String[] IDS = { "name", "title", "items", "user", "address", "total", "isActive", "options" };
+    private static final String[] TAGS = { "div", "span", "p", "li", "td" };
+
+    private final long seed;
+    private int size = HbPerformanceTestData.MEDIUM;
+    private int depth = 3;
+    private double mustacheDensity = 0.3;
+    private double commentRatio = 0.05;
+    private double errorRate = 0;
+
+    private Random random;
+    private StringBuilder template;
+
+    public HbTemplateGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public HbTemplateGenerator size(int size) {
+        this.size = size;
+        return this;
+    }
+
+    public HbTemplateGenerator depth(int depth) {
+        this.depth = depth;
+        return this;
+    }
+
+    public HbTemplateGenerator mustacheDensity(double mustacheDensity) {
+        this.mustacheDensity = mustacheDensity;
+        return this;
+    }
+
+    public HbTemplateGenerator commentRatio(double commentRatio) {
+        this.commentRatio = commentRatio;
+        return this;
+    }
+
+    public HbTemplateGenerator errorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    public String generate() {
+        random = new Random(seed);
+        template = new StringBuilder(size + 1024);
+        while (template.length() < size) {
+            appendBlock(0);
+        }
+
+        return template.toString();
+    }
+
+    /**
+     * Appends a block at the given nesting level, containing a few statements and (while we're above {@link #depth})
+     * another block
+     */
+    private void appendBlock(int level) {
+        if (level >= depth) {
+            appendStatements(level, 1 + random.nextInt(4));
+            return;
+        }
+
+        String helper = BLOCK_HELPERS[random.nextInt(BLOCK_HELPERS.length)];
+        indent(level);
+        template.append("{{#").append(helper).append(" ");
+        appendPath();
+        template.append("}}\n");
+
+        appendStatements(level + 1, 1 + random.nextInt(3));
+        appendBlock(level + 1);
+
+        if (!helper.equals("with") && random.nextInt(4) == 0) {
+            indent(level);
+            template.append(random.nextBoolean() ? "{{else}}\n" : "{{^}}\n");
+            appendStatements(level + 1, 1 + random.nextInt(2));
+        }
+
+        indent(level);
+        if (random.nextDouble() < errorRate) {
+            // close the wrong block
+            template.append("{{/").append(helper).append("Oops}}\n");
+        } else {
+            template.append("{{/").append(helper).append("}}\n");
+        }
+    }
+
+    private void appendStatements(int level, int count) {
+        for (int i = 0; i < count; i++) {
+            indent(level);
+
+            double kind = random.nextDouble();
+            if (kind < errorRate) {
+                appendError();
+            } else if (kind < errorRate + commentRatio) {
+                appendComment();
+            } else if (kind < errorRate + commentRatio + mustacheDensity) {
+                appendMustache();
+            } else {
+                appendContent();
+            }
+
+            template.append("\n");
+        }
+    }
+
+    private void appendMustache() {
+        switch (random.nextInt(6)) {
+            case 0:
+                template.append("{{> ").append(IDS[random.nextInt(IDS.length)]).append("Partial");
+                if (random.nextBoolean()) {
+                    template.append(" ");
+                    appendPath();
+                }
+                template.append("}}");
+                break;
+            case 1:
+                template.append("{{{");
+                appendPath();
+                template.append("}}}");
+                break;
+            case 2:
+                template.append("{{helper ");
+                appendPath();
+                template.append(" \"a string\" 42 true ").append(IDS[random.nextInt(IDS.length)]).append("=");
+                appendPath();
+                template.append("}}");
+                break;
+            case 3:
+                template.append("{{@index}}");
+                break;
+            default:
+                String tag = TAGS[random.nextInt(TAGS.length)];
+                template.append("<").append(tag).append(" class=\"");
+                appendPath();
+                template.append("\">{{");
+                appendPath();
+                template.append("}}</").append(tag).append(">");
+        }
+    }
+
+    private void appendComment() {
+        if (random.nextBoolean()) {
+            template.append("{{! a simple comment about ").append(IDS[random.nextInt(IDS.length)]).append(" }}");
+        } else {
+            template.append("{{!--\n    a block comment which {{mentions}} a mustache\n--}}");
+        }
+    }
+
+    private void appendContent() {
+        String tag = TAGS[random.nextInt(TAGS.length)];
+        template.append("<").append(tag).append(">Some static content, as most of a template is.</").append(tag).append(">");
+    }
+
+    /**
+     * Appends a statement which is broken in a way that the parser should recover from close by
+     * (we stay clear of unclosed comments, which take the rest of the file with them)
+     */
+    private void appendError() {
+        switch (random.nextInt(3)) {
+            case 0:
+                // unclosed mustache
+                template.append("{{");
+                appendPath();
+                template.append(" ");
+                break;
+            case 1:
+                // close block without an open
+                template.append("{{/strayClose}}");
+                break;
+            default:
+                // invalid characters in a mustache
+                template.append("{{");
+                appendPath();
+                template.append(" %^}}");
+        }
+    }
+
+    private void appendPath() {
+        template.append(IDS[random.nextInt(IDS.length)]);
+        if (random.nextInt(3) == 0) {
+            template.append(".").append(IDS[random.nextInt(IDS.length)]);
+        }
+    }
+
+    private void indent(int level) {
+        for (int i = 0; i < level; i++) {
+            template.append("    ");
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.dmarcotte.handlebars.validation;
+
+import com.dmarcotte.handlebars.HbBundle;
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class HbBatchValidatorTest {
+
+    private File myRoot;
+
+    @Before
+    public void setUp() throws IOException {
+        myRoot = FileUtil.createTempDirectory("hbBatchValidator", null);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.delete(myRoot);
+    }
+
+    @Test
+    public void testFindsTemplatesAndReportsTheirErrors() throws IOException, InterruptedException {
+        writeFile("good.hbs", "{{#if a}}\n  {{b}}\n{{/if}}");
+        writeFile("nested/bad.handlebars", "<p>\n  {{#if a}}{{/each}}\n</p>");
+        writeFile("nested/deeper/good.mustache", "{{! a comment }}{{> partial}}");
+        writeFile("not-a-template.html", "{{#if a}}");
+
+        List<HbBatchValidator.FileResult> results = validate();
+
+        Assert.assertEquals("Only the template files should have been validated", 3, results.size());
+        Assert.assertEquals("good.hbs", results.get(0).getFile().getName());
+        Assert.assertEquals(Collections.<HbBatchValidator.Problem>emptyList(), results.get(0).getErrors());
+        Assert.assertEquals("good.mustache", results.get(2).getFile().getName());
+        Assert.assertEquals(Collections.<HbBatchValidator.Problem>emptyList(), results.get(2).getErrors());
+
+        HbBatchValidator.FileResult badResult = results.get(1);
+        Assert.assertEquals("bad.handlebars", badResult.getFile().getName());
+        Assert.assertEquals(1, badResult.getErrors().size());
+        HbBatchValidator.Problem problem = badResult.getErrors().get(0);
+        Assert.assertEquals(HbBundle.message("hb.parsing.end.tag.bad.match", "each", "if"), problem.getMessage());
+        Assert.assertEquals(2, problem.getLine());
+        Assert.assertEquals(problem.getOffset() - "<p>\n".length() + 1, problem.getColumn());
+    }
+
+    @Test
+    public void testJsonOutput() throws IOException, InterruptedException {
+        writeFile("bad \"quoted\".hbs", "{{#if a}}");
+
+        List<HbBatchValidator.FileResult> results = validate();
+        String json = results.get(0).toJson();
+
+        Assert.assertTrue(json, json.startsWith("{\"file\":\"" + new File(myRoot, "bad \\\"quoted\\\".hbs").getPath()));
+        Assert.assertTrue(json, json.matches(".*\"timeMs\":[0-9]+\\.[0-9]{3},.*"));
+        Assert.assertTrue(json, json.contains("\"errors\":[{\"offset\":"));
+        Assert.assertTrue(json, json.contains("\"line\":1,\"column\":"));
+
+        String summary = HbBatchValidator.summaryJson(results, 1500000);
+        Assert.assertEquals("{\"summary\":true,\"files\":1,\"filesWithErrors\":1,\"errors\":" + results.get(0).getErrors().size()
+                            + ",\"unreadableFiles\":0,\"timeMs\":1.500}", summary);
+    }
+
+    private List<HbBatchValidator.FileResult> validate() throws InterruptedException {
+        return new HbBatchValidator(4, Charset.forName("UTF-8")).validate(Arrays.asList(myRoot));
+    }
+
+    private void writeFile(String path, String text) throws IOException {
+        File file = new File(myRoot, path);
+        FileUtil.createParentDirs(file);
+        FileUtil.writeToFile(file, text);
+    }
+}